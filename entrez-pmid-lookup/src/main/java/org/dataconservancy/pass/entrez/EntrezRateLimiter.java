@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket that spaces out requests to Entrez so they run at, but not above, the rate NCBI allows. As of 2018
+ * that is 3 requests per second without an API key and 10 per second with one, and the limit applies across every
+ * caller using the same key (or the same address when there is no key), so limiters are shared through
+ * {@link #forApiKey(String, double, int)}.
+ * <p>
+ * Each caller reserves the next free slot before waiting, so callers are served in the order they asked. When
+ * Entrez reports that requests are being throttled, {@link #backoff(long)} holds back all callers until the delay
+ * has passed and halves the rate. Each successful request then restores a tenth of the configured rate until it is
+ * back to the full rate.
+ * </p>
+ */
+public class EntrezRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntrezRateLimiter.class);
+
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * Shared limiters, keyed by API key. Requests made without a key share the limiter under the empty string.
+     */
+    private static final Map<String, EntrezRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final double maxRequestsPerSecond;
+
+    private final double minRequestsPerSecond;
+
+    /**
+     * Number of unused permits that can be saved up while idle, one less than the number of requests that can be
+     * made back to back
+     */
+    private final double maxStoredPermits;
+
+    private double requestsPerSecond;
+
+    private double storedPermits = 0;
+
+    /**
+     * Time the next request may be made, in {@link System#nanoTime()} terms
+     */
+    private long nextFreeNanos;
+
+    /**
+     * No request may be made before this time, set when backing off
+     */
+    private long pausedUntilNanos;
+
+    private int consecutiveBackoffs = 0;
+
+    /**
+     * @param requestsPerSecond the maximum rate of requests
+     * @param burst             number of requests that can be made back to back after an idle period, 1 spaces
+     *                          every request evenly
+     */
+    public EntrezRateLimiter(double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("requestsPerSecond and burst must both be greater than 0");
+        }
+        this.maxRequestsPerSecond = requestsPerSecond;
+        this.minRequestsPerSecond = Math.min(requestsPerSecond, 0.5);
+        this.maxStoredPermits = burst - 1;
+        this.requestsPerSecond = requestsPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+        this.pausedUntilNanos = nextFreeNanos;
+    }
+
+    /**
+     * Gets the limiter shared by all callers using the API key provided, creating it if it does not exist yet. The
+     * rate and burst are only used when the limiter is created.
+     *
+     * @param apiKey            the Entrez API key, null or empty if requests are made without a key
+     * @param requestsPerSecond the maximum rate of requests
+     * @param burst             number of requests that can be made back to back after an idle period
+     * @return the limiter
+     */
+    public static EntrezRateLimiter forApiKey(String apiKey, double requestsPerSecond, int burst) {
+        return LIMITERS.computeIfAbsent(apiKey == null ? "" : apiKey,
+                                        key -> new EntrezRateLimiter(requestsPerSecond, burst));
+    }
+
+    /**
+     * Waits until a request can be made
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos = reserve();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            synchronized (this) {
+                // if a backoff started while waiting, the slot reserved is no longer valid
+                if (System.nanoTime() - pausedUntilNanos >= 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a request succeeded, gradually restoring the rate after a backoff
+     */
+    public synchronized void onSuccess() {
+        consecutiveBackoffs = 0;
+        if (requestsPerSecond < maxRequestsPerSecond) {
+            requestsPerSecond = Math.min(maxRequestsPerSecond, requestsPerSecond + maxRequestsPerSecond / 10);
+        }
+    }
+
+    /**
+     * Holds back all requests after Entrez reports that requests are being throttled, and halves the rate. If
+     * Entrez did not say how long to wait, the delay starts at one second and doubles each time requests are
+     * throttled again without a success in between, up to 30 seconds.
+     *
+     * @param retryAfterMillis the delay requested by Entrez, or less than 0 if none was given
+     * @return the delay applied in milliseconds
+     */
+    public synchronized long backoff(long retryAfterMillis) {
+        consecutiveBackoffs = consecutiveBackoffs + 1;
+        long delay = retryAfterMillis;
+        if (delay < 0) {
+            delay = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(consecutiveBackoffs - 1, 5));
+        }
+        requestsPerSecond = Math.max(minRequestsPerSecond, requestsPerSecond / 2);
+        storedPermits = 0;
+        long pausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        if (pausedUntil - pausedUntilNanos > 0) {
+            pausedUntilNanos = pausedUntil;
+        }
+        if (pausedUntilNanos - nextFreeNanos > 0) {
+            nextFreeNanos = pausedUntilNanos;
+        }
+        LOG.debug("Backing off Entrez requests for {}ms, rate reduced to {} per second", delay, requestsPerSecond);
+        return delay;
+    }
+
+    /**
+     * @return the current rate of requests per second, lower than the configured rate after a backoff
+     */
+    public synchronized double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * Reserves the next free slot for a request
+     *
+     * @return the number of nanoseconds to wait before the slot
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        if (now - nextFreeNanos > 0) {
+            storedPermits = Math.min(maxStoredPermits, storedPermits + (double) (now - nextFreeNanos) / intervalNanos);
+            nextFreeNanos = now;
+        }
+        long slot = nextFreeNanos;
+        if (storedPermits >= 1) {
+            storedPermits = storedPermits - 1;
+        } else {
+            nextFreeNanos = nextFreeNanos + intervalNanos;
+        }
+        return slot - now;
+    }
+
+}
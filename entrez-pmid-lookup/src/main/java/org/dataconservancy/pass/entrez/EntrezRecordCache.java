@@ -0,0 +1,373 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of Entrez records, so that PMIDs looked up in a previous run do not need to be requested from
+ * Entrez again. Records are appended to a local text file, one per line in the form "pmid[tab]timestamp[tab]json",
+ * where the JSON holds only the fields kept by {@link PubMedEntrezRecord}.
+ * Only the position of each record in the file is held in memory, the record itself is read back from the file
+ * when requested. Records older than the time-to-live are treated as missing, and once the cache holds more than
+ * the maximum number of records the oldest are evicted. Superseded and evicted lines are removed from the file
+ * when the cache is closed.
+ */
+public class EntrezRecordCache implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntrezRecordCache.class);
+
+    private static final char SEPARATOR = '\t';
+
+    private final File cacheFile;
+
+    private final long ttlMillis;
+
+    private final int maxEntries;
+
+    private final LongSupplier clock;
+
+    /**
+     * Position of each record in the cache file, oldest first
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Number of complete lines in the cache file, including superseded and evicted records
+     */
+    private long fileLines = 0;
+
+    private RandomAccessFile file = null;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Opens the cache stored at the path provided, creating the file if it does not exist
+     *
+     * @param cacheFile  the cache file
+     * @param ttlMillis  how long a record can be used for after it was retrieved from Entrez
+     * @param maxEntries maximum number of records to keep
+     */
+    public EntrezRecordCache(File cacheFile, long ttlMillis, int maxEntries) {
+        this(cacheFile, ttlMillis, maxEntries, System::currentTimeMillis);
+    }
+
+    EntrezRecordCache(File cacheFile, long ttlMillis, int maxEntries, LongSupplier clock) {
+        if (ttlMillis < 1 || maxEntries < 1) {
+            throw new IllegalArgumentException("The time-to-live and maximum entries must both be at least 1");
+        }
+        this.cacheFile = cacheFile;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        loadFromFile();
+    }
+
+    /**
+     * Retrieves a record from the cache
+     *
+     * @param pmid pub med id
+     * @return the record, or null if it is not in the cache or has expired
+     */
+    public synchronized PubMedEntrezRecord get(String pmid) {
+        Entry entry = entries.get(pmid);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(pmid);
+            evictionCount = evictionCount + 1;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount = missCount + 1;
+            return null;
+        }
+        hitCount = hitCount + 1;
+        return new PubMedEntrezRecord(new JSONObject(readRecord(entry)));
+    }
+
+    /**
+     * Checks whether there is an unexpired record for the PMID without counting a hit or miss
+     *
+     * @param pmid pub med id
+     * @return true if the record is in the cache
+     */
+    public synchronized boolean contains(String pmid) {
+        Entry entry = entries.get(pmid);
+        return entry != null && !isExpired(entry);
+    }
+
+    /**
+     * Adds a record to the cache, replacing any existing record for the PMID
+     *
+     * @param pmid   pub med id
+     * @param record the record retrieved from Entrez
+     */
+    public synchronized void put(String pmid, PubMedEntrezRecord record) {
+        long now = clock.getAsLong();
+        byte[] line = (pmid + SEPARATOR + now + SEPARATOR + record.toJson().toString() + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+        try {
+            RandomAccessFile raf = openFile();
+            long offset = raf.length();
+            raf.seek(offset);
+            raf.write(line);
+            fileLines = fileLines + 1;
+            entries.remove(pmid);
+            entries.put(pmid, new Entry(offset, line.length, now));
+        } catch (IOException ex) {
+            throw new RuntimeException("Problem writing PMID " + pmid + " to Entrez cache", ex);
+        }
+        evictOverflow();
+    }
+
+    /**
+     * Get number of records in cache
+     *
+     * @return the size of the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of lookups that found an unexpired record
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of lookups that did not find an unexpired record
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of records removed because they expired or the cache was full
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Removes superseded and evicted records from the file if they make up more than half of it, and releases
+     * the file. The cache can still be used afterwards, the file is reopened when needed.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (fileLines > 2L * entries.size()) {
+                compact();
+            }
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not close Entrez cache at path " + cacheFile.getAbsolutePath(), ex);
+        } finally {
+            file = null;
+        }
+    }
+
+    /**
+     * Empty cache
+     */
+    public synchronized void clear() {
+        try {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+            if (cacheFile.exists()) {
+                cacheFile.delete();
+            }
+            entries.clear();
+            fileLines = 0;
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not clear Entrez cache at path " + cacheFile.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Reads through the cache file recording the position of each unexpired record. Only the PMID and timestamp
+     * of each line are decoded. A partially written line at the end of the file, left by a run that was stopped
+     * mid-write, is truncated.
+     */
+    private void loadFromFile() {
+        long validLength = 0;
+        try {
+            if (!cacheFile.exists()) {
+                cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+                cacheFile.createNewFile();
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(cacheFile))) {
+                StringBuilder head = new StringBuilder();
+                int separators = 0;
+                long position = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    position = position + 1;
+                    if (b == '\n') {
+                        indexLine(head.toString(), separators, validLength, (int) (position - validLength));
+                        head.setLength(0);
+                        separators = 0;
+                        validLength = position;
+                    } else if (separators < 2) {
+                        if (b == SEPARATOR) {
+                            separators = separators + 1;
+                        }
+                        head.append((char) b);
+                    }
+                }
+            }
+            if (validLength < cacheFile.length()) {
+                LOG.warn("Truncating incomplete record at the end of the Entrez cache at {}", cacheFile);
+                try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not load Entrez cache at path " + cacheFile.getAbsolutePath(), ex);
+        }
+        evictOverflow();
+        LOG.info("Loaded {} records into the Entrez cache from {}", entries.size(), cacheFile);
+    }
+
+    private void indexLine(String head, int separators, long offset, int length) {
+        fileLines = fileLines + 1;
+        if (separators < 2) {
+            return;
+        }
+        String[] fields = head.split(String.valueOf(SEPARATOR), -1);
+        try {
+            Entry entry = new Entry(offset, length, Long.parseLong(fields[1]));
+            entries.remove(fields[0]);
+            if (!isExpired(entry)) {
+                entries.put(fields[0], entry);
+            }
+        } catch (NumberFormatException ex) {
+            LOG.warn("Ignoring Entrez cache record with an invalid timestamp at position {}", offset);
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictionCount = evictionCount + 1;
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return clock.getAsLong() - entry.fetched >= ttlMillis;
+    }
+
+    private String readRecord(Entry entry) {
+        try {
+            byte[] line = new byte[entry.length];
+            RandomAccessFile raf = openFile();
+            raf.seek(entry.offset);
+            raf.readFully(line);
+            String text = new String(line, StandardCharsets.UTF_8);
+            int start = text.indexOf(SEPARATOR, text.indexOf(SEPARATOR) + 1) + 1;
+            return text.substring(start, text.length() - 1);
+        } catch (IOException ex) {
+            throw new RuntimeException("Problem reading record from Entrez cache at " + cacheFile, ex);
+        }
+    }
+
+    /**
+     * Writes the live records to a new file, in order, and replaces the cache file with it
+     *
+     * @throws IOException if the new file could not be written
+     */
+    private void compact() throws IOException {
+        File compacted = new File(cacheFile.getPath() + ".tmp");
+        LinkedHashMap<String, Entry> moved = new LinkedHashMap<>();
+        long offset = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(compacted))) {
+            for (Map.Entry<String, Entry> live : entries.entrySet()) {
+                Entry entry = live.getValue();
+                byte[] line = new byte[entry.length];
+                RandomAccessFile raf = openFile();
+                raf.seek(entry.offset);
+                raf.readFully(line);
+                out.write(line);
+                moved.put(live.getKey(), new Entry(offset, entry.length, entry.fetched));
+                offset = offset + entry.length;
+            }
+        }
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        Files.move(compacted.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Compacted Entrez cache from {} to {} records", fileLines, moved.size());
+        entries.clear();
+        entries.putAll(moved);
+        fileLines = moved.size();
+    }
+
+    private RandomAccessFile openFile() throws IOException {
+        if (file == null) {
+            file = new RandomAccessFile(cacheFile, "rw");
+        }
+        return file;
+    }
+
+    /**
+     * Position and length of a record line in the cache file, and when the record was retrieved from Entrez
+     */
+    private static class Entry {
+
+        private final long offset;
+
+        private final int length;
+
+        private final long fetched;
+
+        private Entry(long offset, int length, long fetched) {
+            this.offset = offset;
+            this.length = length;
+            this.fetched = fetched;
+        }
+    }
+
+}
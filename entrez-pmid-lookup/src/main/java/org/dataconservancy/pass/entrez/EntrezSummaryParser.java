@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_ARTICLEIDS_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_ESSN_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_IDTYPE_DOI;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_IDTYPE_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_IDVALUE_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_ISSN_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_ISSUE_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_PMID_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_TITLE_KEY;
+import static org.dataconservancy.pass.entrez.PubMedEntrezRecord.JSON_VOLUME_KEY;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads an Entrez esummary response as a stream, keeping only the fields of each summary that
+ * {@link PubMedEntrezRecord} uses. Responses for large batches are never held in memory as a whole.
+ */
+final class EntrezSummaryParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String JSON_RESULT_KEY = "result";
+    private static final String JSON_UIDS_KEY = "uids";
+    private static final String JSON_ERROR_KEY = "error";
+
+    private EntrezSummaryParser() {
+        //never called
+    }
+
+    /**
+     * Reads the summaries in an esummary response
+     *
+     * @param in the response body
+     * @return the summaries
+     * @throws IOException if the response could not be read or is not a JSON object
+     */
+    static Summaries parse(InputStream in) throws IOException {
+        Summaries summaries = new Summaries();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Entrez response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (JSON_RESULT_KEY.equals(name) && token == JsonToken.START_OBJECT) {
+                    summaries.hasResult = true;
+                    readResult(parser, summaries);
+                } else if (JSON_ERROR_KEY.equals(name) && token.isScalarValue()) {
+                    summaries.error = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return summaries;
+    }
+
+    private static void readResult(JsonParser parser, Summaries summaries) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String uid = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT && !JSON_UIDS_KEY.equals(uid)) {
+                readSummary(parser, uid, summaries);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readSummary(JsonParser parser, String uid, Summaries summaries) throws IOException {
+        String pmid = null;
+        String doi = null;
+        String title = null;
+        String volume = null;
+        String issue = null;
+        String issn = null;
+        String essn = null;
+        String error = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (JSON_ARTICLEIDS_KEY.equals(name) && token == JsonToken.START_ARRAY) {
+                String articleDoi = readDoi(parser);
+                doi = (articleDoi != null ? articleDoi : doi);
+            } else if (!token.isScalarValue()) {
+                parser.skipChildren();
+            } else if (JSON_PMID_KEY.equals(name)) {
+                pmid = parser.getValueAsString();
+            } else if (JSON_TITLE_KEY.equals(name)) {
+                title = parser.getValueAsString();
+            } else if (JSON_VOLUME_KEY.equals(name)) {
+                volume = parser.getValueAsString();
+            } else if (JSON_ISSUE_KEY.equals(name)) {
+                issue = parser.getValueAsString();
+            } else if (JSON_ISSN_KEY.equals(name)) {
+                issn = parser.getValueAsString();
+            } else if (JSON_ESSN_KEY.equals(name)) {
+                essn = parser.getValueAsString();
+            } else if (JSON_ERROR_KEY.equals(name)) {
+                error = parser.getValueAsString();
+            }
+        }
+
+        if (error != null) {
+            summaries.errors.put(uid, error);
+        } else {
+            summaries.records.put(uid, new PubMedEntrezRecord(pmid, doi, title, volume, issue, issn, essn));
+        }
+    }
+
+    /**
+     * Reads the article ids array, returning the value of the last id with type "doi"
+     *
+     * @param parser the parser, positioned at the start of the array
+     * @return the DOI, or null if there was none
+     * @throws IOException if the array could not be read
+     */
+    private static String readDoi(JsonParser parser) throws IOException {
+        String doi = null;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String idType = null;
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!token.isScalarValue()) {
+                    parser.skipChildren();
+                } else if (JSON_IDTYPE_KEY.equals(name)) {
+                    idType = parser.getValueAsString();
+                } else if (JSON_IDVALUE_KEY.equals(name)) {
+                    value = parser.getValueAsString();
+                }
+            }
+            if (JSON_IDTYPE_DOI.equals(idType)) {
+                doi = value;
+            }
+        }
+        return doi;
+    }
+
+    /**
+     * The contents of an esummary response
+     */
+    static final class Summaries {
+
+        private final Map<String, PubMedEntrezRecord> records = new HashMap<>();
+
+        private final Map<String, String> errors = new HashMap<>();
+
+        private boolean hasResult = false;
+
+        private String error = null;
+
+        /**
+         * @return the records in the response, keyed by the uid they were listed under
+         */
+        Map<String, PubMedEntrezRecord> getRecords() {
+            return records;
+        }
+
+        /**
+         * @return the errors Entrez gave for individual uids, keyed by uid
+         */
+        Map<String, String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return true if the response included a result, even an empty one
+         */
+        boolean hasResult() {
+            return hasResult;
+        }
+
+        /**
+         * @return the error Entrez gave for the whole request, or null if there was none
+         */
+        String getError() {
+            return error;
+        }
+    }
+
+}
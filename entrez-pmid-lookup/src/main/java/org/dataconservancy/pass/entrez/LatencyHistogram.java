@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+/**
+ * Records request latencies in milliseconds so that percentiles can be reported. Latencies are counted in 1ms
+ * buckets up to one minute, anything longer is counted in the last bucket, so memory use is fixed no matter how many
+ * requests are recorded.
+ */
+public class LatencyHistogram {
+
+    private static final int MAX_TRACKED_MILLIS = 60000;
+
+    private final long[] counts = new long[MAX_TRACKED_MILLIS + 1];
+
+    private long count = 0;
+
+    private long totalMillis = 0;
+
+    private long maxMillis = 0;
+
+    /**
+     * Records the latency of one request
+     *
+     * @param millis the latency in milliseconds
+     */
+    public synchronized void record(long millis) {
+        long latency = Math.max(0, millis);
+        counts[(int) Math.min(latency, MAX_TRACKED_MILLIS)]++;
+        count = count + 1;
+        totalMillis = totalMillis + latency;
+        maxMillis = Math.max(maxMillis, latency);
+    }
+
+    /**
+     * @return number of requests recorded
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the longest latency recorded in milliseconds, 0 if nothing has been recorded
+     */
+    public synchronized long getMax() {
+        return maxMillis;
+    }
+
+    /**
+     * @return the mean latency in milliseconds, 0 if nothing has been recorded
+     */
+    public synchronized long getMean() {
+        return (count > 0 ? totalMillis / count : 0);
+    }
+
+    /**
+     * Gets the latency that the given percentage of requests completed within
+     *
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds, 0 if nothing has been recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int millis = 0; millis < counts.length; millis++) {
+            seen = seen + counts[millis];
+            if (seen >= rank) {
+                return (millis < MAX_TRACKED_MILLIS ? millis : maxMillis);
+            }
+        }
+        return maxMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d requests, mean %dms, p50 %dms, p90 %dms, p99 %dms, max %dms", count, getMean(),
+                             getPercentile(50), getPercentile(90), getPercentile(99), maxMillis);
+    }
+
+}
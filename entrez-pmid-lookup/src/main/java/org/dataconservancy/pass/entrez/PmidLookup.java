@@ -15,39 +15,67 @@
  */
 package org.dataconservancy.pass.entrez;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.dataconservancy.pass.entrez.EntrezSummaryParser.Summaries;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Service to retrieve a PMID records from Entrez. If you prefer to avoid dealing with JSON,
  * there is an option to retrieve a PubMedRecord object where you can use standard getters to
- * retrieve article details.
+ * retrieve article details. PubMedRecords are read from the response as it streams in, keeping only the fields
+ * they provide, which is how records are prefetched, cached and retrieved in batches.
+ * <p>
+ * Requests are made using a pooled HTTP client that is kept for the life of the lookup, so connections to Entrez are
+ * reused. Call {@link #close()} once the lookup is no longer needed to release them.
+ * </p>
  *
  * @author Karen Hanson
  * @version $Id$
  */
-public class PmidLookup {
+public class PmidLookup implements Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(PmidLookup.class);
 
     /**
      * The default Entrez path does not include an API path. This property can be overridden with a System Property
      * Note that as of May 2018, Entrez supports 3 seconds per second without an API key, above this will result in
-     * delayed responses.
+     * delayed responses. The API key, tool and email parameters are added from their own properties.
      * https://www.ncbi.nlm.nih.gov/books/NBK25497/
      */
     private static final String DEFAULT_ENTREZ_PATH = "https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary" +
@@ -55,32 +83,348 @@ public class PmidLookup {
 
     private static final String ENTREZ_PATH_KEY = "entrez.pmid.path";
 
+    /**
+     * Optional cap on the number of requests that may be in flight to Entrez at once. There is no cap if this
+     * property is not set
+     */
+    private static final String MAX_CONCURRENT_REQUESTS_KEY = "entrez.max-concurrent-requests";
+
+    /**
+     * Optional API key, tool name and contact email sent with each request. NCBI allows 10 requests per second
+     * with an API key instead of 3.
+     */
+    private static final String API_KEY_KEY = "entrez.api-key";
+    private static final String TOOL_KEY = "entrez.tool";
+    private static final String EMAIL_KEY = "entrez.email";
+
+    /**
+     * Requests per second allowed by NCBI, requests are spaced out so this rate is not exceeded. This can be
+     * overridden with the entrez.requests-per-second property, for example if NCBI has agreed a higher rate.
+     */
+    private static final String REQUESTS_PER_SECOND_KEY = "entrez.requests-per-second";
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 3;
+    private static final double DEFAULT_REQUESTS_PER_SECOND_WITH_API_KEY = 10;
+
+    /**
+     * Number of times a request is attempted while Entrez reports it is throttling requests
+     */
+    private static final String MAX_ATTEMPTS_KEY = "entrez.max-attempts";
+    private static final int DEFAULT_MAX_ATTEMPTS = 6;
+
+    private static final String RATE_LIMIT_ERROR = "API rate limit exceeded";
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Number of PMIDs requested per call when retrieving records in batches. Entrez accepts a comma separated list
+     * of ids, 200 keeps the request URL comfortably short.
+     */
+    private static final String BATCH_SIZE_KEY = "entrez.batch.size";
+    private static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * Timeouts and connection pool settings for requests to Entrez
+     */
+    private static final String HTTP_CONNECT_TIMEOUT_KEY = "entrez.http.connect-timeout-ms";
+    private static final int DEFAULT_HTTP_CONNECT_TIMEOUT = 10000;
+    private static final String HTTP_READ_TIMEOUT_KEY = "entrez.http.read-timeout-ms";
+    private static final int DEFAULT_HTTP_READ_TIMEOUT = 30000;
+    private static final String HTTP_MAX_CONNECTIONS_KEY = "entrez.http.max-connections";
+    private static final int DEFAULT_HTTP_MAX_CONNECTIONS = 10;
+    private static final String HTTP_KEEP_ALIVE_KEY = "entrez.http.keep-alive-ms";
+    private static final int DEFAULT_HTTP_KEEP_ALIVE = 30000;
+
     private static final String JSON_ERROR_KEY = "error";
     private static final String JSON_RESULT_KEY = "result";
 
     private String entrezPath;
 
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * API key, tool and email parameters to add to each request, empty if none are configured
+     */
+    private final String requestParams;
+
+    private final EntrezRateLimiter rateLimiter;
+
+    private final int maxAttempts;
+
+    /**
+     * Time taken by each request to Entrez
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * Permits for requests to Entrez, null when the number of concurrent requests is not capped
+     */
+    private Semaphore requestPermits = null;
+
+    private int batchSize;
+
+    /**
+     * Records retrieved ahead of time by {@link #prefetch(Collection)}, keyed by PMID
+     */
+    private final Map<String, PubMedEntrezRecord> prefetched = new ConcurrentHashMap<>();
+
+    /**
+     * PMIDs that were included in a prefetch but that Entrez returned no record for
+     */
+    private final Set<String> prefetchedMisses = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Optional persistent cache of records retrieved in previous runs, null when there is no cache
+     */
+    private EntrezRecordCache recordCache = null;
+
     public PmidLookup() {
         entrezPath = System.getProperty(ENTREZ_PATH_KEY, DEFAULT_ENTREZ_PATH);
+        batchSize = intProperty(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE);
+        String maxConcurrentRequests = System.getProperty(MAX_CONCURRENT_REQUESTS_KEY);
+        if (maxConcurrentRequests != null) {
+            setMaxConcurrentRequests(Integer.parseInt(maxConcurrentRequests.trim()));
+        }
+        httpClient = createHttpClient();
+
+        String apiKey = System.getProperty(API_KEY_KEY);
+        requestParams = requestParam("api_key", apiKey) + requestParam("tool", System.getProperty(TOOL_KEY))
+                        + requestParam("email", System.getProperty(EMAIL_KEY));
+        boolean hasApiKey = (apiKey != null && apiKey.trim().length() > 0);
+        double defaultRate = (hasApiKey ? DEFAULT_REQUESTS_PER_SECOND_WITH_API_KEY : DEFAULT_REQUESTS_PER_SECOND);
+        double requestsPerSecond = Double.parseDouble(
+            System.getProperty(REQUESTS_PER_SECOND_KEY, String.valueOf(defaultRate)).trim());
+        rateLimiter = EntrezRateLimiter.forApiKey(hasApiKey ? apiKey.trim() : null, requestsPerSecond, 1);
+        maxAttempts = intProperty(MAX_ATTEMPTS_KEY, DEFAULT_MAX_ATTEMPTS);
     }
 
     /**
-     * Retrieve PubMedRecord object for PMID record from NIH's Entrez API service.
+     * Formats a URL parameter to add to each request
+     *
+     * @param name  parameter name
+     * @param value parameter value, may be null
+     * @return the parameter preceded by "&amp;", or an empty string if there is no value
+     */
+    private static String requestParam(String name, String value) {
+        if (value == null || value.trim().length() == 0) {
+            return "";
+        }
+        try {
+            return "&" + name + "=" + URLEncoder.encode(value.trim(), StandardCharsets.UTF_8.name());
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not encode Entrez request parameter " + name, ex);
+        }
+    }
+
+    /**
+     * Builds the pooled HTTP client used for all requests. Connections are kept alive for the time the server
+     * allows, up to the configured keep-alive, and idle connections are closed after the same time.
+     *
+     * @return the HTTP client
+     */
+    private static CloseableHttpClient createHttpClient() {
+        int connectTimeout = intProperty(HTTP_CONNECT_TIMEOUT_KEY, DEFAULT_HTTP_CONNECT_TIMEOUT);
+        int readTimeout = intProperty(HTTP_READ_TIMEOUT_KEY, DEFAULT_HTTP_READ_TIMEOUT);
+        int maxConnections = intProperty(HTTP_MAX_CONNECTIONS_KEY, DEFAULT_HTTP_MAX_CONNECTIONS);
+        long keepAlive = intProperty(HTTP_KEEP_ALIVE_KEY, DEFAULT_HTTP_KEEP_ALIVE);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                                                   .setConnectTimeout(connectTimeout)
+                                                   .setConnectionRequestTimeout(connectTimeout)
+                                                   .setSocketTimeout(readTimeout)
+                                                   .build();
+
+        return HttpClientBuilder
+            .create()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> {
+                long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response,
+                                                                                                        context);
+                return (serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive);
+            })
+            .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+            .setRetryHandler(new DefaultHttpRequestRetryHandler(3, false))
+            .build();
+    }
+
+    /**
+     * Reads a positive whole number from the system properties
+     *
+     * @param key          the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the value
+     */
+    private static int intProperty(String key, int defaultValue) {
+        int value = Integer.parseInt(System.getProperty(key, String.valueOf(defaultValue)).trim());
+        if (value < 1) {
+            throw new IllegalArgumentException(key + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * @return the time taken by each request made to Entrez so far
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Closes the connections to Entrez and the persistent cache, if there is one. The lookup cannot make further
+     * requests to Entrez once closed.
+     */
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            LOG.warn("Could not close connections to Entrez", ex);
+        }
+        EntrezRecordCache cache = recordCache;
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * Caps the number of requests that can be waiting on Entrez at the same time. Callers beyond the cap will block
+     * until a request completes.
+     *
+     * @param maxConcurrentRequests maximum number of requests in flight, 0 or less removes the cap
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.requestPermits = (maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests, true) : null);
+    }
+
+    /**
+     * Sets a persistent cache that is checked before requesting a record from Entrez, and that records retrieved
+     * from Entrez are added to.
+     *
+     * @param recordCache the cache, or null to stop using a cache
+     */
+    public void setRecordCache(EntrezRecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    /**
+     * @return the persistent cache in use, or null if there is none
+     */
+    public EntrezRecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Retrieve PubMedRecord object for PMID record from NIH's Entrez API service. If the record was prefetched or
+     * is in the persistent cache, it is returned without a request to Entrez. Returns null if no match found. Note
+     * that "no match found" means there is no record for that pmid, whereas a RuntimeException means
+     * communication with the service failed, and the client app can decide what to do about those.
      *
      * @param pmid pub med id
      * @return the record
      */
     public PubMedEntrezRecord retrievePubMedRecord(String pmid) {
-        JSONObject jsonObj = retrievePubMedRecordAsJson(pmid);
-        PubMedEntrezRecord pmr = (jsonObj != null ? new PubMedEntrezRecord(jsonObj) : null);
-        return pmr;
+        if (pmid == null) {
+            throw new IllegalArgumentException("pmid cannot be null");
+        }
+        PubMedEntrezRecord record = prefetched.get(pmid);
+        if (record != null) {
+            return record;
+        }
+        if (prefetchedMisses.contains(pmid)) {
+            LOG.warn("Could not retrieve PMID {} from Entrez. No record was returned when it was prefetched.", pmid);
+            return null;
+        }
+        record = fromCache(pmid);
+        if (record != null) {
+            return record;
+        }
+
+        Summaries summaries = requestSummaries(pmid);
+        record = (summaries != null ? summaries.getRecords().get(pmid) : null);
+        if (record == null) {
+            LOG.warn("Could not retrieve PMID {} from Entrez. Error: {}", pmid, describeError(summaries, pmid));
+            return null;
+        }
+        toCache(pmid, record);
+        return record;
+    }
+
+    /**
+     * Retrieve PubMedRecord objects for a collection of PMIDs from NIH's Entrez API service. PMIDs are requested
+     * in batches of {@code entrez.batch.size} (default 200) per call. PMIDs that have no record, or that were in
+     * a batch Entrez could not return, are not included in the map.
+     *
+     * @param pmids pub med ids
+     * @return the records found, keyed by PMID
+     */
+    public Map<String, PubMedEntrezRecord> retrievePubMedRecords(Collection<String> pmids) {
+        Map<String, PubMedEntrezRecord> records = new HashMap<>();
+        List<String> notCached = new ArrayList<>();
+        for (String pmid : new LinkedHashSet<>(pmids)) {
+            PubMedEntrezRecord cached = (pmid != null ? fromCache(pmid) : null);
+            if (cached != null) {
+                records.put(pmid, cached);
+            } else {
+                notCached.add(pmid);
+            }
+        }
+        for (List<String> batch : toBatches(notCached)) {
+            retrieveBatch(batch, records);
+        }
+        return records;
+    }
+
+    /**
+     * Retrieves records for a collection of PMIDs in batches and holds on to them so that later calls to
+     * {@link #retrievePubMedRecord(String)} for those PMIDs do not need to go back to Entrez. PMIDs that Entrez has
+     * no record for are remembered too. If a whole batch fails, the PMIDs in it will be looked up individually
+     * when requested. PMIDs that are already in the persistent cache, if there is one, are not requested.
+     *
+     * @param pmids pub med ids
+     * @return the number of records retrieved from Entrez
+     */
+    public int prefetch(Collection<String> pmids) {
+        List<String> notFetched = new ArrayList<>();
+        for (String pmid : pmids) {
+            if (pmid != null && !prefetched.containsKey(pmid) && !prefetchedMisses.contains(pmid)
+                && (recordCache == null || !recordCache.contains(pmid))) {
+                notFetched.add(pmid);
+            }
+        }
+        int count = 0;
+        for (List<String> batch : toBatches(notFetched)) {
+            Map<String, PubMedEntrezRecord> found = new HashMap<>();
+            if (retrieveBatch(batch, found)) {
+                prefetched.putAll(found);
+                for (String pmid : batch) {
+                    if (!found.containsKey(pmid)) {
+                        prefetchedMisses.add(pmid);
+                    }
+                }
+                count = count + found.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Discards any records held from previous calls to {@link #prefetch(Collection)}
+     */
+    public void clearPrefetched() {
+        prefetched.clear();
+        prefetchedMisses.clear();
     }
 
     /**
      * Retrieve JSON for PMID record from NIH's Entrez API service. Returns JSON object containing the record
      * or null if no match found. Note that "no match found" means there is no record for that pmid, whereas
      * a RuntimeException means communication with the service failed, and the client app can decide what
-     * to do about those.
+     * to do about those. Since this returns the full record it is always requested from Entrez, prefetched and
+     * cached records only hold the fields available from {@link #retrievePubMedRecord(String)}.
      *
      * @param pmid pub med id
      * @return the record as a JSON object
@@ -89,77 +433,244 @@ public class PmidLookup {
         if (pmid == null) {
             throw new IllegalArgumentException("pmid cannot be null");
         }
-        JSONObject jsonRecord = null;
+        JSONObject response = request(pmid, PmidLookup::readJson);
+        if (response == null) {
+            LOG.warn("Could not retrieve PMID {} from Entrez. Returned empty value.", pmid);
+            return null;
+        }
 
-        try {
-            jsonRecord = retrieveJsonFromApi(pmid);
-            if (jsonRecord == null) {
-                // pause and retry once to allow for API limitations
-                LOG.info("Pausing before trying to pull PMID {} from Entrez again", pmid);
-                TimeUnit.MILLISECONDS.sleep(400);
-                jsonRecord = retrieveJsonFromApi(pmid);
+        JSONObject root = walkToJsonRoot(response, pmid);
+        if (root.has(JSON_ERROR_KEY)) {
+            //if there is an error key, something went wrong. Log error and return null.
+            String error = root.getString(JSON_ERROR_KEY);
+            LOG.warn("Could not retrieve PMID {} from Entrez. Error: {}", pmid, error);
+            root = null;
+        }
+        return root;
+    }
+
+    /**
+     * @param pmid pub med id
+     * @return the record from the persistent cache, or null if it is not cached or there is no cache
+     */
+    private PubMedEntrezRecord fromCache(String pmid) {
+        EntrezRecordCache cache = recordCache;
+        return (cache != null ? cache.get(pmid) : null);
+    }
+
+    /**
+     * Adds a record retrieved from Entrez to the persistent cache, if there is one
+     *
+     * @param pmid   pub med id
+     * @param record the record
+     */
+    private void toCache(String pmid, PubMedEntrezRecord record) {
+        EntrezRecordCache cache = recordCache;
+        if (cache != null) {
+            cache.put(pmid, record);
+        }
+    }
+
+    /**
+     * Requests a batch of PMIDs from Entrez and adds the records found to the map provided.
+     *
+     * @param batch pub med ids
+     * @param found map to add the records found to, keyed by PMID
+     * @return true if Entrez returned results for the batch, false if the batch could not be retrieved
+     */
+    private boolean retrieveBatch(List<String> batch, Map<String, PubMedEntrezRecord> found) {
+        Summaries summaries = requestSummaries(String.join(",", batch));
+        if (summaries == null || !summaries.hasResult()) {
+            LOG.warn("Could not retrieve a batch of {} PMIDs from Entrez. Error: {}", batch.size(),
+                     describeError(summaries, null));
+            return false;
+        }
+
+        for (String pmid : batch) {
+            PubMedEntrezRecord record = summaries.getRecords().get(pmid);
+            if (record != null) {
+                found.put(pmid, record);
+                toCache(pmid, record);
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("A problem occurred while waiting to retry Entrez API call", e);
         }
+        return true;
+    }
 
-        return jsonRecord;
+    /**
+     * Splits PMIDs into batches of the configured size, dropping nulls and duplicates
+     *
+     * @param pmids pub med ids
+     * @return the batches
+     */
+    private List<List<String>> toBatches(Collection<String> pmids) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(pmids));
+        distinct.remove(null);
+        List<List<String>> batches = new ArrayList<>();
+        for (int start = 0; start < distinct.size(); start = start + batchSize) {
+            batches.add(distinct.subList(start, Math.min(start + batchSize, distinct.size())));
+        }
+        return batches;
     }
 
     /**
-     * Calls the Entrez API and finds the root of the JSON record
+     * Describes why a record was not found in a response, for logging
      *
-     * @param pmid pub med id
-     * @return the root JSON record
+     * @param summaries the response, may be null
+     * @param pmid      the PMID, or null to describe the response as a whole
+     * @return the description
      */
-    private JSONObject retrieveJsonFromApi(String pmid) {
-        JSONObject root = null;
-        String path = String.format(entrezPath, pmid);
+    private static String describeError(Summaries summaries, String pmid) {
+        if (summaries == null) {
+            return "Returned empty value.";
+        }
+        if (pmid != null && summaries.getErrors().containsKey(pmid)) {
+            return summaries.getErrors().get(pmid);
+        }
+        return (summaries.getError() != null ? summaries.getError() : "No record was returned.");
+    }
+
+    /**
+     * Requests summaries for one or more comma separated ids from Entrez, reading only the fields used by
+     * {@link PubMedEntrezRecord} from the response
+     *
+     * @param ids one pub med id, or several separated by commas
+     * @return the summaries, or null if Entrez returned an empty value
+     */
+    private Summaries requestSummaries(String ids) {
+        return request(ids, body -> {
+            Summaries summaries = EntrezSummaryParser.parse(body);
+            if (summaries.getError() != null && summaries.getError().contains(RATE_LIMIT_ERROR)) {
+                throw new ThrottledException();
+            }
+            return summaries;
+        });
+    }
+
+    /**
+     * Reads a full response into a JSONObject
+     *
+     * @param body the response body
+     * @return the response
+     * @throws IOException if the response could not be read, or reports that requests are being throttled
+     */
+    private static JSONObject readJson(InputStream body) throws IOException {
+        JSONObject response = new JSONObject(new JSONTokener(new InputStreamReader(body, StandardCharsets.UTF_8)));
+        if (response.optString(JSON_ERROR_KEY).contains(RATE_LIMIT_ERROR)) {
+            throw new ThrottledException();
+        }
+        return response;
+    }
+
+    /**
+     * Makes a request to Entrez, waiting for a request permit first if the number of concurrent requests is capped
+     *
+     * @param ids    one pub med id, or several separated by commas
+     * @param reader reads the response body
+     * @param <T>    the type the response is read into
+     * @return the response, or null if Entrez returned an empty value
+     */
+    private <T> T request(String ids, ResponseReader<T> reader) {
         try {
-            HttpClient client = HttpClientBuilder
-                .create()
-                .setRetryHandler(new DefaultHttpRequestRetryHandler(3, false))
-                .build();
-            HttpGet httpget = new HttpGet(new URI(path));
-            HttpResponse response = client.execute(httpget);
-            HttpEntity entity = response.getEntity();
-
-            if (entity != null) {
-                String result = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-                root = walkToJsonRoot(result, pmid);
-
-                if (root.has(JSON_ERROR_KEY)) {
-                    //if there is an error key, something went wrong. Log error and return null.
-                    String error = root.getString(JSON_ERROR_KEY);
-                    LOG.warn("Could not retrieve PMID {} from Entrez. Error: {}", pmid, error);
-                    root = null;
-                }
-            } else {
-                LOG.warn("Could not retrieve PMID {} from Entrez. Returned empty value.", pmid);
-                root = null;
+            Semaphore permits = requestPermits;
+            if (permits == null) {
+                return callApi(ids, reader);
+            }
+            permits.acquire();
+            try {
+                return callApi(ids, reader);
+            } finally {
+                permits.release();
             }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting to call the Entrez API", e);
+        }
+    }
+
+    /**
+     * Makes the request to the Entrez API, waiting for the rate limiter before each attempt. If Entrez reports that
+     * requests are being throttled, the rate limiter backs off and the request is attempted again, up to the
+     * configured number of attempts. Throttled requests are never reported as having no record.
+     *
+     * @param ids    one pub med id, or several separated by commas
+     * @param reader reads the response body
+     * @param <T>    the type the response is read into
+     * @return the response, or null if Entrez returned an empty value
+     * @throws InterruptedException if interrupted while waiting for the rate limiter
+     */
+    private <T> T callApi(String ids, ResponseReader<T> reader) throws InterruptedException {
+        String path = String.format(entrezPath, ids) + requestParams;
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            long start = System.nanoTime();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(new HttpGet(new URI(path)))) {
+                HttpEntity entity = httpResponse.getEntity();
+                boolean throttled = (httpResponse.getStatusLine().getStatusCode() == HTTP_TOO_MANY_REQUESTS);
+                T result = null;
+                if (throttled) {
+                    EntityUtils.consumeQuietly(entity);
+                } else if (entity != null) {
+                    try (InputStream body = entity.getContent()) {
+                        result = reader.read(body);
+                    } catch (ThrottledException ex) {
+                        throttled = true;
+                    }
+                }
+
+                if (throttled) {
+                    if (attempt >= maxAttempts) {
+                        throw new RuntimeException(
+                            String.format("Entrez was still throttling requests after %d attempts to retrieve PMIDs %s",
+                                          attempt, ids));
+                    }
+                    long delay = rateLimiter.backoff(retryAfterMillis(httpResponse));
+                    LOG.warn("Entrez is throttling requests, retrying PMIDs {} in {}ms (attempt {} of {})", ids,
+                             delay, attempt + 1, maxAttempts);
+                    continue;
+                }
+
+                rateLimiter.onSuccess();
+                return result;
 
-        } catch (URISyntaxException e) {
-            throw new RuntimeException("Could not convert convert path to URL: " + path, e);
-        } catch (IllegalStateException | IOException e) {
-            LOG.warn("Could not retrieve PMID {} from Entrez. Error: {}", pmid, e);
-            throw new RuntimeException("Error while retrieving content from Entrez at URL: " + path, e);
+            } catch (URISyntaxException e) {
+                throw new RuntimeException("Could not convert convert path to URL: " + path, e);
+            } catch (IllegalStateException | IOException | JSONException e) {
+                LOG.warn("Could not retrieve PMIDs {} from Entrez. Error: {}", ids, e);
+                throw new RuntimeException("Error while retrieving content from Entrez at URL: " + path, e);
+            } finally {
+                latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
         }
+    }
 
-        return root;
+    /**
+     * Reads the Retry-After header of a response, which may be a number of seconds or a date
+     *
+     * @param httpResponse the response
+     * @return the delay in milliseconds, or -1 if there is no valid Retry-After header
+     */
+    private static long retryAfterMillis(CloseableHttpResponse httpResponse) {
+        Header retryAfter = httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null || retryAfter.getValue() == null) {
+            return -1;
+        }
+        String value = retryAfter.getValue().trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+        } catch (NumberFormatException ex) {
+            Date retryAt = DateUtils.parseDate(value);
+            return (retryAt != null ? Math.max(0, retryAt.getTime() - System.currentTimeMillis()) : -1);
+        }
     }
 
     /**
-     * Converts to JSONObject then walks to the root of the JSON content. This could be a PMID record
-     * or an error message
+     * Walks to the root of the JSON content for a PMID. This could be a PMID record or an error message
      *
-     * @param jsonEntrezRecord as string
-     * @param pmid             pub med id
+     * @param response full JSON response from Entrez
+     * @param pmid     pub med id
      * @return the root JSON object
-     * @throws IOException if there's an error reading the record
      */
-    private JSONObject walkToJsonRoot(String jsonEntrezRecord, String pmid) throws IOException {
-        JSONObject root = new JSONObject(jsonEntrezRecord);
+    private JSONObject walkToJsonRoot(JSONObject response, String pmid) {
+        JSONObject root = response;
 
         if (root.has(JSON_RESULT_KEY)) {
             root = root.getJSONObject(JSON_RESULT_KEY);
@@ -171,4 +682,21 @@ public class PmidLookup {
         return root;
     }
 
+    /**
+     * Reads the body of a response from Entrez
+     *
+     * @param <T> the type the response is read into
+     */
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Thrown while reading a response that reports requests are being throttled
+     */
+    private static class ThrottledException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
 }
@@ -20,29 +20,34 @@ import org.json.JSONObject;
 
 /**
  * Class is instantiated by passing in a JSONObject from Entrez representing a PubMed
- * article record. Using getters you can then pull fields from that JSONObject
+ * article record, or by {@link PmidLookup} as it reads responses from Entrez. Only the fields used by the loader
+ * are kept, the rest of the record is discarded, and the values cannot be changed once the record is created.
+ * Getters return null for fields that were not in the record.
  *
  * @author Karen Hanson
  */
 public class PubMedEntrezRecord {
 
     //Various keys to retrieve data from JSON
-    private static final String JSON_PMID_KEY = "uid";
-    private static final String JSON_IDTYPE_KEY = "idtype";
-    private static final String JSON_IDTYPE_DOI = "doi";
-    private static final String JSON_IDVALUE_KEY = "value";
-    private static final String JSON_ARTICLEIDS_KEY = "articleids";
-    private static final String JSON_TITLE_KEY = "title";
-    private static final String JSON_VOLUME_KEY = "volume";
-    private static final String JSON_ISSUE_KEY = "issue";
-    private static final String JSON_ISSN_KEY = "issn";
-    private static final String JSON_ESSN_KEY = "essn";
+    static final String JSON_PMID_KEY = "uid";
+    static final String JSON_IDTYPE_KEY = "idtype";
+    static final String JSON_IDTYPE_DOI = "doi";
+    static final String JSON_IDVALUE_KEY = "value";
+    static final String JSON_ARTICLEIDS_KEY = "articleids";
+    static final String JSON_TITLE_KEY = "title";
+    static final String JSON_VOLUME_KEY = "volume";
+    static final String JSON_ISSUE_KEY = "issue";
+    static final String JSON_ISSN_KEY = "issn";
+    static final String JSON_ESSN_KEY = "essn";
     private static final String VALID_DOI_CONTAINS = "10.";
 
-    /**
-     * JSONObject for single PubMed record from Entrez API
-     */
-    private JSONObject entrezJson;
+    private final String pmid;
+    private final String doi;
+    private final String title;
+    private final String volume;
+    private final String issue;
+    private final String issn;
+    private final String essn;
 
     /**
      * Instantiate a PubMedRecord by passing in a JSONObject representing a single result from the
@@ -56,7 +61,81 @@ public class PubMedEntrezRecord {
         if (entrezJson == null) {
             throw new IllegalArgumentException("entrezJson cannot be null");
         }
-        this.entrezJson = entrezJson;
+        this.pmid = entrezJson.optString(JSON_PMID_KEY, null);
+        this.title = entrezJson.optString(JSON_TITLE_KEY, null);
+        this.volume = entrezJson.optString(JSON_VOLUME_KEY, null);
+        this.issue = entrezJson.optString(JSON_ISSUE_KEY, null);
+        this.issn = entrezJson.optString(JSON_ISSN_KEY, null);
+        this.essn = entrezJson.optString(JSON_ESSN_KEY, null);
+
+        String doiValue = null;
+        JSONArray ids = entrezJson.optJSONArray(JSON_ARTICLEIDS_KEY);
+        if (ids != null) {
+            for (Object oid : ids) {
+                JSONObject id = (JSONObject) oid;
+                if (JSON_IDTYPE_DOI.equals(id.optString(JSON_IDTYPE_KEY))) {
+                    doiValue = id.optString(JSON_IDVALUE_KEY, null);
+                }
+            }
+        }
+        this.doi = cleanDoi(doiValue);
+    }
+
+    /**
+     * Instantiate a PubMedRecord from the fields read from an Entrez response
+     *
+     * @param pmid   pub med id
+     * @param doi    the value of the last "doi" article id in the record
+     * @param title  the title
+     * @param volume the volume
+     * @param issue  the issue
+     * @param issn   the ISSN
+     * @param essn   the ESSN
+     */
+    PubMedEntrezRecord(String pmid, String doi, String title, String volume, String issue, String issn,
+                       String essn) {
+        this.pmid = pmid;
+        this.doi = cleanDoi(doi);
+        this.title = title;
+        this.volume = volume;
+        this.issue = issue;
+        this.issn = issn;
+        this.essn = essn;
+    }
+
+    /**
+     * Trims the DOI if it looks valid
+     *
+     * @param doi the DOI
+     * @return the DOI
+     */
+    private static String cleanDoi(String doi) {
+        if (doi != null && doi.length() > 0 && doi.contains(VALID_DOI_CONTAINS)) {
+            return doi.trim();
+        }
+        return doi;
+    }
+
+    /**
+     * Converts the record back to the Entrez JSON format. Only the fields kept by this class are included.
+     *
+     * @return the JSON
+     */
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put(JSON_PMID_KEY, pmid);
+        json.put(JSON_TITLE_KEY, title);
+        json.put(JSON_VOLUME_KEY, volume);
+        json.put(JSON_ISSUE_KEY, issue);
+        json.put(JSON_ISSN_KEY, issn);
+        json.put(JSON_ESSN_KEY, essn);
+        if (doi != null) {
+            JSONObject id = new JSONObject();
+            id.put(JSON_IDTYPE_KEY, JSON_IDTYPE_DOI);
+            id.put(JSON_IDVALUE_KEY, doi);
+            json.put(JSON_ARTICLEIDS_KEY, new JSONArray().put(id));
+        }
+        return json;
     }
 
     /**
@@ -65,17 +144,6 @@ public class PubMedEntrezRecord {
      * @return the doi
      */
     public String getDoi() {
-        String doi = null;
-        JSONArray ids = entrezJson.getJSONArray(JSON_ARTICLEIDS_KEY);
-        for (Object oid : ids) {
-            JSONObject id = (JSONObject) oid;
-            if (id.getString(JSON_IDTYPE_KEY).equals(JSON_IDTYPE_DOI)) {
-                doi = id.getString(JSON_IDVALUE_KEY);
-                if (doi != null && doi.length() > 0 && doi.contains(VALID_DOI_CONTAINS)) {
-                    doi = doi.trim();
-                }
-            }
-        }
         return doi;
     }
 
@@ -85,7 +153,7 @@ public class PubMedEntrezRecord {
      * @return the title
      */
     public String getPmid() {
-        return entrezJson.getString(JSON_PMID_KEY);
+        return pmid;
     }
 
     /**
@@ -94,7 +162,7 @@ public class PubMedEntrezRecord {
      * @return the title
      */
     public String getTitle() {
-        return entrezJson.getString(JSON_TITLE_KEY);
+        return title;
     }
 
     /**
@@ -103,7 +171,7 @@ public class PubMedEntrezRecord {
      * @return the volume
      */
     public String getVolume() {
-        return entrezJson.getString(JSON_VOLUME_KEY);
+        return volume;
     }
 
     /**
@@ -112,7 +180,7 @@ public class PubMedEntrezRecord {
      * @return the issue
      */
     public String getIssue() {
-        return entrezJson.getString(JSON_ISSUE_KEY);
+        return issue;
     }
 
     /**
@@ -121,7 +189,7 @@ public class PubMedEntrezRecord {
      * @return the ISSN
      */
     public String getIssn() {
-        return entrezJson.getString(JSON_ISSN_KEY);
+        return issn;
     }
 
     /**
@@ -130,7 +198,7 @@ public class PubMedEntrezRecord {
      * @return the ESSN
      */
     public String getEssn() {
-        return entrezJson.getString(JSON_ESSN_KEY);
+        return essn;
     }
 
 }
@@ -18,6 +18,9 @@ package org.dataconservancy.pass.entrez;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import org.json.JSONObject;
 import org.junit.Test;
 
@@ -55,4 +58,24 @@ public class EntrezPmidLookupTest {
         assertEquals("Age-dependent effects of APOE ε4 in preclinical Alzheimer's disease.", record.getTitle());
     }
 
+    @Test
+    public void testGetPubMedRecords() {
+        PmidLookup pmidLookup = new PmidLookup();
+        Map<String, PubMedEntrezRecord> records =
+            pmidLookup.retrievePubMedRecords(Arrays.asList("29249144", "27648456", "29249144"));
+        assertEquals(2, records.size());
+        assertEquals("10.1021/acs.jproteome.7b00775", records.get("29249144").getDoi());
+        assertEquals("10.1002/acn3.333", records.get("27648456").getDoi());
+    }
+
+    @Test
+    public void testPrefetchedRecordIsReturned() {
+        PmidLookup pmidLookup = new PmidLookup();
+        assertEquals(1, pmidLookup.prefetch(Arrays.asList("29249144")));
+        PubMedEntrezRecord record = pmidLookup.retrievePubMedRecord("29249144");
+        assertEquals("10.1021/acs.jproteome.7b00775", record.getDoi());
+        pmidLookup.clearPrefetched();
+        assertEquals("29249144", pmidLookup.retrievePubMedRecordAsJson("29249144").getString("uid"));
+    }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Entrez rate limiter
+ */
+public class EntrezRateLimiterTest {
+
+    /**
+     * Check requests are spaced out to the rate given
+     */
+    @Test
+    public void testRequestsAreSpacedOut() throws Exception {
+        EntrezRateLimiter limiter = new EntrezRateLimiter(20, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Expected at least 250ms but was " + elapsed, elapsed >= 240);
+    }
+
+    /**
+     * Check a backoff holds back the next request and reduces the rate until requests succeed again
+     */
+    @Test
+    public void testBackoffAndRecovery() throws Exception {
+        EntrezRateLimiter limiter = new EntrezRateLimiter(10, 1);
+        limiter.acquire();
+        assertEquals(200, limiter.backoff(200));
+        assertEquals(5, limiter.getRequestsPerSecond(), 0.001);
+
+        long start = System.nanoTime();
+        limiter.acquire();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Expected at least 200ms but was " + elapsed, elapsed >= 190);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(10, limiter.getRequestsPerSecond(), 0.001);
+    }
+
+    /**
+     * Check the delay doubles when no delay is given by Entrez
+     */
+    @Test
+    public void testBackoffDoublesWithoutRetryAfter() {
+        EntrezRateLimiter limiter = new EntrezRateLimiter(3, 1);
+        assertEquals(1000, limiter.backoff(-1));
+        assertEquals(2000, limiter.backoff(-1));
+        limiter.onSuccess();
+        assertEquals(1000, limiter.backoff(-1));
+    }
+
+    /**
+     * Check callers using the same API key share a limiter
+     */
+    @Test
+    public void testSharedByApiKey() {
+        assertSame(EntrezRateLimiter.forApiKey("abc", 10, 1), EntrezRateLimiter.forApiKey("abc", 10, 1));
+        assertNotSame(EntrezRateLimiter.forApiKey("abc", 10, 1), EntrezRateLimiter.forApiKey(null, 3, 1));
+    }
+
+}
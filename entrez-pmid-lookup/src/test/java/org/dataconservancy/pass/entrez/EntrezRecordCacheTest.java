@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the persistent Entrez record cache
+ */
+public class EntrezRecordCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheFile;
+
+    private AtomicLong now = new AtomicLong(1000);
+
+    @Before
+    public void startup() {
+        cacheFile = new File(folder.getRoot(), "cache/entrez-cache.data");
+    }
+
+    /**
+     * Check records written in one run are read back in the next, with hits and misses counted
+     */
+    @Test
+    public void testRecordsPersistBetweenRuns() {
+        EntrezRecordCache cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        cache.put("12345678", record("12345678", "A title with ε and \t tab"));
+        cache.put("34567890", record("34567890", "Another title"));
+        cache.close();
+
+        cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        assertEquals(2, cache.size());
+        assertEquals("A title with ε and \t tab", cache.get("12345678").getTitle());
+        assertEquals("Another title", cache.get("34567890").getTitle());
+        assertNull(cache.get("99999999"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * Check records are treated as missing once the time-to-live has passed, including after reloading
+     */
+    @Test
+    public void testExpiredRecordsAreEvicted() {
+        EntrezRecordCache cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        cache.put("12345678", record("12345678", "A title"));
+        now.addAndGet(50);
+        cache.put("34567890", record("34567890", "Another title"));
+        now.addAndGet(60);
+
+        assertFalse(cache.contains("12345678"));
+        assertNull(cache.get("12345678"));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.contains("34567890"));
+        cache.close();
+
+        cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Check the oldest records are evicted when the cache is full and the file is compacted on close
+     */
+    @Test
+    public void testOldestEvictedWhenFull() throws Exception {
+        EntrezRecordCache cache = new EntrezRecordCache(cacheFile, 100, 2, now::get);
+        cache.put("1", record("1", "one"));
+        cache.put("2", record("2", "two"));
+        cache.put("1", record("1", "one updated"));
+        cache.put("1", record("1", "one again"));
+        cache.put("3", record("3", "three"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.contains("2"));
+        assertEquals("one again", cache.get("1").getTitle());
+        cache.close();
+
+        assertEquals(2, Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8).size());
+        cache = new EntrezRecordCache(cacheFile, 100, 2, now::get);
+        assertEquals("one again", cache.get("1").getTitle());
+        assertEquals("three", cache.get("3").getTitle());
+    }
+
+    /**
+     * Check a record that was only partly written is dropped when the cache is loaded
+     */
+    @Test
+    public void testIncompleteLastLineIsTruncated() throws Exception {
+        EntrezRecordCache cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        cache.put("12345678", record("12345678", "A title"));
+        cache.close();
+        try (FileWriter writer = new FileWriter(cacheFile, true)) {
+            writer.write("34567890\t1000\t{\"uid\":\"345");
+        }
+
+        cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        assertEquals(1, cache.size());
+        cache.put("34567890", record("34567890", "Another title"));
+        cache.close();
+
+        cache = new EntrezRecordCache(cacheFile, 100, 10, now::get);
+        assertEquals(2, cache.size());
+        assertEquals("Another title", cache.get("34567890").getTitle());
+    }
+
+    private PubMedEntrezRecord record(String pmid, String title) {
+        JSONObject record = new JSONObject();
+        record.put("uid", pmid);
+        record.put("title", title);
+        return new PubMedEntrezRecord(record);
+    }
+
+}
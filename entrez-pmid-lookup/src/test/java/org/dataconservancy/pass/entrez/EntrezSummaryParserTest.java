@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.dataconservancy.pass.entrez.EntrezSummaryParser.Summaries;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests that the streaming parser reads the fields used from an esummary response
+ */
+public class EntrezSummaryParserTest {
+
+    @Test
+    public void testParseBatch() throws Exception {
+        Summaries summaries;
+        try (InputStream in = EntrezSummaryParserTest.class.getResourceAsStream("/esummary-batch.json")) {
+            summaries = EntrezSummaryParser.parse(in);
+        }
+
+        assertTrue(summaries.hasResult());
+        assertEquals(2, summaries.getRecords().size());
+        assertEquals("cannot get document summary", summaries.getErrors().get("1"));
+
+        PubMedEntrezRecord record = summaries.getRecords().get("29249144");
+        assertEquals("29249144", record.getPmid());
+        assertEquals("10.1021/acs.jproteome.7b00775", record.getDoi());
+        assertEquals("A made up proteome title.", record.getTitle());
+        assertEquals("17", record.getVolume());
+        assertEquals("2", record.getIssue());
+        assertEquals("1535-3893", record.getIssn());
+        assertEquals("1535-3907", record.getEssn());
+
+        record = summaries.getRecords().get("27648456");
+        assertEquals("10.1002/acn3.333", record.getDoi());
+        assertEquals("Age-dependent effects of APOE ε4 in preclinical Alzheimer's disease.", record.getTitle());
+        assertEquals("", record.getIssn());
+    }
+
+    /**
+     * Check the record read by the parser matches the record created from the same JSON
+     */
+    @Test
+    public void testMatchesJsonRecord() throws Exception {
+        String json;
+        try (InputStream in = EntrezSummaryParserTest.class.getResourceAsStream("/esummary-batch.json")) {
+            json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        JSONObject root = new JSONObject(json).getJSONObject("result").getJSONObject("29249144");
+        PubMedEntrezRecord fromJson = new PubMedEntrezRecord(root);
+        PubMedEntrezRecord parsed = EntrezSummaryParser.parse(
+            new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).getRecords().get("29249144");
+
+        assertEquals(fromJson.getDoi(), parsed.getDoi());
+        assertEquals(fromJson.getTitle(), parsed.getTitle());
+        assertEquals(fromJson.getEssn(), parsed.getEssn());
+
+        PubMedEntrezRecord roundTrip = new PubMedEntrezRecord(parsed.toJson());
+        assertEquals(parsed.getDoi(), roundTrip.getDoi());
+        assertEquals(parsed.getIssue(), roundTrip.getIssue());
+    }
+
+    @Test
+    public void testParseError() throws Exception {
+        byte[] response = "{\"error\":\"API rate limit exceeded\",\"count\":\"11\"}".getBytes(StandardCharsets.UTF_8);
+        Summaries summaries = EntrezSummaryParser.parse(new ByteArrayInputStream(response));
+        assertFalse(summaries.hasResult());
+        assertEquals("API rate limit exceeded", summaries.getError());
+        assertTrue(summaries.getRecords().isEmpty());
+    }
+
+    @Test
+    public void testMissingFieldsAreNull() throws Exception {
+        byte[] response = "{\"result\":{\"uids\":[\"5\"],\"5\":{\"uid\":\"5\"}}}".getBytes(StandardCharsets.UTF_8);
+        PubMedEntrezRecord record = EntrezSummaryParser.parse(new ByteArrayInputStream(response)).getRecords()
+                                                       .get("5");
+        assertEquals("5", record.getPmid());
+        assertNull(record.getDoi());
+        assertNull(record.getTitle());
+    }
+
+}
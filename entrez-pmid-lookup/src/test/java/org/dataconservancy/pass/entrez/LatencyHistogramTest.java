@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.entrez;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the request latency percentiles
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(90, histogram.getPercentile(90));
+        assertEquals(99, histogram.getPercentile(99));
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+    }
+
+    @Test
+    public void testLatenciesBeyondLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(120000);
+        assertEquals(5, histogram.getPercentile(50));
+        assertEquals(120000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean());
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+import okio.Buffer;
+import okio.ForwardingSink;
+import okio.Sink;
+
+/**
+ * Reads a file while it is being downloaded. Reads wait until the harvester reports that more of the file has been
+ * written, and the stream ends once the harvester reports that the download is complete. Since the content is read
+ * back from the file, a slow reader does not hold up the download.
+ */
+class DownloadStream extends InputStream {
+
+    private final File file;
+
+    /**
+     * Opened when the download starts saving to the file, so that it still reads the file once it has been moved
+     * into place
+     */
+    private RandomAccessFile in;
+
+    private boolean closed;
+
+    /**
+     * Position of the next byte to read
+     */
+    private long position;
+
+    /**
+     * Number of bytes of the file that have been written so far
+     */
+    private long written;
+
+    private boolean complete;
+
+    private IOException failure;
+
+    /**
+     * @param file the file the download is being saved to, it does not need to exist yet
+     */
+    DownloadStream(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Wraps the sink the download is saved through, so that this stream is told about each write once it has been
+     * passed to the file
+     *
+     * @param sink   the sink that writes to the file, the file must already have been created
+     * @param offset number of bytes already in the file, when a download is resumed
+     * @return the sink to write to
+     * @throws IOException if the file could not be opened for reading
+     */
+    synchronized Sink track(Sink sink, long offset) throws IOException {
+        if (in == null && !closed) {
+            in = new RandomAccessFile(file, "r");
+        }
+        return new ForwardingSink(sink) {
+            private long length = offset;
+
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                length += byteCount;
+                written(length);
+            }
+        };
+    }
+
+    private synchronized void written(long length) {
+        written = length;
+        notifyAll();
+    }
+
+    /**
+     * Called when the download starts again from the beginning. This can only be followed if nothing has been read
+     * yet, otherwise the stream fails.
+     */
+    synchronized void restarted() {
+        if (position > 0 && failure == null) {
+            failure = new IOException("The download of " + file + " started again from the beginning after "
+                                      + position + " bytes had been read");
+        }
+        written = 0;
+        notifyAll();
+    }
+
+    /**
+     * Called once the download is complete and the file is in place
+     */
+    synchronized void complete() {
+        complete = true;
+        notifyAll();
+    }
+
+    /**
+     * Called if the download fails, the next read throws an IOException
+     *
+     * @param cause the reason the download failed
+     */
+    synchronized void fail(Throwable cause) {
+        if (!complete && failure == null) {
+            failure = new IOException("The download of " + file + " failed", cause);
+        }
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        long end;
+        synchronized (this) {
+            while (failure == null && position >= written && !complete && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the download of " + file);
+                }
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (position >= written) {
+                return -1;
+            }
+            end = written;
+        }
+        in.seek(position);
+        int read = in.read(b, off, (int) Math.min(len, end - position));
+        if (read > 0) {
+            synchronized (this) {
+                position += read;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        if (in != null) {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
+
+/**
+ * Receives the content of a NIHMS publication list while it is being downloaded, see
+ * {@link NihmsHarvester#harvest(java.util.Set, String, NihmsDownloadHandler)}
+ */
+@FunctionalInterface
+public interface NihmsDownloadHandler {
+
+    /**
+     * Reads a publication list while it is being downloaded. The content can be read as soon as the first bytes
+     * have been saved, reads wait for more to arrive, and the stream ends once the download is complete and the
+     * file is in place. If the download fails, reading throws an IOException.
+     *
+     * @param status  the status the list holds publications for
+     * @param file    the file the list is being saved to
+     * @param content the content of the list
+     * @throws Exception if the list could not be handled
+     */
+    void handle(NihmsStatus status, Path file, InputStream content) throws Exception;
+
+}
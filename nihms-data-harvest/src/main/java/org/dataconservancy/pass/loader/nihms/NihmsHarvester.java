@@ -20,19 +20,35 @@ import static org.dataconservancy.pass.loader.nihms.util.ProcessingUtil.nullOrEm
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okio.HashingSink;
+import okio.Okio;
+import okio.Sink;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
 import org.dataconservancy.pass.loader.nihms.util.FileUtil;
 import org.joda.time.DateTime;
@@ -42,6 +58,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Downloads the NIHMS publication lists. The lists for each status are downloaded at the same time, up to the
+ * configured number of requests per host, and the start of each request is spaced out by the configured delay so
+ * that the NIHMS site is not sent a burst of requests.
+ *
  * @author Karen Hanson
  */
 public class NihmsHarvester {
@@ -57,12 +77,29 @@ public class NihmsHarvester {
 
     private OkHttpClient okHttp;
 
+    /**
+     * Suffix of the file a download is saved to until it is complete. Files with this suffix are not picked up by
+     * the loader.
+     */
+    private static final String PART_SUFFIX = ".part";
+
+    private final int downloadRetries = NihmsHarvesterConfig.getHttpDownloadRetries();
+
     /**
      * Initiate harvester with required properties
      */
     public NihmsHarvester() {
+        this(new UrlBuilder());
+    }
+
+    /**
+     * Initiate harvester with the builder for the URLs to download from
+     *
+     * @param urlBuilder the URL builder
+     */
+    NihmsHarvester(UrlBuilder urlBuilder) {
         this.downloadDirectoryPath = FileUtil.getDataDirectory().toPath();
-        this.urlBuilder = new UrlBuilder();
+        this.urlBuilder = urlBuilder;
 
         if (downloadDirectoryPath == null) {
             throw new RuntimeException("The harvester's downloadDirectory cannot be empty");
@@ -81,9 +118,13 @@ public class NihmsHarvester {
             }
         }
 
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(NihmsHarvesterConfig.getHttpMaxRequestsPerHost());
         okHttp = new OkHttpClient.Builder()
             .connectTimeout(NihmsHarvesterConfig.getHttpConnectTimeoutMs(), TimeUnit.MILLISECONDS)
             .readTimeout(NihmsHarvesterConfig.getHttpReadTimeoutMs(), TimeUnit.MILLISECONDS)
+            .dispatcher(dispatcher)
+            .addInterceptor(new RequestSpacer(NihmsHarvesterConfig.getHttpRequestDelayMs()))
             .build();
     }
 
@@ -94,6 +135,19 @@ public class NihmsHarvester {
      * @param startDate          formatted as {@code yyyy-mm}, can be null to default to 1 year prior to harvest date
      */
     public void harvest(Set<NihmsStatus> statusesToDownload, String startDate) {
+        harvest(statusesToDownload, startDate, null);
+    }
+
+    /**
+     * Retrieve files from NIHMS based on status list and startDate provided, passing each file to the handler
+     * provided while it is being downloaded. Each file is handled on its own thread, and this returns once every
+     * file has been both downloaded and handled. A handler that fails does not stop the file from being saved.
+     *
+     * @param statusesToDownload list of {@code NihmsStatus} types to download from the NIHMS website
+     * @param startDate          formatted as {@code yyyy-mm}, can be null to default to 1 year prior to harvest date
+     * @param handler            reads each file while it is downloaded, can be null to only save the files
+     */
+    public void harvest(Set<NihmsStatus> statusesToDownload, String startDate, NihmsDownloadHandler handler) {
         if (nullOrEmpty(statusesToDownload)) {
             throw new RuntimeException("statusesToDownload list cannot be empty");
         }
@@ -102,65 +156,324 @@ public class NihmsHarvester {
                 String.format("The startDate %s is not valid. The date must be formatted as mm-yyyy", startDate));
         }
 
-        try {
-            LOG.info("Writing files to: {}", downloadDirectoryPath.toString());
+        LOG.info("Writing files to: {}", downloadDirectoryPath.toString());
+
+        Map<String, String> params = new HashMap<>();
 
-            Map<String, String> params = new HashMap<>();
+        if (!nullOrEmpty(startDate)) {
+            startDate = startDate.replace("-", "/");
+            LOG.info("Filtering with Start Date " + startDate);
+            params.put("pdf", startDate);
+        }
 
-            if (!nullOrEmpty(startDate)) {
-                startDate = startDate.replace("-", "/");
-                LOG.info("Filtering with Start Date " + startDate);
-                params.put("pdf", startDate);
+        Map<NihmsStatus, CompletableFuture<File>> downloads = new LinkedHashMap<>();
+        ExecutorService handlerExecutor = (handler != null
+                                           ? Executors.newFixedThreadPool(statusesToDownload.size()) : null);
+        try {
+            startDownloads(statusesToDownload, params, handler, handlerExecutor, downloads);
+            waitForDownloads(downloads);
+        } finally {
+            if (handlerExecutor != null) {
+                handlerExecutor.shutdown();
             }
+        }
+    }
 
+    /**
+     * Starts the download of each list
+     */
+    private void startDownloads(Set<NihmsStatus> statusesToDownload, Map<String, String> params,
+                         NihmsDownloadHandler handler, ExecutorService handlerExecutor,
+                         Map<NihmsStatus, CompletableFuture<File>> downloads) {
+        try {
             if (statusesToDownload.contains(NihmsStatus.COMPLIANT)) {
                 LOG.info("Goto {} list", NihmsStatus.COMPLIANT);
-                File file = newFile(NihmsStatus.COMPLIANT);
-                URL url = urlBuilder.compliantUrl(params);
-
-                download(url, file, NihmsStatus.COMPLIANT);
+                downloads.put(NihmsStatus.COMPLIANT, download(urlBuilder.compliantUrl(params),
+                                                              newFile(NihmsStatus.COMPLIANT), NihmsStatus.COMPLIANT,
+                                                              handler, handlerExecutor));
             }
 
             if (statusesToDownload.contains(NihmsStatus.NON_COMPLIANT)) {
                 LOG.info("Goto {} list", NihmsStatus.NON_COMPLIANT);
-                File file = newFile(NihmsStatus.NON_COMPLIANT);
-                URL url = urlBuilder.nonCompliantUrl(params);
-                download(url, file, NihmsStatus.NON_COMPLIANT);
+                downloads.put(NihmsStatus.NON_COMPLIANT, download(urlBuilder.nonCompliantUrl(params),
+                                                                  newFile(NihmsStatus.NON_COMPLIANT),
+                                                                  NihmsStatus.NON_COMPLIANT, handler,
+                                                                  handlerExecutor));
             }
 
             if (statusesToDownload.contains(NihmsStatus.IN_PROCESS)) {
                 LOG.info("Goto {} list", NihmsStatus.IN_PROCESS);
-                File file = newFile(NihmsStatus.IN_PROCESS);
-                URL url = urlBuilder.inProcessUrl(params);
-                download(url, file, NihmsStatus.IN_PROCESS);
+                downloads.put(NihmsStatus.IN_PROCESS, download(urlBuilder.inProcessUrl(params),
+                                                               newFile(NihmsStatus.IN_PROCESS),
+                                                               NihmsStatus.IN_PROCESS, handler, handlerExecutor));
             }
-
         } catch (Exception ex) {
+            downloads.values().forEach(download -> download.cancel(true));
             throw new RuntimeException("An error occurred while downloading the NIHMS files.", ex);
         }
     }
 
-    private void download(URL url, File outputFile, NihmsStatus status) throws IOException, InterruptedException {
+    /**
+     * Waits for each download to finish. A failed download does not stop the others, each failure is logged and
+     * reported together once all downloads have finished.
+     *
+     * @param downloads the downloads in progress, by status
+     */
+    private void waitForDownloads(Map<NihmsStatus, CompletableFuture<File>> downloads) {
+        List<NihmsStatus> failedStatuses = new ArrayList<>();
+        Exception failure = null;
+        for (Map.Entry<NihmsStatus, CompletableFuture<File>> download : downloads.entrySet()) {
+            try {
+                download.getValue().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                downloads.values().forEach(pending -> pending.cancel(true));
+                throw new RuntimeException("Interrupted while downloading the NIHMS files.", ex);
+            } catch (ExecutionException ex) {
+                Exception cause = (ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+                LOG.error("Download of {} publications failed", download.getKey(), cause);
+                failedStatuses.add(download.getKey());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException(String.format("An error occurred while downloading the NIHMS files. Failed "
+                                                     + "statuses: %s", failedStatuses), failure);
+        }
+    }
+
+    /**
+     * Starts downloading a file on the HTTP client's dispatcher
+     *
+     * @param url        the URL to download
+     * @param outputFile the file to save the download to
+     * @param status     the status the file holds publications for
+     * @param handler    reads the file while it is downloaded, can be null
+     * @param executor   runs the handler
+     * @return the download, which completes with the file once it is saved, and handled if there is a handler. If
+     * the download fails, the partial file is deleted.
+     */
+    CompletableFuture<File> download(URL url, File outputFile, NihmsStatus status,
+                                     NihmsDownloadHandler handler, ExecutorService executor) {
         LOG.debug("Retrieving: {}", url);
-        try (Response res = okHttp
-            .newCall(new Request.Builder()
-                         .get()
-                         .url(url)
-                         .build())
-            .execute();
-             FileOutputStream out = new FileOutputStream(outputFile)) {
+        File partFile = new File(outputFile.getPath() + PART_SUFFIX);
+        DownloadStream stream = (handler != null ? new DownloadStream(partFile) : null);
+        Download download = new Download(url, outputFile, partFile, status, stream);
+        download.start();
+        if (stream == null) {
+            return download.future;
+        }
 
-            if (!res.isSuccessful()) {
-                throw new RuntimeException(String.format("Error retrieving %s (HTTP status: %s): %s",
-                                                         url, res.code(), res.message()));
+        download.future.whenComplete((file, ex) -> {
+            if (ex == null) {
+                stream.complete();
+            } else {
+                stream.fail(ex);
+            }
+        });
+        CompletableFuture<Void> handled = CompletableFuture.runAsync(() -> {
+            try (InputStream content = stream) {
+                handler.handle(status, outputFile.toPath(), content);
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+        // waits for both, so the handler has finished even if the download failed
+        CompletableFuture<File> downloadAndHandle = CompletableFuture.allOf(download.future, handled)
+                                                                     .thenApply(done -> outputFile);
+        downloadAndHandle.whenComplete((file, ex) -> {
+            if (downloadAndHandle.isCancelled()) {
+                download.future.cancel(true);
             }
+        });
+        return downloadAndHandle;
+    }
+
+    /**
+     * A download of one file. If the connection fails part way through, the download is retried up to the
+     * configured number of times. When the server accepts byte ranges and identifies the content with an ETag or
+     * Last-Modified date, the retry asks only for the rest of the content, and the server sends it all again if the
+     * content has changed. Otherwise the retry starts again from the beginning. Retries are queued on the dispatcher
+     * like the first request, so they count towards the limit of requests per host.
+     */
+    private class Download implements Callback {
+
+        private final URL url;
+
+        private final File outputFile;
+
+        private final File partFile;
+
+        private final NihmsStatus status;
+
+        private final DownloadStream stream;
 
-            IOUtils.copy(res.body().byteStream(), out);
+        private final CompletableFuture<File> future = new CompletableFuture<>();
+
+        private volatile Call call;
+
+        private int attempt;
+
+        private String validator;
+
+        private long resumeFrom;
+
+        Download(URL url, File outputFile, File partFile, NihmsStatus status, DownloadStream stream) {
+            this.url = url;
+            this.outputFile = outputFile;
+            this.partFile = partFile;
+            this.status = status;
+            this.stream = stream;
+            future.whenComplete((file, ex) -> {
+                if (future.isCancelled() && call != null) {
+                    call.cancel();
+                }
+            });
+        }
+
+        /**
+         * Queues the next request, asking for the rest of the content if the download is being resumed
+         */
+        void start() {
+            Request.Builder request = new Request.Builder().get().url(url);
+            if (resumeFrom > 0) {
+                request.header("Range", "bytes=" + resumeFrom + "-").header("If-Range", validator);
+            }
+            call = okHttp.newCall(request.build());
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+            call.enqueue(this);
+        }
+
+        @Override
+        public void onFailure(Call failedCall, IOException ex) {
+            retryOrFail(ex);
+        }
+
+        @Override
+        public void onResponse(Call call, Response res) {
+            String checksum;
+            try {
+                checksum = save(res);
+            } catch (IOException ex) {
+                retryOrFail(ex);
+                return;
+            } catch (Exception ex) {
+                fail(ex);
+                return;
+            }
+            try {
+                // the manifest goes first, so the file never appears without it
+                FileUtil.writeChecksum(outputFile.toPath(), checksum);
+                Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception ex) {
+                fail(ex);
+                return;
+            }
             LOG.info("Downloaded and saved {} publications as file {}", status, outputFile);
-            Thread.sleep(2000);
+            future.complete(outputFile);
+        }
+
+        /**
+         * Saves a response to the part file and syncs it to disk
+         *
+         * @param response the response to save
+         * @return the SHA-256 hash of the saved content, as lower case hex
+         * @throws IOException if the content could not be read or saved, or the server sent part of the content other
+         *                     than the part asked for
+         */
+        private String save(Response response) throws IOException {
+            try (Response res = response) {
+                if (!res.isSuccessful()) {
+                    throw new RuntimeException(String.format("Error retrieving %s (HTTP status: %s): %s",
+                                                             url, res.code(), res.message()));
+                }
+                boolean resumed = resumeFrom > 0 && res.code() == 206
+                                  && res.header("Content-Range", "").startsWith("bytes " + resumeFrom + "-");
+                if (res.code() == 206 && !resumed) {
+                    // only part of the content, but not the part asked for, so start again from the beginning
+                    validator = null;
+                    throw new IOException(String.format("Unexpected partial content from %s: %s", url,
+                                                        res.header("Content-Range")));
+                }
+                if (!resumed) {
+                    validator = resumeValidator(res);
+                }
+                long start = System.nanoTime();
+                String checksum;
+                try (FileOutputStream out = new FileOutputStream(partFile, resumed);
+                     HashingSink sink = HashingSink.sha256(fileSink(out, stream, resumed ? resumeFrom : 0))) {
+                    // Okio hands its segments straight to the file, without copying them into another buffer
+                    long bytes = res.body().source().readAll(sink);
+                    sink.flush();
+                    out.getChannel().force(false);
+                    checksum = sink.hash().hex();
+                    logThroughput(url, bytes, System.nanoTime() - start);
+                }
+                // the hash only covers what this response sent, so a resumed file is hashed again in full
+                return (resumed ? FileUtil.checksum(partFile.toPath()) : checksum);
+            }
+        }
+
+        private void retryOrFail(IOException ex) {
+            if (attempt >= downloadRetries || future.isCancelled()) {
+                fail(ex);
+                return;
+            }
+            attempt++;
+            resumeFrom = (validator != null ? partFile.length() : 0);
+            LOG.warn("Download of {} failed after {} bytes, retrying {}", url, partFile.length(),
+                     resumeFrom > 0 ? "from byte " + resumeFrom : "from the start", ex);
+            start();
+        }
+
+        private void fail(Exception ex) {
+            FileUtils.deleteQuietly(partFile);
+            FileUtils.deleteQuietly(new File(outputFile.getPath() + FileUtil.CHECKSUM_SUFFIX));
+            future.completeExceptionally(ex);
         }
     }
 
+    /**
+     * Gets the value to send in If-Range when resuming a download, so the server only sends the rest of the
+     * content if it has not changed
+     *
+     * @param response the response with the full content
+     * @return the ETag or Last-Modified date, or null if the download cannot be resumed
+     */
+    private static String resumeValidator(Response response) {
+        if (!response.header("Accept-Ranges", "").contains("bytes")) {
+            return null;
+        }
+        String etag = response.header("ETag");
+        return (etag != null && !etag.startsWith("W/") ? etag : response.header("Last-Modified"));
+    }
+
+    /**
+     * @return a sink that writes to the file, and tells the stream about each write if there is one
+     */
+    private static Sink fileSink(FileOutputStream out, DownloadStream stream, long offset) throws IOException {
+        Sink sink = Okio.sink(out);
+        if (stream == null) {
+            return sink;
+        }
+        if (offset == 0) {
+            stream.restarted();
+        }
+        return stream.track(sink, offset);
+    }
+
+    private static void logThroughput(URL url, long bytes, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        LOG.info("Saved {} bytes from {} in {} seconds ({} MB/s)", bytes, url, String.format("%.2f", seconds),
+                 String.format("%.2f", bytes / 1e6 / seconds));
+    }
+
     /**
      * null or empty are OK for start date, but a badly formatted date that does not have the format mm-yyyy should
      * return false
@@ -179,4 +492,39 @@ public class NihmsHarvester {
         return new File(newFilePath);
     }
 
+    /**
+     * Holds back each request until the delay has passed since the previous request started, so requests are
+     * spaced out even when several run at once. Runs on the dispatcher's threads, so callers are not held back.
+     */
+    private static class RequestSpacer implements Interceptor {
+
+        private final long delayNanos;
+
+        private long nextStartNanos = System.nanoTime();
+
+        RequestSpacer(long delayMillis) {
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = (nextStartNanos - now > 0 ? nextStartNanos : now);
+                nextStartNanos = start + delayNanos;
+                waitNanos = start - now;
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting to send " + chain.request().url(), ex);
+                }
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+
 }
@@ -55,6 +55,19 @@ public class NihmsHarvesterConfig {
 
     private static final String DEFAULT_HTTP_CONNECT_TIMEOUT = "10000";
 
+    private static final String HTTP_MAX_REQUESTS_PER_HOST_KEY = NIHMS_ETL_PROPERTY_PREFIX
+                                                                 + "http.max-requests-per-host";
+
+    private static final String DEFAULT_HTTP_MAX_REQUESTS_PER_HOST = "3";
+
+    private static final String HTTP_REQUEST_DELAY_KEY = NIHMS_ETL_PROPERTY_PREFIX + "http.request-delay-ms";
+
+    private static final String DEFAULT_HTTP_REQUEST_DELAY = "2000";
+
+    private static final String HTTP_DOWNLOAD_RETRIES_KEY = NIHMS_ETL_PROPERTY_PREFIX + "http.download-retries";
+
+    private static final String DEFAULT_HTTP_DOWNLOAD_RETRIES = "3";
+
     public static String getApiHost() {
         return ConfigUtil.getSystemProperty(API_HOST_KEY, DEFAULT_API_HOST);
     }
@@ -86,4 +99,28 @@ public class NihmsHarvesterConfig {
     public static long getHttpReadTimeoutMs() {
         return Long.valueOf(ConfigUtil.getSystemProperty(HTTP_READ_TIMEOUT_KEY, DEFAULT_HTTP_READ_TIMEOUT));
     }
+
+    /**
+     * @return maximum number of downloads from the NIHMS host that can run at once, at least 1
+     */
+    public static int getHttpMaxRequestsPerHost() {
+        return Math.max(1, Integer.valueOf(ConfigUtil.getSystemProperty(HTTP_MAX_REQUESTS_PER_HOST_KEY,
+                                                                        DEFAULT_HTTP_MAX_REQUESTS_PER_HOST)));
+    }
+
+    /**
+     * @return minimum time in milliseconds between the start of one download from the NIHMS host and the next
+     */
+    public static long getHttpRequestDelayMs() {
+        return Math.max(0, Long.valueOf(ConfigUtil.getSystemProperty(HTTP_REQUEST_DELAY_KEY,
+                                                                     DEFAULT_HTTP_REQUEST_DELAY)));
+    }
+
+    /**
+     * @return number of times a download that fails part way through is retried, 0 or more
+     */
+    public static int getHttpDownloadRetries() {
+        return Math.max(0, Integer.valueOf(ConfigUtil.getSystemProperty(HTTP_DOWNLOAD_RETRIES_KEY,
+                                                                        DEFAULT_HTTP_DOWNLOAD_RETRIES)));
+    }
 }
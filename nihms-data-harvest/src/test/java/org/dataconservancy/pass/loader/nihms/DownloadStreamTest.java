@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.Okio;
+import okio.Sink;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for reading a file while it is being downloaded
+ */
+public class DownloadStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Check a reader started before anything is written receives everything written, and sees the end of the stream
+     * once the download is complete, even though the file has been moved in the meantime
+     */
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        File partFile = new File(folder.getRoot(), "compliant.csv.part");
+        DownloadStream stream = new DownloadStream(partFile);
+        CompletableFuture<String> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return IOUtils.toString(stream, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+
+        try (FileOutputStream out = new FileOutputStream(partFile);
+             Sink sink = stream.track(Okio.sink(out), 0)) {
+            sink.write(new Buffer().writeUtf8("PMID,PMCID\n"), 11);
+            Thread.sleep(100);
+            assertFalse(read.isDone());
+            sink.write(new Buffer().writeUtf8("1,PMC1\n"), 7);
+        }
+        assertTrue(partFile.renameTo(new File(folder.getRoot(), "compliant.csv")));
+        stream.complete();
+
+        assertEquals("PMID,PMCID\n1,PMC1\n", read.get(5, TimeUnit.SECONDS));
+        stream.close();
+    }
+
+    /**
+     * Check a resumed download carries on from the bytes already read
+     */
+    @Test
+    public void testResume() throws Exception {
+        File partFile = new File(folder.getRoot(), "compliant.csv.part");
+        DownloadStream stream = new DownloadStream(partFile);
+        try (FileOutputStream out = new FileOutputStream(partFile);
+             Sink sink = stream.track(Okio.sink(out), 0)) {
+            sink.write(new Buffer().writeUtf8("abc"), 3);
+        }
+        byte[] first = new byte[3];
+        assertEquals(3, stream.read(first, 0, 3));
+
+        try (FileOutputStream out = new FileOutputStream(partFile, true);
+             Sink sink = stream.track(Okio.sink(out), 3)) {
+            sink.write(new Buffer().writeUtf8("def"), 3);
+        }
+        stream.complete();
+        assertEquals("def", IOUtils.toString(stream, StandardCharsets.UTF_8));
+        stream.close();
+    }
+
+    /**
+     * Check a reader is told when the download fails, or starts again after it has already read part of it
+     */
+    @Test
+    public void testFailureAndRestart() throws Exception {
+        File partFile = new File(folder.getRoot(), "compliant.csv.part");
+        DownloadStream failed = new DownloadStream(partFile);
+        failed.fail(new IOException("connection reset"));
+        try {
+            failed.read();
+            fail("Expected the read to fail");
+        } catch (IOException ex) {
+            assertEquals("connection reset", ex.getCause().getMessage());
+        }
+        failed.close();
+
+        DownloadStream restarted = new DownloadStream(partFile);
+        try (FileOutputStream out = new FileOutputStream(partFile);
+             Sink sink = restarted.track(Okio.sink(out), 0)) {
+            sink.write(new Buffer().writeUtf8("abc"), 3);
+        }
+        assertEquals('a', restarted.read());
+        restarted.restarted();
+        try {
+            restarted.read();
+            fail("Expected the read to fail");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("started again"));
+        }
+        restarted.close();
+    }
+
+}
@@ -63,4 +63,23 @@ public class NihmsHarvesterConfigTest {
 
         assertEquals(expectedParams, actualParams);
     }
-}
\ No newline at end of file
+
+    /**
+     * Insures the download concurrency and request delay default to 3 requests and 2 seconds, and that values
+     * below the minimum are raised to it
+     */
+    @Test
+    public void downloadConcurrency() {
+        assertEquals(3, NihmsHarvesterConfig.getHttpMaxRequestsPerHost());
+        assertEquals(2000, NihmsHarvesterConfig.getHttpRequestDelayMs());
+        try {
+            System.setProperty("nihmsetl.http.max-requests-per-host", "0");
+            System.setProperty("nihmsetl.http.request-delay-ms", "-5");
+            assertEquals(1, NihmsHarvesterConfig.getHttpMaxRequestsPerHost());
+            assertEquals(0, NihmsHarvesterConfig.getHttpRequestDelayMs());
+        } finally {
+            System.clearProperty("nihmsetl.http.max-requests-per-host");
+            System.clearProperty("nihmsetl.http.request-delay-ms");
+        }
+    }
+}
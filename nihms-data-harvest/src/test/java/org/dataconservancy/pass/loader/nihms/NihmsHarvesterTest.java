@@ -0,0 +1,287 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.ByteString;
+import org.apache.commons.io.FileUtils;
+import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
+import org.dataconservancy.pass.loader.nihms.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for saving and resuming downloads
+ */
+public class NihmsHarvesterTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    private NihmsHarvester harvester;
+
+    private File outputFile;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("nihmsetl.data.dir", folder.getRoot().getAbsolutePath());
+        System.setProperty("nihmsetl.http.request-delay-ms", "0");
+        System.setProperty("nihmsetl.http.download-retries", "1");
+        server = new MockWebServer();
+        server.start();
+        harvester = new NihmsHarvester();
+        outputFile = new File(folder.getRoot(), "compliant.csv");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        System.clearProperty("nihmsetl.data.dir");
+        System.clearProperty("nihmsetl.http.request-delay-ms");
+        System.clearProperty("nihmsetl.http.download-retries");
+    }
+
+    /**
+     * Check a download that is cut off part way through is resumed from where it stopped, and that the saved file
+     * and its manifest hold the whole content
+     */
+    @Test
+    public void testInterruptedDownloadResumed() throws Exception {
+        String content = csv("first");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String range = request.getHeader("Range");
+                if (range == null) {
+                    return interrupted(content);
+                }
+                // sends the rest of the content, from the byte asked for
+                int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                int last = content.length() - 1;
+                return new MockResponse().setResponseCode(206)
+                                         .setHeader("Content-Range", "bytes " + from + "-" + last + "/" + (last + 1))
+                                         .setBody(content.substring(from));
+            }
+        });
+        File saved = download();
+
+        assertNull(server.takeRequest().getHeader("Range"));
+        RecordedRequest retry = server.takeRequest();
+        assertTrue(retry.getHeader("Range").matches("bytes=[1-9][0-9]*-"));
+        assertEquals(ETAG, retry.getHeader("If-Range"));
+        assertEquals(content, FileUtils.readFileToString(saved, StandardCharsets.UTF_8));
+        assertEquals(sha256(content), FileUtil.readChecksum(saved.toPath()));
+        assertFalse(new File(outputFile.getPath() + ".part").exists());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /**
+     * Check that when a resumed request is answered with a different part of the content than the part asked for,
+     * the partial content is not saved, and the download starts again from the beginning
+     */
+    @Test
+    public void testUnexpectedRangeDownloadedAgain() throws Exception {
+        System.setProperty("nihmsetl.http.download-retries", "2");
+        harvester = new NihmsHarvester();
+        String content = csv("first");
+        server.enqueue(interrupted(content));
+        server.enqueue(new MockResponse().setResponseCode(206)
+                                         .setHeader("Content-Range", "bytes 0-99/" + content.length())
+                                         .setBody(content.substring(0, 100)));
+        server.enqueue(new MockResponse().setBody(content));
+        File saved = download();
+
+        server.takeRequest();
+        assertTrue(server.takeRequest().getHeader("Range").matches("bytes=[1-9][0-9]*-"));
+        assertNull(server.takeRequest().getHeader("Range"));
+        assertEquals(content, FileUtils.readFileToString(saved, StandardCharsets.UTF_8));
+        assertEquals(sha256(content), FileUtil.readChecksum(saved.toPath()));
+    }
+
+    /**
+     * Check that when the content has changed since the download was cut off, the server's full response replaces
+     * what was saved, rather than being appended to it
+     */
+    @Test
+    public void testChangedContentDownloadedAgain() throws Exception {
+        String changed = csv("second");
+        server.enqueue(interrupted(csv("first")));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody(changed));
+        File saved = download();
+
+        server.takeRequest();
+        assertEquals(ETAG, server.takeRequest().getHeader("If-Range"));
+        assertEquals(changed, FileUtils.readFileToString(saved, StandardCharsets.UTF_8));
+        assertEquals(sha256(changed), FileUtil.readChecksum(saved.toPath()));
+    }
+
+    /**
+     * Check the download fails once the retries are used up, and leaves no partial file behind
+     */
+    @Test
+    public void testRetriesUsedUp() throws Exception {
+        server.enqueue(interrupted(csv("first")));
+        server.enqueue(interrupted(csv("first")));
+        try {
+            download();
+            fail("The download should fail after the connection is cut off twice");
+        } catch (ExecutionException ex) {
+            // expected
+        }
+        assertEquals(2, server.getRequestCount());
+        assertFalse(new File(outputFile.getPath() + ".part").exists());
+        assertFalse(outputFile.exists());
+    }
+
+    /**
+     * Check the manifest is written before the file is moved into place, so that if the manifest cannot be
+     * written the file never appears
+     */
+    @Test
+    public void testFileNotSavedWithoutManifest() throws Exception {
+        // a folder in the way of the manifest's temporary file stops the manifest being written
+        assertTrue(new File(outputFile.getPath() + FileUtil.CHECKSUM_SUFFIX + ".tmp").mkdirs());
+        server.enqueue(new MockResponse().setBody(csv("first")));
+        try {
+            download();
+            fail("The download should fail when the manifest cannot be written");
+        } catch (ExecutionException ex) {
+            // expected
+        }
+        assertFalse(outputFile.exists());
+        assertFalse(new File(outputFile.getPath() + ".part").exists());
+    }
+
+    /**
+     * Check the lists for each status are downloaded at the same time, up to the limit of requests per host, that
+     * the start of each request is spaced out, and that a list that fails is reported without stopping the others
+     * from being saved
+     */
+    @Test
+    public void testHarvestReportsFailedStatusOnly() throws Exception {
+        System.setProperty("nihmsetl.http.max-requests-per-host", "2");
+        System.setProperty("nihmsetl.http.request-delay-ms", "200");
+        Map<String, Long> startMillis = new ConcurrentHashMap<>();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                startMillis.put(request.getPath(), System.currentTimeMillis());
+                MockResponse response = (request.getPath().equals("/noncompliant")
+                                         ? new MockResponse().setResponseCode(500)
+                                         : new MockResponse().setBody(csv(request.getPath())));
+                // each request holds its place for a while, so the limit on requests per host comes into play
+                return response.setHeadersDelay(1000, TimeUnit.MILLISECONDS);
+            }
+        });
+        harvester = new NihmsHarvester(new UrlBuilder() {
+            @Override
+            public URL compliantUrl(Map<String, String> params) {
+                return server.url("/compliant").url();
+            }
+
+            @Override
+            public URL nonCompliantUrl(Map<String, String> params) {
+                return server.url("/noncompliant").url();
+            }
+
+            @Override
+            public URL inProcessUrl(Map<String, String> params) {
+                return server.url("/inprocess").url();
+            }
+        });
+
+        try {
+            harvester.harvest(EnumSet.allOf(NihmsStatus.class), null);
+            fail("The harvest should report the status that failed");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().endsWith("Failed statuses: [noncompliant]"));
+        } finally {
+            System.clearProperty("nihmsetl.http.max-requests-per-host");
+        }
+
+        for (NihmsStatus status : EnumSet.of(NihmsStatus.COMPLIANT, NihmsStatus.IN_PROCESS)) {
+            File[] saved = folder.getRoot().listFiles((dir, name) -> name.startsWith(status + "_nihmspubs_")
+                                                                     && name.endsWith(".csv"));
+            assertEquals(1, saved.length);
+            assertEquals(csv("/" + status), FileUtils.readFileToString(saved[0], StandardCharsets.UTF_8));
+            assertEquals(sha256(csv("/" + status)), FileUtil.readChecksum(saved[0].toPath()));
+        }
+        assertEquals(0, folder.getRoot().list((dir, name) -> name.startsWith("noncompliant")).length);
+
+        long first = startMillis.get("/compliant");
+        long second = startMillis.get("/noncompliant");
+        long third = startMillis.get("/inprocess");
+        // the second request is held back by the delay, but does not wait for the first to finish
+        assertTrue(second - first >= 150);
+        assertTrue(second - first < 900);
+        // the third waits for one of the first two to finish
+        assertTrue(third - first >= 900);
+    }
+
+    private File download() throws Exception {
+        return harvester.download(server.url("/compliant").url(), outputFile, NihmsStatus.COMPLIANT, null, null)
+                        .get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return a response that can be resumed, which is cut off half way through the content
+     */
+    private static MockResponse interrupted(String content) {
+        return new MockResponse().setHeader("Accept-Ranges", "bytes")
+                                 .setHeader("ETag", ETAG)
+                                 .setBody(content)
+                                 .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+    }
+
+    private static String csv(String version) {
+        StringBuilder csv = new StringBuilder("Journal,Article Title,PMID,PMCID,NIHMSID\n");
+        for (int i = 0; i < 2000; i++) {
+            csv.append("Journal ").append(i).append(",Article ").append(version).append(',').append(1000 + i)
+               .append(",PMC").append(2000 + i).append(",NIHMS").append(3000 + i).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static String sha256(String content) {
+        return ByteString.encodeUtf8(content).sha256().hex();
+    }
+}
@@ -15,11 +15,16 @@
  */
 package org.dataconservancy.pass.loader.nihms.cli;
 
+import static org.dataconservancy.pass.loader.nihms.NihmsHarvesterConfig.NIHMS_ETL_PROPERTY_PREFIX;
+import static org.dataconservancy.pass.loader.nihms.util.ProcessingUtil.nullOrEmpty;
+
 import java.io.File;
 import java.nio.file.Files;
+import java.util.EnumSet;
 import java.util.Properties;
 import java.util.Set;
 
+import org.dataconservancy.pass.loader.nihms.NihmsHarvester;
 import org.dataconservancy.pass.loader.nihms.NihmsTransformLoadService;
 import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
 import org.dataconservancy.pass.loader.nihms.util.ConfigUtil;
@@ -47,12 +52,94 @@ public class NihmsTransformLoadApp {
                                                        "pass.fedora.baseurl", "pass.elasticsearch.url",
                                                        "pass.elasticsearch.limit", "nihmsetl.data.dir",
                                                        "nihmsetl.repository.uri", "nihmsetl.pmcurl.template",
-                                                       "nihmsetl.loader.cachepath"};
+                                                       "nihmsetl.loader.cachepath", "nihmsetl.loader.threads",
+                                                       "nihmsetl.loader.cachepath.commit-size",
+                                                       "nihmsetl.loader.cachepath.sync-interval-ms",
+                                                       "nihmsetl.loader.cachepath.mapped-index",
+                                                       "nihmsetl.loader.cachepath.bloom-filter",
+                                                       "nihmsetl.loader.cachepath.bloom-filter.fpp",
+                                                       "nihmsetl.loader.cachepath.bloom-filter.expected-entries",
+                                                       "nihmsetl.loader.max-in-flight",
+                                                       "nihmsetl.loader.fedora.max-concurrent-requests",
+                                                       "nihmsetl.loader.grant.prefetch",
+                                                       "nihmsetl.loader.cache.notfound-ttl-seconds",
+                                                       "nihmsetl.loader.cache.publications.max-entries",
+                                                       "nihmsetl.loader.cache.publications.ttl-seconds",
+                                                       "nihmsetl.loader.cache.repository-copies.max-entries",
+                                                       "nihmsetl.loader.cache.repository-copies.ttl-seconds",
+                                                       "nihmsetl.loader.cache.grants.max-entries",
+                                                       "nihmsetl.loader.cache.grants.ttl-seconds",
+                                                       "nihmsetl.loader.cache.deposits.max-entries",
+                                                       "nihmsetl.loader.cache.deposits.ttl-seconds",
+                                                       "nihmsetl.loader.cache.submissions.max-entries",
+                                                       "nihmsetl.loader.cache.submissions.ttl-seconds",
+                                                       "nihmsetl.loader.cache.snapshots.max-entries",
+                                                       "nihmsetl.loader.cache.snapshots.ttl-seconds",
+                                                       "nihmsetl.loader.cache.submission-records.max-entries",
+                                                       "nihmsetl.loader.cache.submission-records.ttl-seconds",
+                                                       "nihmsetl.loader.cache.publication-records.max-entries",
+                                                       "nihmsetl.loader.cache.publication-records.ttl-seconds",
+                                                       "nihmsetl.loader.cache.grant-records.max-entries",
+                                                       "nihmsetl.loader.cache.grant-records.ttl-seconds",
+                                                       "nihmsetl.loader.cache.journals.max-entries",
+                                                       "nihmsetl.loader.cache.journals.ttl-seconds",
+                                                       "nihmsetl.loader.cache.publication-dois.max-entries",
+                                                       "nihmsetl.loader.cache.publication-dois.ttl-seconds",
+                                                       "nihmsetl.loader.cache.repository-copy-records.max-entries",
+                                                       "nihmsetl.loader.cache.repository-copy-records.ttl-seconds",
+                                                       "nihmsetl.loader.cache.deposit-records.max-entries",
+                                                       "nihmsetl.loader.cache.deposit-records.ttl-seconds",
+                                                       "nihmsetl.loader.cache.snapshot.enabled",
+                                                       "nihmsetl.loader.cache.snapshot.path",
+                                                       "nihmsetl.loader.cache.snapshot.max-age-hours",
+                                                       "nihmsetl.loader.skip-processed-files",
+                                                       "nihmsetl.loader.preload", "nihmsetl.loader.preload.page-size",
+                                                       "nihmsetl.loader.submission.read-threads",
+                                                       "nihmsetl.loader.entrez.prefetch",
+                                                       "nihmsetl.loader.entrez.cachepath",
+                                                       "nihmsetl.loader.entrez.cache.ttl-days",
+                                                       "nihmsetl.loader.entrez.cache.max-entries",
+                                                       "entrez.max-concurrent-requests", "entrez.batch.size",
+                                                       "entrez.http.connect-timeout-ms",
+                                                       "entrez.http.read-timeout-ms", "entrez.http.max-connections",
+                                                       "entrez.http.keep-alive-ms", "entrez.api-key",
+                                                       "entrez.tool", "entrez.email",
+                                                       "entrez.requests-per-second", "entrez.max-attempts"};
 
     private Set<NihmsStatus> statusesToProcess;
 
+    private boolean virtualThreads;
+
+    private boolean harvest = false;
+
+    private String startDate;
+
     public NihmsTransformLoadApp(Set<NihmsStatus> statusesToProcess) {
+        this(statusesToProcess, false);
+    }
+
+    /**
+     * Initiate the transform and load app
+     *
+     * @param statusesToProcess list of NihmsStatuses to process
+     * @param virtualThreads    true to transform and load each record on its own virtual thread
+     */
+    public NihmsTransformLoadApp(Set<NihmsStatus> statusesToProcess, boolean virtualThreads) {
         this.statusesToProcess = statusesToProcess;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Download the NIHMS CSVs and transform and load each one while it is being downloaded, rather than loading the
+     * CSVs already in the data directory. The harvester's {@code nihmsetl.*} properties are read from the same config
+     * file as the loader's.
+     *
+     * @param startDate start date of the NIHMS data to download, formatted as {@code mm-yyyy}, can be empty to use the
+     *                  NIHMS default of one year before the current month
+     */
+    public void setHarvest(String startDate) {
+        this.harvest = true;
+        this.startDate = startDate;
     }
 
     /**
@@ -75,6 +162,12 @@ public class NihmsTransformLoadApp {
                     System.setProperty(key, value);
                 }
             }
+            if (harvest) {
+                properties.stringPropertyNames()
+                          .stream()
+                          .filter(key -> key.startsWith(NIHMS_ETL_PROPERTY_PREFIX))
+                          .forEach(key -> System.setProperty(key, properties.getProperty(key)));
+            }
         } else {
             LOG.warn(
                 "Could not find a readable config file at path {}, will use current system and environment variables " +
@@ -101,7 +194,20 @@ public class NihmsTransformLoadApp {
         }
 
         NihmsTransformLoadService service = new NihmsTransformLoadService();
-        service.transformAndLoadFiles(statusesToProcess);
+        try {
+            service.setVirtualThreads(virtualThreads);
+            if (harvest) {
+                Set<NihmsStatus> statusesToDownload = (nullOrEmpty(statusesToProcess)
+                                                       ? EnumSet.allOf(NihmsStatus.class) : statusesToProcess);
+                NihmsHarvester harvester = new NihmsHarvester();
+                service.transformAndLoadStreams(
+                    () -> harvester.harvest(statusesToDownload, startDate, service::transformAndLoadStream));
+            } else {
+                service.transformAndLoadFiles(statusesToProcess);
+            }
+        } finally {
+            service.close();
+        }
 
     }
 
@@ -53,6 +53,34 @@ public class NihmsTransformLoadCLI {
                     "will be processed.")
     private boolean inProcess = false;
 
+    /**
+     * Transform and load each record on its own virtual thread
+     **/
+    @Option(name = "-vt", aliases = {"-virtualthreads", "--virtualthreads"},
+            usage = "Transform and load each record on its own virtual thread, with separate caps on the number of "
+                    + "requests in flight to PASS and to Entrez. Requires Java 21 or later, otherwise a fixed pool " +
+                    "of threads is used. By default records are processed sequentially.")
+    private boolean virtualThreads = false;
+
+    /**
+     * Download the NIHMS CSVs and load them as they arrive
+     **/
+    @Option(name = "-hv", aliases = {"-harvest", "--harvest"},
+            usage = "Download the NIHMS CSVs and transform and load each one while it is still being downloaded, "
+                    + "instead of loading the CSVs already in the data directory. The CSVs are still saved to the " +
+                    "data directory. By default the CSVs in the data directory are processed.")
+    private boolean harvest = false;
+
+    /**
+     * The start date of the NIHMS data to download when harvesting
+     */
+    @Option(name = "-s", aliases = {"-startDate", "--startDate"}, depends = {"-hv"},
+            usage = "When harvesting, DateTime to start the query against NIHMS data. This will cause "
+                    + "a return of all records published since the date provided. Syntax must be mm-yyyy. This value " +
+                    "will override the "
+                    + "NIHMS system default which is one year before the current month")
+    private String startDate = "";
+
     public static void main(String[] args) {
 
         final NihmsTransformLoadCLI application = new NihmsTransformLoadCLI();
@@ -82,7 +110,10 @@ public class NihmsTransformLoadCLI {
             }
 
             /* Run the package generation application proper */
-            NihmsTransformLoadApp app = new NihmsTransformLoadApp(statusesToProcess);
+            NihmsTransformLoadApp app = new NihmsTransformLoadApp(statusesToProcess, application.virtualThreads);
+            if (application.harvest) {
+                app.setHarvest(application.startDate);
+            }
             app.run();
             System.exit((0));
 
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bloom filter over "pmid|awardNumber" entries, used to rule out entries that are definitely not in the compliant
+ * cache without locking or reading the cache itself. Checking an entry does not create any objects, and entries
+ * can be checked while others are being added. The filter can be saved to a file along with the length of the
+ * compliant cache file it matches, so that it does not have to be rebuilt on the next run.
+ */
+final class BloomFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BloomFilter.class);
+
+    private static final int MAGIC = 0x4e43424c;
+
+    private static final int VERSION = 1;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long expectedEntries;
+
+    private final double falsePositiveRate;
+
+    private final int hashCount;
+
+    private final long bitCount;
+
+    private final AtomicLongArray bits;
+
+    private final long journalLength;
+
+    /**
+     * Creates an empty filter sized to keep the false positive rate given until it holds the expected number of
+     * entries
+     *
+     * @param expectedEntries   number of entries the filter is sized for
+     * @param falsePositiveRate chance that an entry not in the filter is reported as possibly present, between 0
+     *                          and 1
+     */
+    BloomFilter(long expectedEntries, double falsePositiveRate) {
+        if (expectedEntries < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("expectedEntries must be at least 1 and the false positive rate "
+                                               + "must be between 0 and 1");
+        }
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+        long optimalBits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate)
+                                            / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedEntries * Math.log(2)));
+        this.journalLength = -1;
+    }
+
+    private BloomFilter(long expectedEntries, double falsePositiveRate, int hashCount, AtomicLongArray bits,
+                        long journalLength) {
+        this.expectedEntries = expectedEntries;
+        this.falsePositiveRate = falsePositiveRate;
+        this.hashCount = hashCount;
+        this.bits = bits;
+        this.bitCount = (long) bits.length() * 64;
+        this.journalLength = journalLength;
+    }
+
+    /**
+     * Adds an entry
+     *
+     * @param pmid        pub med id
+     * @param awardNumber award number
+     */
+    void put(String pmid, String awardNumber) {
+        putHash(hash(pmid, awardNumber));
+    }
+
+    /**
+     * Adds an entry given as a single "pmid|awardNumber" value
+     *
+     * @param cachevalue the entry
+     */
+    void putLine(CharSequence cachevalue) {
+        putHash(mix(update(FNV_OFFSET, cachevalue)));
+    }
+
+    /**
+     * @param pmid        pub med id
+     * @param awardNumber award number
+     * @return false if the entry is definitely not in the filter, true if it may be
+     */
+    boolean mightContain(String pmid, String awardNumber) {
+        long hash = hash(pmid, awardNumber);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = bitIndex(hash, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of entries the filter is sized for
+     */
+    long getExpectedEntries() {
+        return expectedEntries;
+    }
+
+    /**
+     * @return the false positive rate the filter is sized for
+     */
+    double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * @return number of hash functions used per entry
+     */
+    int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return size of the filter in bytes
+     */
+    long getSizeInBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * @return length of the compliant cache file the filter was saved with, -1 if it was not loaded from a file
+     */
+    long getJournalLength() {
+        return journalLength;
+    }
+
+    /**
+     * Saves the filter to a temporary file and moves it into place once it is complete
+     *
+     * @param file          the filter file
+     * @param journalLength length of the compliant cache file the filter matches
+     * @throws IOException if the filter could not be written
+     */
+    void save(File file, long journalLength) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalLength);
+            out.writeLong(expectedEntries);
+            out.writeDouble(falsePositiveRate);
+            out.writeInt(hashCount);
+            out.writeInt(bits.length());
+            for (int i = 0; i < bits.length(); i++) {
+                out.writeLong(bits.get(i));
+            }
+            out.flush();
+            fileOut.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a filter saved with {@link #save(File, long)}
+     *
+     * @param file the filter file
+     * @return the filter, or null if the file does not exist or is not a valid filter
+     */
+    static BloomFilter load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring Bloom filter at {}, it is not a valid filter", file);
+                return null;
+            }
+            long journalLength = in.readLong();
+            long expectedEntries = in.readLong();
+            double falsePositiveRate = in.readDouble();
+            int hashCount = in.readInt();
+            int words = in.readInt();
+            if (hashCount < 1 || words < 1 || file.length() != 40 + (long) words * 8) {
+                LOG.warn("Ignoring Bloom filter at {}, it is incomplete", file);
+                return null;
+            }
+            AtomicLongArray bits = new AtomicLongArray(words);
+            for (int i = 0; i < words; i++) {
+                bits.set(i, in.readLong());
+            }
+            return new BloomFilter(expectedEntries, falsePositiveRate, hashCount, bits, journalLength);
+        } catch (IOException ex) {
+            LOG.warn("Ignoring Bloom filter at {}, it could not be read", file, ex);
+            return null;
+        }
+    }
+
+    private void putHash(long hash) {
+        for (int i = 0; i < hashCount; i++) {
+            long bit = bitIndex(hash, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+    }
+
+    /**
+     * Gets the i-th bit for an entry by combining the two halves of its hash
+     */
+    private long bitIndex(long hash, int i) {
+        long combined = (hash & 0xffffffffL) + i * (hash >>> 32);
+        return Long.remainderUnsigned(combined, bitCount);
+    }
+
+    private static long hash(String pmid, String awardNumber) {
+        long hash = update(FNV_OFFSET, pmid);
+        hash = (hash ^ '|') * FNV_PRIME;
+        return mix(update(hash, awardNumber));
+    }
+
+    private static long update(long hash, CharSequence value) {
+        long result = hash;
+        for (int i = 0; i < value.length(); i++) {
+            result = (result ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return result;
+    }
+
+    /**
+     * Spreads the bits of an FNV hash so that both halves can be used
+     */
+    private static long mix(long hash) {
+        long h = hash;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+}
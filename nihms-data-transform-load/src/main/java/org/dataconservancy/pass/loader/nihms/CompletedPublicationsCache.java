@@ -17,27 +17,116 @@ package org.dataconservancy.pass.loader.nihms;
 
 import static org.dataconservancy.pass.loader.nihms.util.ProcessingUtil.nullOrEmpty;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
-import java.util.HashSet;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
 
-import org.apache.commons.io.FileUtils;
 import org.dataconservancy.pass.loader.nihms.util.ConfigUtil;
 import org.dataconservancy.pass.loader.nihms.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This controls a simple local text file containing a list of compliant "pmid|grantNumber" combinations
  * that are considered DONE and therefore require no re-processing. Only compliant records with a PMCID already
  * assigned should be added to this list. The list is used as a lookup during processing to avoid the excessive
  * database interactions that are required to re-process completed nihms data.
+ * <p>
+ * The file is a journal that is kept open while the cache is in use. New entries are queued and a single background
+ * thread writes them together once enough have built up, and writes and syncs whatever is waiting to disk at a fixed
+ * interval, so at most one interval of entries can be lost if the process is killed. Those entries are just
+ * rechecked on the next run. A partially written line at the end of the file is truncated when the file is loaded,
+ * and if the file holds duplicate lines it is rewritten without them in the background.
+ * </p>
+ * <p>
+ * In memory, each award number is given a small number the first time it is seen, and entries with a numeric PMID
+ * are held as a single long made from the PMID and that number. Checking for an entry does not create any objects.
+ * Entries with a PMID that is not a plain number are kept as strings.
+ * </p>
+ * <p>
+ * The cache can be used from several threads at once. Entries are split across stripes that are locked separately,
+ * and adding an entry never waits for the file to be written. Loading, clearing and closing the cache wait for
+ * calls in progress to finish.
+ * </p>
+ * <p>
+ * When the mapped index is turned on, the entries are also saved to a sorted index file next to the cache file
+ * when the cache is closed. The next run maps that file instead of reading the cache file, so loading takes the
+ * same time however many entries there are. Entries added during the run are held in memory until the index is
+ * rewritten at the end of the run. If the cache file has changed since the index was written, the index is ignored
+ * and the cache file is read as usual.
+ * </p>
+ * <p>
+ * A Bloom filter can also be kept in front of the entries, so that most combinations that are not in the cache are
+ * ruled out without locking the cache. The filter is saved next to the cache file when the cache is closed and
+ * reused on the next run if the cache file has not changed since.
+ * </p>
  *
  * @author Karen Hanson
  */
 public class CompletedPublicationsCache {
 
-    private Set<String> completedPubsCache;
+    private static final Logger LOG = LoggerFactory.getLogger(CompletedPublicationsCache.class);
+
+    /**
+     * Number of low bits of an entry key that hold the award number id, the PMID is in the bits above
+     */
+    private static final int AWARD_ID_BITS = 26;
+
+    private static final int MAX_AWARD_ID = (1 << AWARD_ID_BITS) - 1;
+
+    /**
+     * Longest PMID held as a number, so that the PMID still fits in the key once shifted
+     */
+    private static final int MAX_PMID_DIGITS = 11;
+
+    private static final char SEPARATOR = '|';
+
+    /**
+     * Id given to each award number, starting at 1
+     */
+    private final Map<String, Integer> awardIds = new ConcurrentHashMap<>();
+
+    /**
+     * Award numbers in the order they were given ids, so that the award number for id n is at position n - 1.
+     * Ids are given out while holding the lock on this list.
+     */
+    private final List<String> awardNumbers = new ArrayList<>();
+
+    /**
+     * Entries with a numeric PMID, see {@link #key(long, int)}
+     */
+    private final StripedLongSet completedPubsCache = new StripedLongSet(1024);
+
+    /**
+     * Entries with a PMID that is not a plain number, or an award number that could not be given an id
+     */
+    private final Set<String> otherCompletedPubs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Held for reading by calls that add or check entries, and for writing by calls that load, clear, compact or
+     * close the cache
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final CompletedPublicationsJournal journal;
 
     private File cacheFile;
 
@@ -47,11 +136,95 @@ public class CompletedPublicationsCache {
 
     private static final String CACHEPATH_DEFAULT = "/cache/compliant-cache.data";
 
+    private static final String COMMIT_SIZE_KEY = "nihmsetl.loader.cachepath.commit-size";
+
+    private static final String COMMIT_SIZE_DEFAULT = "100";
+
+    private static final String SYNC_INTERVAL_KEY = "nihmsetl.loader.cachepath.sync-interval-ms";
+
+    private static final String SYNC_INTERVAL_DEFAULT = "1000";
+
+    private static final String MAPPED_INDEX_KEY = "nihmsetl.loader.cachepath.mapped-index";
+
+    private static final String MAPPED_INDEX_DEFAULT = "false";
+
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private static final String BLOOM_FILTER_KEY = "nihmsetl.loader.cachepath.bloom-filter";
+
+    private static final String BLOOM_FILTER_DEFAULT = "false";
+
+    private static final String BLOOM_FPP_KEY = "nihmsetl.loader.cachepath.bloom-filter.fpp";
+
+    private static final String BLOOM_FPP_DEFAULT = "0.01";
+
+    private static final String BLOOM_EXPECTED_ENTRIES_KEY = "nihmsetl.loader.cachepath.bloom-filter.expected-entries";
+
+    private static final String BLOOM_EXPECTED_ENTRIES_DEFAULT = "0";
+
+    private static final long BLOOM_MIN_EXPECTED_ENTRIES = 10000;
+
+    private static final String BLOOM_FILE_SUFFIX = ".bloom";
+
+    /**
+     * Index file the entries are saved to, null if the mapped index is not used
+     */
+    private final File indexFile;
+
+    /**
+     * Entries from the mapped index, null if there is none. Entries held in memory are only those added since the
+     * index was written.
+     */
+    private CompletedPublicationsIndex index = null;
+
+    /**
+     * File the Bloom filter is saved to, null if no filter is used
+     */
+    private final File bloomFile;
+
+    private final double bloomFalsePositiveRate;
+
+    /**
+     * Number of entries the Bloom filter is sized for, 0 or less to size it from the number of entries loaded
+     */
+    private final long bloomExpectedEntries;
+
+    /**
+     * Filter checked before the entries, null while the cache is loading or when no filter is used
+     */
+    private volatile BloomFilter bloomFilter = null;
+
     private CompletedPublicationsCache() {
-        completedPubsCache = new HashSet<String>();
-        String sCacheFile = ConfigUtil.getSystemProperty(CACHEPATH_KEY,
-                                                         FileUtil.getCurrentDirectory() + CACHEPATH_DEFAULT);
-        cacheFile = new File(sCacheFile);
+        this(new File(ConfigUtil.getSystemProperty(CACHEPATH_KEY, FileUtil.getCurrentDirectory() + CACHEPATH_DEFAULT)),
+             Integer.parseInt(ConfigUtil.getSystemProperty(COMMIT_SIZE_KEY, COMMIT_SIZE_DEFAULT).trim()),
+             Long.parseLong(ConfigUtil.getSystemProperty(SYNC_INTERVAL_KEY, SYNC_INTERVAL_DEFAULT).trim()),
+             Boolean.parseBoolean(ConfigUtil.getSystemProperty(MAPPED_INDEX_KEY, MAPPED_INDEX_DEFAULT)),
+             Boolean.parseBoolean(ConfigUtil.getSystemProperty(BLOOM_FILTER_KEY, BLOOM_FILTER_DEFAULT))
+             ? Double.parseDouble(ConfigUtil.getSystemProperty(BLOOM_FPP_KEY, BLOOM_FPP_DEFAULT).trim()) : 0,
+             Long.parseLong(ConfigUtil.getSystemProperty(BLOOM_EXPECTED_ENTRIES_KEY,
+                                                         BLOOM_EXPECTED_ENTRIES_DEFAULT).trim()));
+    }
+
+    /**
+     * @param cacheFile              the cache file
+     * @param commitSize             number of new entries written to the file together
+     * @param syncIntervalMillis     interval at which new entries are written and synced to disk
+     * @param mappedIndex            true to save the entries to a mapped index file at close and use it on load
+     * @param bloomFalsePositiveRate false positive rate of the Bloom filter, 0 or less to use no filter
+     * @param bloomExpectedEntries   number of entries the Bloom filter is sized for, 0 or less to size it from the
+     *                               number of entries loaded
+     */
+    CompletedPublicationsCache(File cacheFile, int commitSize, long syncIntervalMillis, boolean mappedIndex,
+                               double bloomFalsePositiveRate, long bloomExpectedEntries) {
+        if (bloomFalsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The Bloom filter false positive rate must be less than 1");
+        }
+        this.cacheFile = cacheFile;
+        this.journal = new CompletedPublicationsJournal(cacheFile, commitSize, syncIntervalMillis);
+        this.indexFile = (mappedIndex ? new File(cacheFile.getPath() + INDEX_FILE_SUFFIX) : null);
+        this.bloomFile = (bloomFalsePositiveRate > 0 ? new File(cacheFile.getPath() + BLOOM_FILE_SUFFIX) : null);
+        this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        this.bloomExpectedEntries = bloomExpectedEntries;
         loadFromFile();
     }
 
@@ -63,37 +236,64 @@ public class CompletedPublicationsCache {
     }
 
     /**
-     * Add pmid/awardNumber combination to set
+     * Add pmid/awardNumber combination to set. The entry is queued to be written to the cache file along with others
+     * added around the same time, use {@link #flush()} to make sure it is on disk.
      *
      * @param pmid        pub med id
      * @param awardNumber award number
      */
-    public synchronized void add(String pmid, String awardNumber) {
-        if (!nullOrEmpty(pmid) && !nullOrEmpty(awardNumber)
-            && !contains(pmid, awardNumber)) {
-            String cachevalue = pmid + "|" + awardNumber;
-            try (PrintWriter output = new PrintWriter(new FileWriter(cacheFile, true))) {
-                output.println(cachevalue);
-                completedPubsCache.add(cachevalue);
-            } catch (Exception ex) {
-                throw new RuntimeException("Problem writing cachevalue: " + cachevalue + " to cache");
+    public void add(String pmid, String awardNumber) {
+        if (nullOrEmpty(pmid) || nullOrEmpty(awardNumber)) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            if (addEntry(pmid, awardNumber)) {
+                BloomFilter filter = bloomFilter;
+                if (filter != null) {
+                    filter.put(pmid, awardNumber);
+                }
+                journal.append(pmid + SEPARATOR + awardNumber);
             }
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     /**
-     * Check if it contains pmid/award number combination
+     * Check if it contains pmid/award number combination. When a Bloom filter is used, combinations the filter
+     * rules out are answered without looking at the entries.
      *
      * @param pmid        pub med id
      * @param awardNumber award number
      * @return true if the id/award number combo is cached
      */
-    public synchronized boolean contains(String pmid, String awardNumber) {
-        if (!nullOrEmpty(pmid) && !nullOrEmpty(awardNumber)) {
-            String cachevalue = pmid + "|" + awardNumber;
-            return completedPubsCache.contains(cachevalue);
+    public boolean contains(String pmid, String awardNumber) {
+        if (nullOrEmpty(pmid) || nullOrEmpty(awardNumber)) {
+            return false;
+        }
+        BloomFilter filter = bloomFilter;
+        if (filter != null && !filter.mightContain(pmid, awardNumber)) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return containsEntry(pmid, awardNumber);
+        } finally {
+            lock.readLock().unlock();
         }
-        return false;
+    }
+
+    private boolean containsEntry(String pmid, String awardNumber) {
+        long numericPmid = numericPmid(pmid);
+        if (numericPmid > 0) {
+            Integer awardId = awardIds.get(awardNumber);
+            if (awardId != null) {
+                long key = key(numericPmid, awardId);
+                return completedPubsCache.contains(key) || (index != null && index.contains(key));
+            }
+        }
+        return !otherCompletedPubs.isEmpty() && otherCompletedPubs.contains(pmid + SEPARATOR + awardNumber);
     }
 
     /**
@@ -101,40 +301,420 @@ public class CompletedPublicationsCache {
      *
      * @return the size of the cache
      */
-    public synchronized int size() {
-        return completedPubsCache.size();
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return completedPubsCache.size() + otherCompletedPubs.size() + (index != null ? index.size() : 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes any entries that are waiting to the cache file and syncs it to disk
+     */
+    public void flush() {
+        try {
+            journal.sync();
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write to cache file at path " + cacheFile.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Writes any entries that are waiting, removes duplicate lines from the file and releases it. When the mapped
+     * index is used, it is rewritten if the file has changed. The cache can still be used afterwards, the file is
+     * reopened when needed.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            try {
+                journal.sync();
+                if (journal.getLines() > size()) {
+                    compact();
+                }
+                journal.close();
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not close cache file at path " + cacheFile.getAbsolutePath(), ex);
+            }
+            if (indexFile != null && (index == null || index.getJournalLength() != cacheFile.length())) {
+                writeIndex();
+            }
+            if (bloomFilter != null) {
+                try {
+                    bloomFilter.save(bloomFile, cacheFile.length());
+                } catch (IOException ex) {
+                    LOG.warn("Could not save the Bloom filter for the compliant cache at {}", bloomFile, ex);
+                    bloomFile.delete();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Empty cache
      */
-    public synchronized void clear() {
+    public void clear() {
+        lock.writeLock().lock();
         try {
+            journal.discard();
             if (cacheFile.exists()) {
                 cacheFile.delete();
             }
-            completedPubsCache.clear();
+            if (indexFile != null && indexFile.exists()) {
+                indexFile.delete();
+            }
+            if (bloomFile != null && bloomFile.exists()) {
+                bloomFile.delete();
+            }
+            clearEntries();
+            if (bloomFile != null) {
+                bloomFilter = newBloomFilter();
+            }
+            journal.setLines(0);
         } catch (Exception ex) {
             throw new RuntimeException("Could not clear cache file at path " + cacheFile.getAbsolutePath(), ex);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /**
-     * Load contents of cache file into memory from file
+     * Get the folder the cache file is stored in, other caches used by the loader are kept alongside it
+     *
+     * @return the cache folder
+     */
+    public File getCacheDirectory() {
+        return cacheFile.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Load contents of cache file into memory from file. A partially written line at the end of the file, left by
+     * a run that was stopped mid-write, is truncated. If the file holds duplicate lines, it is compacted in the
+     * background. When the mapped index is used and matches the file, the index is mapped instead.
      */
-    @SuppressWarnings("unchecked")
-    public synchronized void loadFromFile() {
+    public void loadFromFile() {
+        lock.writeLock().lock();
         try {
+            load();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load() {
+        bloomFilter = null;
+        try {
+            journal.discard();
             if (!cacheFile.exists()) {
-                cacheFile.getParentFile().mkdirs();
+                cacheFile.getAbsoluteFile().getParentFile().mkdirs();
                 cacheFile.createNewFile();
             }
-            // read in cached values
-            completedPubsCache = new HashSet<String>(FileUtils.readLines(cacheFile));
+            if (!openIndex()) {
+                truncateIncompleteLine();
+                // read in cached values
+                clearEntries();
+                long lines = 0;
+                try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines = lines + 1;
+                        addLine(line);
+                    }
+                }
+                journal.setLines(lines);
+            }
         } catch (Exception ex) {
             throw new RuntimeException(
                 "Could not create cache file to hold compliant records at path " + cacheFile.getAbsolutePath(), ex);
         }
+        if (bloomFile != null) {
+            bloomFilter = openBloomFilter();
+        }
+        if (journal.getLines() > size()) {
+            journal.execute(this::compactInBackground);
+        }
+    }
+
+    /**
+     * Loads the saved Bloom filter if it matches the cache file and is large enough, otherwise builds a new one
+     * from the entries
+     *
+     * @return the filter
+     */
+    private BloomFilter openBloomFilter() {
+        BloomFilter saved = BloomFilter.load(bloomFile);
+        if (saved != null && saved.getJournalLength() == cacheFile.length()
+            && saved.getFalsePositiveRate() == bloomFalsePositiveRate && saved.getExpectedEntries() >= size()
+            && (bloomExpectedEntries < 1 || saved.getExpectedEntries() == bloomExpectedEntries)) {
+            logBloomFilter(saved, "Loaded");
+            return saved;
+        }
+        BloomFilter filter = newBloomFilter();
+        for (String cachevalue : otherCompletedPubs) {
+            filter.putLine(cachevalue);
+        }
+        StringBuilder line = new StringBuilder();
+        LongConsumer putKey = key -> {
+            line.setLength(0);
+            line.append(key >>> AWARD_ID_BITS).append(SEPARATOR)
+                .append(awardNumbers.get((int) (key & MAX_AWARD_ID) - 1));
+            filter.putLine(line);
+        };
+        if (index != null) {
+            index.forEach(putKey);
+        }
+        completedPubsCache.forEach(putKey);
+        logBloomFilter(filter, "Built");
+        return filter;
+    }
+
+    /**
+     * Creates an empty Bloom filter, sized for the configured number of entries or, if none was configured, for
+     * twice the current number of entries so that the filter can be reused for several runs
+     *
+     * @return the filter
+     */
+    private BloomFilter newBloomFilter() {
+        long expected = (bloomExpectedEntries > 0 ? bloomExpectedEntries
+                                                  : Math.max(BLOOM_MIN_EXPECTED_ENTRIES, 2L * size()));
+        return new BloomFilter(expected, bloomFalsePositiveRate);
+    }
+
+    private void logBloomFilter(BloomFilter filter, String action) {
+        LOG.info("{} Bloom filter for the compliant cache: {} entries of {} expected, false positive rate {}, "
+                 + "{} hashes, {} KB", action, size(), filter.getExpectedEntries(), filter.getFalsePositiveRate(),
+                 filter.getHashCount(), filter.getSizeInBytes() / 1024);
+        if (size() > filter.getExpectedEntries()) {
+            LOG.warn("The compliant cache holds more entries than its Bloom filter was sized for, so the filter "
+                     + "will report more false positives than configured");
+        }
+    }
+
+    /**
+     * Maps the index file if the mapped index is used and the index matches the cache file
+     *
+     * @return true if the index was mapped
+     * @throws IOException if the index file could not be read
+     */
+    private boolean openIndex() throws IOException {
+        clearEntries();
+        if (indexFile == null) {
+            return false;
+        }
+        CompletedPublicationsIndex mapped = CompletedPublicationsIndex.open(indexFile);
+        if (mapped == null || mapped.getJournalLength() != cacheFile.length()) {
+            LOG.info("Compliant cache index at {} is missing or out of date, it will be rebuilt", indexFile);
+            return false;
+        }
+        for (String award : mapped.getAwardNumbers()) {
+            awardNumbers.add(award);
+            awardIds.put(award, awardNumbers.size());
+        }
+        otherCompletedPubs.addAll(mapped.getOthers());
+        index = mapped;
+        journal.setLines(mapped.getJournalLines());
+        LOG.info("Mapped {} compliant cache entries from {}", size(), indexFile);
+        return true;
+    }
+
+    /**
+     * Saves all entries to a new index file, merging the entries added in memory with the current index, and
+     * maps the new index. A failure is logged, the cache file is read instead on the next run.
+     */
+    private void writeIndex() {
+        try {
+            long[] added = completedPubsCache.toArray();
+            Arrays.sort(added);
+            CompletedPublicationsIndex.write(indexFile, cacheFile.length(), journal.getLines(), awardNumbers,
+                                             otherCompletedPubs, index, added);
+            CompletedPublicationsIndex written = CompletedPublicationsIndex.open(indexFile);
+            if (written != null) {
+                index = written;
+                completedPubsCache.clear();
+            }
+        } catch (IOException ex) {
+            LOG.warn("Could not write the compliant cache index at {}", indexFile, ex);
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Adds an entry read from the cache file
+     *
+     * @param line the line, in the form "pmid|awardNumber"
+     */
+    private void addLine(String line) {
+        int separator = line.indexOf(SEPARATOR);
+        if (separator > 0 && separator < line.length() - 1) {
+            addEntry(line.substring(0, separator), line.substring(separator + 1));
+        } else if (!line.isEmpty()) {
+            otherCompletedPubs.add(line);
+        }
+    }
+
+    /**
+     * Adds an entry to the stripe or set it belongs in
+     *
+     * @param pmid        pub med id
+     * @param awardNumber award number
+     * @return true if the entry was not already in the cache
+     */
+    private boolean addEntry(String pmid, String awardNumber) {
+        long numericPmid = numericPmid(pmid);
+        int awardId = (numericPmid > 0 ? awardId(awardNumber) : -1);
+        if (awardId > 0) {
+            long key = key(numericPmid, awardId);
+            return !(index != null && index.contains(key)) && completedPubsCache.add(key);
+        }
+        return otherCompletedPubs.add(pmid + SEPARATOR + awardNumber);
+    }
+
+    /**
+     * Gets the id of an award number, giving it the next id if it does not have one yet
+     *
+     * @param awardNumber award number
+     * @return the id, or -1 if there are no ids left
+     */
+    private int awardId(String awardNumber) {
+        Integer awardId = awardIds.get(awardNumber);
+        if (awardId != null) {
+            return awardId;
+        }
+        synchronized (awardNumbers) {
+            awardId = awardIds.get(awardNumber);
+            if (awardId == null) {
+                if (awardNumbers.size() >= MAX_AWARD_ID) {
+                    return -1;
+                }
+                String award = awardNumber.intern();
+                awardNumbers.add(award);
+                awardId = awardNumbers.size();
+                awardIds.put(award, awardId);
+            }
+            return awardId;
+        }
+    }
+
+    private void clearEntries() {
+        index = null;
+        completedPubsCache.clear();
+        otherCompletedPubs.clear();
+        awardIds.clear();
+        awardNumbers.clear();
+    }
+
+    private static long key(long numericPmid, int awardId) {
+        return (numericPmid << AWARD_ID_BITS) | awardId;
+    }
+
+    /**
+     * Reads a PMID as a number, if it is written as one without leading zeros and is short enough to fit in a key
+     *
+     * @param pmid pub med id
+     * @return the PMID, or -1 if it is not held as a number
+     */
+    private static long numericPmid(String pmid) {
+        if (pmid.isEmpty() || pmid.length() > MAX_PMID_DIGITS || pmid.charAt(0) == '0') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < pmid.length(); i++) {
+            char c = pmid.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Drops anything after the last newline in the cache file
+     *
+     * @throws IOException if the file could not be read or truncated
+     */
+    private void truncateIncompleteLine() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+            long length = raf.length();
+            long validLength = length;
+            byte[] chunk = new byte[4096];
+            while (validLength > 0) {
+                int read = (int) Math.min(chunk.length, validLength);
+                raf.seek(validLength - read);
+                raf.readFully(chunk, 0, read);
+                int i = read - 1;
+                while (i >= 0 && chunk[i] != '\n') {
+                    i = i - 1;
+                }
+                if (i >= 0) {
+                    validLength = validLength - read + i + 1;
+                    break;
+                }
+                validLength = validLength - read;
+            }
+            if (validLength < length) {
+                LOG.warn("Truncating incomplete line at the end of the compliant cache at {}", cacheFile);
+                raf.setLength(validLength);
+            }
+        }
+    }
+
+    /**
+     * Writes each entry once to a new file and replaces the cache file with it
+     *
+     * @throws IOException if the new file could not be written
+     */
+    private void compact() throws IOException {
+        File compacted = new File(cacheFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(compacted)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (String cachevalue : otherCompletedPubs) {
+                writer.write(cachevalue);
+                writer.write('\n');
+            }
+            StringBuilder line = new StringBuilder();
+            LongConsumer writeKey = key -> {
+                line.setLength(0);
+                line.append(key >>> AWARD_ID_BITS).append(SEPARATOR)
+                    .append(awardNumbers.get((int) (key & MAX_AWARD_ID) - 1)).append('\n');
+                try {
+                    writer.append(line);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            };
+            if (index != null) {
+                index.forEach(writeKey);
+            }
+            completedPubsCache.forEach(writeKey);
+            writer.flush();
+            out.getChannel().force(false);
+        }
+        journal.close();
+        Files.move(compacted.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Compacted compliant cache from {} to {} lines", journal.getLines(), size());
+        journal.setLines(size());
+    }
+
+    private void compactInBackground() {
+        lock.writeLock().lock();
+        try {
+            journal.sync();
+            if (journal.getLines() > size()) {
+                compact();
+            }
+        } catch (IOException ex) {
+            LOG.warn("Could not compact the compliant cache at {}, it will be retried on the next load", cacheFile,
+                     ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only index of the completed publications, memory-mapped from a file so that it can be used without reading
+ * it into the heap. The file holds a header, the award numbers and the entries that are not held as numbers, and
+ * then the numeric entry keys in ascending order, which are searched in place with a binary search. The header
+ * records the length of the compliant cache file the index was built from, so an index that is out of date can be
+ * recognized and ignored.
+ */
+final class CompletedPublicationsIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompletedPublicationsIndex.class);
+
+    private static final int MAGIC = 0x4e434958;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Magic number and version, then the cache file length and line count, the length of the strings section and
+     * the number of keys
+     */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private final LongBuffer keys;
+
+    private final long journalLength;
+
+    private final long journalLines;
+
+    private final List<String> awardNumbers;
+
+    private final List<String> others;
+
+    private CompletedPublicationsIndex(LongBuffer keys, long journalLength, long journalLines,
+                                       List<String> awardNumbers, List<String> others) {
+        this.keys = keys;
+        this.journalLength = journalLength;
+        this.journalLines = journalLines;
+        this.awardNumbers = awardNumbers;
+        this.others = others;
+    }
+
+    /**
+     * Maps the index stored in the file provided
+     *
+     * @param file the index file
+     * @return the index, or null if the file does not exist or is not a valid index
+     * @throws IOException if the file could not be read
+     */
+    static CompletedPublicationsIndex open(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is full
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                LOG.warn("Ignoring compliant cache index at {}, it is not a valid index", file);
+                return null;
+            }
+            long journalLength = header.getLong();
+            long journalLines = header.getLong();
+            long stringsLength = header.getLong();
+            long keyCount = header.getLong();
+            if (stringsLength < 0 || stringsLength > Integer.MAX_VALUE || keyCount < 0
+                || keyCount > Integer.MAX_VALUE / Long.BYTES
+                || channel.size() != HEADER_BYTES + stringsLength + keyCount * Long.BYTES) {
+                LOG.warn("Ignoring compliant cache index at {}, it is incomplete", file);
+                return null;
+            }
+
+            ByteBuffer strings = ByteBuffer.allocate((int) stringsLength);
+            while (strings.hasRemaining() && channel.read(strings) >= 0) {
+                // keep reading until the strings section is full
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(strings.array()));
+            List<String> awardNumbers;
+            List<String> others;
+            try {
+                awardNumbers = readStrings(in);
+                others = readStrings(in);
+            } catch (IOException ex) {
+                LOG.warn("Ignoring compliant cache index at {}, its award numbers could not be read", file);
+                return null;
+            }
+
+            LongBuffer keys = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + stringsLength,
+                                          keyCount * Long.BYTES).asLongBuffer();
+            return new CompletedPublicationsIndex(keys, journalLength, journalLines, awardNumbers, others);
+        }
+    }
+
+    /**
+     * Writes a new index to a temporary file and moves it into place once it is complete. The numeric keys are
+     * the keys of the previous index merged with the new keys provided.
+     *
+     * @param file          the index file
+     * @param journalLength length of the compliant cache file the index matches
+     * @param journalLines  number of lines in the compliant cache file
+     * @param awardNumbers  the award numbers, in id order
+     * @param others        the entries that are not held as numbers
+     * @param previous      the index being replaced, null if there is none
+     * @param newKeys       keys that are not in the previous index, in ascending order
+     * @throws IOException if the index could not be written
+     */
+    static void write(File file, long journalLength, long journalLines, List<String> awardNumbers,
+                      Collection<String> others, CompletedPublicationsIndex previous, long[] newKeys)
+        throws IOException {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(strings)) {
+            writeStrings(out, awardNumbers);
+            writeStrings(out, others);
+        }
+        int previousCount = (previous != null ? previous.size() : 0);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalLength);
+            out.writeLong(journalLines);
+            out.writeLong(strings.size());
+            out.writeLong((long) previousCount + newKeys.length);
+            strings.writeTo(out);
+
+            int p = 0;
+            int n = 0;
+            while (p < previousCount || n < newKeys.length) {
+                if (n == newKeys.length || (p < previousCount && previous.keys.get(p) < newKeys[n])) {
+                    out.writeLong(previous.keys.get(p++));
+                } else {
+                    out.writeLong(newKeys[n++]);
+                }
+            }
+            out.flush();
+            fileOut.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param key the entry key
+     * @return true if the key is in the index
+     */
+    boolean contains(long key) {
+        int low = 0;
+        int high = keys.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = keys.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Passes each numeric key in the index to the consumer, in ascending order
+     *
+     * @param action the consumer
+     */
+    void forEach(LongConsumer action) {
+        for (int i = 0; i < keys.limit(); i++) {
+            action.accept(keys.get(i));
+        }
+    }
+
+    /**
+     * @return number of numeric keys in the index
+     */
+    int size() {
+        return keys.limit();
+    }
+
+    /**
+     * @return length of the compliant cache file when the index was written
+     */
+    long getJournalLength() {
+        return journalLength;
+    }
+
+    /**
+     * @return number of lines in the compliant cache file when the index was written
+     */
+    long getJournalLines() {
+        return journalLines;
+    }
+
+    /**
+     * @return the award numbers, in id order
+     */
+    List<String> getAwardNumbers() {
+        return awardNumbers;
+    }
+
+    /**
+     * @return the entries that are not held as numbers
+     */
+    List<String> getOthers() {
+        return others;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal behind {@link CompletedPublicationsCache}. Callers only queue lines, a single background
+ * thread writes them to the file. Lines are written together once enough are queued, and everything queued is
+ * written and synced to disk at a fixed interval. The same thread runs other background work for the cache, such
+ * as compaction.
+ */
+final class CompletedPublicationsJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompletedPublicationsJournal.class);
+
+    private final File file;
+
+    private final int commitSize;
+
+    private final long syncIntervalMillis;
+
+    private final ConcurrentLinkedQueue<String> queued = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queuedCount = new AtomicInteger();
+
+    /**
+     * True while a write of the queued lines has been requested but has not started
+     */
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+
+    /**
+     * Bytes taken off the queue that have not been written to the file yet. They are kept after a failed write so
+     * that the next write, or the next periodic sync, carries on from where it stopped.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+
+    /**
+     * Number of lines in the pending bytes
+     */
+    private int pendingLines = 0;
+
+    /**
+     * Number of lines in the file, including duplicates
+     */
+    private long lines = 0;
+
+    /**
+     * True when lines have been written to the file but not yet synced to disk
+     */
+    private boolean unsynced = false;
+
+    private FileChannel channel = null;
+
+    private final Object backgroundLock = new Object();
+
+    private volatile ScheduledExecutorService background = null;
+
+    /**
+     * @param file               the journal file
+     * @param commitSize         number of queued lines that triggers a write
+     * @param syncIntervalMillis interval at which queued lines are written and synced to disk
+     */
+    CompletedPublicationsJournal(File file, int commitSize, long syncIntervalMillis) {
+        this.file = file;
+        this.commitSize = Math.max(1, commitSize);
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+    }
+
+    /**
+     * Queues a line to be written. This does not wait for any file I/O.
+     *
+     * @param line the line, without the line break
+     */
+    void append(String line) {
+        queued.add(line);
+        if (queuedCount.incrementAndGet() >= commitSize && writeRequested.compareAndSet(false, true)) {
+            background().execute(this::writeInBackground);
+        } else {
+            background();
+        }
+    }
+
+    /**
+     * Writes all queued lines to the file and syncs it to disk
+     *
+     * @throws IOException if the file could not be written
+     */
+    synchronized void sync() throws IOException {
+        writeQueued();
+        if (unsynced && channel != null) {
+            channel.force(false);
+        }
+        unsynced = false;
+    }
+
+    /**
+     * Writes and syncs all queued lines and releases the file. It is reopened if more lines are written.
+     *
+     * @throws IOException if the file could not be written or closed
+     */
+    synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Drops the queued lines and releases the file, used when the file is about to be deleted or reloaded
+     *
+     * @throws IOException if the file could not be closed
+     */
+    synchronized void discard() throws IOException {
+        queued.clear();
+        queuedCount.set(0);
+        pending = ByteBuffer.allocate(0);
+        pendingLines = 0;
+        unsynced = false;
+        release();
+    }
+
+    /**
+     * @return number of lines in the file, including duplicates
+     */
+    synchronized long getLines() {
+        return lines;
+    }
+
+    /**
+     * @param lines number of lines in the file, after it has been read or rewritten
+     */
+    synchronized void setLines(long lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Runs a task on the background thread
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        background().execute(task);
+    }
+
+    private void writeQueued() throws IOException {
+        writeRequested.set(false);
+        StringBuilder buffer = new StringBuilder();
+        int count = 0;
+        String line;
+        while ((line = queued.poll()) != null) {
+            buffer.append(line).append('\n');
+            count = count + 1;
+        }
+        if (count > 0) {
+            queuedCount.addAndGet(-count);
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            pending = ByteBuffer.allocate(pending.remaining() + bytes.length).put(pending).put(bytes);
+            pending.flip();
+            pendingLines = pendingLines + count;
+        }
+        if (!pending.hasRemaining()) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.APPEND);
+            }
+            // only the bytes actually written are taken off the pending buffer
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+        } catch (IOException ex) {
+            try {
+                release();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+        lines = lines + pendingLines;
+        pendingLines = 0;
+        unsynced = true;
+    }
+
+    private void release() throws IOException {
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    private synchronized void writeInBackground() {
+        try {
+            writeQueued();
+        } catch (IOException ex) {
+            LOG.warn("Could not write {} lines to the compliant cache at {}, they will be retried at the next sync",
+                     pendingLines, file, ex);
+        }
+    }
+
+    private synchronized void syncInBackground() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            LOG.warn("Could not write {} lines to the compliant cache at {}, they will be retried at the next sync",
+                     pendingLines, file, ex);
+        }
+    }
+
+    /**
+     * Gets the background thread, starting it and the periodic sync the first time it is needed
+     *
+     * @return the background thread
+     */
+    private ScheduledExecutorService background() {
+        ScheduledExecutorService current = background;
+        if (current != null) {
+            return current;
+        }
+        // not the journal lock, which is held while writing
+        synchronized (backgroundLock) {
+            if (background == null) {
+                ScheduledExecutorService started = Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "compliant-cache-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                started.scheduleWithFixedDelay(this::syncInBackground, syncIntervalMillis, syncIntervalMillis,
+                                               TimeUnit.MILLISECONDS);
+                background = started;
+            }
+            return background;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Set of longs stored in a single open-addressing array, so adding and checking keys does not allocate. Zero is
+ * used to mark empty slots and cannot be added.
+ */
+final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table;
+
+    private int mask;
+
+    private int size = 0;
+
+    /**
+     * @param expectedSize number of keys the set is expected to hold before it needs to grow
+     */
+    LongHashSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Adds a key to the set
+     *
+     * @param key the key, must not be 0
+     * @return true if the key was not already in the set
+     */
+    boolean add(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("0 cannot be added to the set");
+        }
+        int slot = slot(key);
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        size = size + 1;
+        if (size * 4L > table.length * 3L) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key is in the set
+     */
+    boolean contains(long key) {
+        if (key == 0) {
+            return false;
+        }
+        int slot = slot(key);
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of keys in the set
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys and releases the space they took
+     */
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Passes each key in the set to the consumer, in no particular order
+     *
+     * @param action the consumer
+     */
+    void forEach(LongConsumer action) {
+        for (long key : table) {
+            if (key != 0) {
+                action.accept(key);
+            }
+        }
+    }
+
+    /**
+     * @return the keys in the set, in no particular order
+     */
+    long[] toArray() {
+        long[] keys = new long[size];
+        int i = 0;
+        for (long key : table) {
+            if (key != 0) {
+                keys[i++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        allocate(capacity);
+        for (long key : old) {
+            if (key != 0) {
+                int slot = slot(key);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = key;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3L < expectedSize * 4L) {
+            capacity = capacity * 2;
+        }
+        return capacity;
+    }
+
+}
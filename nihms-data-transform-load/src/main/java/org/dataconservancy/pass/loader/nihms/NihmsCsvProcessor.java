@@ -18,12 +18,25 @@ package org.dataconservancy.pass.loader.nihms;
 import static org.dataconservancy.pass.loader.nihms.util.ProcessingUtil.nullOrEmpty;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import org.apache.commons.csv.CSVFormat;
@@ -81,15 +94,52 @@ public class NihmsCsvProcessor {
         EXPECTED_HEADERS.put(ARTICLETITLE_COLNUM, ARTICLETITLE_HEADING);
     }
 
+    /**
+     * Number of rows each worker may have waiting in the queue when processing in parallel. Keeps the reader
+     * from racing too far ahead of the workers on a large file
+     */
+    private static final int QUEUE_DEPTH_PER_WORKER = 4;
+
+    /**
+     * How long the reader waits for room on the queue before checking that the workers are still running
+     */
+    private static final long WORKER_CHECK_MILLIS = 1000;
+
+    /**
+     * Number of lock stripes per worker used to serialize records that share a PMID or award number
+     */
+    private static final int LOCK_STRIPES_PER_WORKER = 8;
+
+    /**
+     * Number of lock stripes used when each record is given its own task
+     */
+    private static final int PER_RECORD_LOCK_STRIPES = 1024;
+
+    /**
+     * Placed on the queue once per worker to signal that there are no more rows
+     */
+    private static final RowTask END_OF_ROWS = new RowTask(0, null);
+
     /**
      * Counter for number of records processed so far
      */
-    private int recCount = 0;
+    private final AtomicInteger recCount = new AtomicInteger();
 
     /**
      * Counter for number of records that failed so far
      */
-    private int failCount = 0;
+    private final AtomicInteger failCount = new AtomicInteger();
+
+    /**
+     * Lock stripes used to keep records that share a PMID or award number from being processed at the same time.
+     * Only populated when processing in parallel, or when the stripes are shared with other processors.
+     */
+    private ReentrantLock[] recordLocks = null;
+
+    /**
+     * Lock stripes shared with other processors, used instead of this processor's own when set
+     */
+    private ReentrantLock[] sharedRecordLocks = null;
 
     /**
      * Path to NIHMS CSV to read in
@@ -101,11 +151,31 @@ public class NihmsCsvProcessor {
      */
     private NihmsStatus status = null;
 
+    /**
+     * Content of the CSV when it is read from a stream rather than from the file at {@code filePath}
+     */
+    private InputStream csvStream = null;
+
     public NihmsCsvProcessor(Path filePath, NihmsStatus status) {
         this.filePath = filePath;
         this.status = status;
     }
 
+    /**
+     * Reads the CSV from a stream, for example while it is still being downloaded. A stream can only be read once,
+     * so only one of the {@code processCsv} or {@code scanCsv} methods may be called. The stream is closed once it
+     * has been read.
+     *
+     * @param csvStream the content of the CSV
+     * @param filePath  the file the CSV is being saved to, only used in log messages
+     * @param status    the status of the publications in the CSV
+     */
+    public NihmsCsvProcessor(InputStream csvStream, Path filePath, NihmsStatus status) {
+        this.csvStream = csvStream;
+        this.filePath = filePath;
+        this.status = status;
+    }
+
     /**
      * Cycles through the CSV that is loaded, converting to a NihmsPublication, and then
      * using the consumer provided to process the record
@@ -113,10 +183,101 @@ public class NihmsCsvProcessor {
      * @param pubConsumer the consumer
      */
     public void processCsv(Consumer<NihmsPublication> pubConsumer) {
+        processCsv(pubConsumer, 1);
+    }
+
+    /**
+     * Cycles through the CSV that is loaded, converting each row to a NihmsPublication. When {@code workers} is
+     * greater than 1, rows are placed on a bounded queue that is drained by that number of worker threads, each of
+     * which passes the record to the consumer provided. Records that share a PMID or award number are never
+     * consumed at the same time, this avoids most of the update conflicts that would otherwise occur when two
+     * workers modify the same Publication or Submission. The consumer must be thread safe when {@code workers} is
+     * greater than 1.
+     *
+     * @param pubConsumer the consumer
+     * @param workers     number of worker threads, 1 or less processes the rows on the calling thread
+     */
+    public void processCsv(Consumer<NihmsPublication> pubConsumer, int workers) {
+        readCsv(csvRecords -> {
+            if (workers > 1) {
+                consumeRowsInParallel(csvRecords, pubConsumer, workers);
+            } else {
+                // rows are only locked if another processor may be consuming records at the same time
+                recordLocks = sharedRecordLocks;
+                csvRecords.forEachRemaining(row -> consumeRow(toRowTask(row), pubConsumer));
+            }
+        });
+    }
 
-        try (BufferedReader br = Files.newBufferedReader(filePath)) {
+    /**
+     * Cycles through the CSV that is loaded, converting each row to a NihmsPublication and submitting a task for
+     * each record to the executor provided. This is intended for an executor that starts a new (virtual) thread
+     * per task, so the only limit on concurrency is {@code maxInFlight}. Once that many records are in progress,
+     * reading pauses until one completes. As with {@link #processCsv(Consumer, int)}, records that share a PMID or
+     * award number are never consumed at the same time. Returns once every record has been consumed; the executor
+     * is not shut down.
+     *
+     * @param pubConsumer    the consumer, must be thread safe
+     * @param recordExecutor the executor that will run the task for each record
+     * @param maxInFlight    maximum number of records being consumed at any one time
+     */
+    public void processCsv(Consumer<NihmsPublication> pubConsumer, ExecutorService recordExecutor, int maxInFlight) {
+        readCsv(csvRecords -> consumeRowsPerRecord(csvRecords, pubConsumer, recordExecutor, maxInFlight));
+    }
+
+    /**
+     * Reads through the CSV converting each row to a NihmsPublication and passing it to the consumer provided,
+     * without counting or logging the rows. This allows a quick first pass over a file, for example to collect
+     * the PMIDs it contains, before it is processed. Rows that cannot be converted are skipped, they will be
+     * reported when the file is processed.
+     *
+     * @param pubConsumer the consumer
+     */
+    public void scanCsv(Consumer<NihmsPublication> pubConsumer) {
+        parseCsv(csvRecords -> csvRecords.forEachRemaining(row -> {
+            if (nullOrEmpty(row.get(PMID_COLNUM))) {
+                return;
+            }
+            NihmsPublication pub;
+            try {
+                pub = new NihmsPublication(status, row.get(PMID_COLNUM), row.get(GRANTID_COLNUM),
+                                           row.get(NIHMSID_COLNUM), row.get(PMCID_COLNUM),
+                                           row.get(FILEDEPOSIT_COLNUM), row.get(INITIALAPPROVAL_COLNUM),
+                                           row.get(TAGGINGCOMPLETE_COLNUM), row.get(FINALAPPROVAL_COLNUM),
+                                           row.get(ARTICLETITLE_COLNUM));
+            } catch (Exception ex) {
+                LOG.debug("Skipping csv row with pmid {} while scanning", row.get(PMID_COLNUM), ex);
+                return;
+            }
+            pubConsumer.accept(pub);
+        }));
+    }
+
+    /**
+     * Processes the rows of the CSV using the handler provided, logging the totals once complete
+     *
+     * @param rowsHandler the handler for the rows following the header
+     */
+    private void readCsv(RowsHandler rowsHandler) {
+
+        LOG.info("Starting to process file: {}", filePath);
 
-            LOG.info("Starting to process file: {}", filePath);
+        parseCsv(rowsHandler);
+
+        LOG.info("{} records were processed with {} failures.", recCount.get(), failCount.get());
+
+    }
+
+    /**
+     * Opens the CSV, validates the headers and passes the remaining rows to the handler provided
+     *
+     * @param rowsHandler the handler for the rows following the header
+     */
+    private void parseCsv(RowsHandler rowsHandler) {
+
+        try (BufferedReader br = (csvStream != null
+                                  ? new BufferedReader(new InputStreamReader(csvStream, StandardCharsets.UTF_8))
+                                  : Files.newBufferedReader(filePath))) {
 
             Iterator<CSVRecord> csvRecords = CSVFormat.DEFAULT.parse(br).iterator();
 
@@ -126,31 +287,186 @@ public class NihmsCsvProcessor {
                 throw new RuntimeException("The headers were not as expected, aborting import");
             }
 
-            csvRecords.forEachRemaining(row -> consumeRow(row, pubConsumer));
+            rowsHandler.handle(csvRecords);
 
         } catch (Exception e) {
             String msg = String.format("A problem occurred while processing the csv with path %s", filePath.toString());
             throw new RuntimeException(msg, e);
         }
 
-        LOG.info("{} records were processed with {} failures.", recCount, failCount);
-
     }
 
     /**
-     * Converts Row to a NihmsPublication object and passes it the consumer provided
+     * Reads rows onto a bounded queue while a fixed pool of workers take them off and consume them. Returns once
+     * every row has been consumed.
      *
-     * @param row         the row
+     * @param csvRecords  the remaining rows of the CSV
      * @param pubConsumer the row consumer
+     * @param workers     number of worker threads
+     * @throws Exception if reading the CSV fails or the workers could not be completed
+     */
+    private void consumeRowsInParallel(Iterator<CSVRecord> csvRecords, Consumer<NihmsPublication> pubConsumer,
+                                       int workers) throws Exception {
+        LOG.info("Processing rows using {} workers", workers);
+        initRecordLocks(workers * LOCK_STRIPES_PER_WORKER);
+
+        BlockingQueue<RowTask> queue = new ArrayBlockingQueue<RowTask>(workers * QUEUE_DEPTH_PER_WORKER);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        Future<?>[] futures = new Future<?>[workers];
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures[i] = executor.submit(() -> {
+                    try {
+                        RowTask task = queue.take();
+                        while (task != END_OF_ROWS) {
+                            consumeRow(task, pubConsumer);
+                            task = queue.take();
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            try {
+                while (csvRecords.hasNext()) {
+                    RowTask task = toRowTask(csvRecords.next());
+                    if (task != null) {
+                        putRow(queue, task, futures);
+                    }
+                }
+            } finally {
+                // workers must always be told to stop, even if reading failed part way through the file. Workers
+                // that have already stopped will not take theirs, so give up once none are left to take them.
+                for (int i = 0; i < workers; i++) {
+                    while (!queue.offer(END_OF_ROWS, WORKER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (allDone(futures)) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Places a row on the queue, checking that the workers are still running whenever the queue stays full. A worker
+     * that has stopped, for example because consuming a row threw an Error, fails the file rather than leaving the
+     * reader waiting forever for room on the queue.
+     *
+     * @throws Exception if a worker has stopped, with the reason it stopped if there was one
+     */
+    private static void putRow(BlockingQueue<RowTask> queue, RowTask task, Future<?>[] futures) throws Exception {
+        while (!queue.offer(task, WORKER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            for (Future<?> future : futures) {
+                if (future.isDone()) {
+                    future.get();
+                    throw new IllegalStateException("A worker stopped before all of the rows were processed");
+                }
+            }
+        }
+    }
+
+    private static boolean allDone(Future<?>[] futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Submits a task per row to the executor, pausing whenever {@code maxInFlight} records are in progress. Returns
+     * once every submitted record has been consumed.
+     *
+     * @param csvRecords     the remaining rows of the CSV
+     * @param pubConsumer    the row consumer
+     * @param recordExecutor the executor for the record tasks
+     * @param maxInFlight    maximum number of records in progress at once
+     * @throws Exception if reading the CSV fails or the thread is interrupted
+     */
+    private void consumeRowsPerRecord(Iterator<CSVRecord> csvRecords, Consumer<NihmsPublication> pubConsumer,
+                                      ExecutorService recordExecutor, int maxInFlight) throws Exception {
+        LOG.info("Processing rows as individual tasks with up to {} records in flight", maxInFlight);
+        initRecordLocks(PER_RECORD_LOCK_STRIPES);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            while (csvRecords.hasNext()) {
+                RowTask task = toRowTask(csvRecords.next());
+                if (task == null) {
+                    continue;
+                }
+                inFlight.acquire();
+                try {
+                    recordExecutor.execute(() -> {
+                        try {
+                            consumeRow(task, pubConsumer);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    inFlight.release();
+                    throw ex;
+                }
+            }
+        } finally {
+            // wait for everything that was started to finish, even if reading failed part way through the file
+            inFlight.acquireUninterruptibly(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+    }
+
+    /**
+     * Shares lock stripes between processors that consume rows at the same time, so that records in different CSVs
+     * that share a PMID or award number are not processed at the same time either.
+     *
+     * @param recordLocks the lock stripes, created by {@link #newRecordLocks()}
      */
-    private void consumeRow(CSVRecord row, Consumer<NihmsPublication> pubConsumer) {
+    public void setRecordLocks(ReentrantLock[] recordLocks) {
+        this.sharedRecordLocks = recordLocks;
+    }
+
+    /**
+     * @return a new set of lock stripes to share between processors
+     */
+    public static ReentrantLock[] newRecordLocks() {
+        return newRecordLocks(PER_RECORD_LOCK_STRIPES);
+    }
+
+    private void initRecordLocks(int stripes) {
+        recordLocks = (sharedRecordLocks != null ? sharedRecordLocks : newRecordLocks(stripes));
+    }
+
+    private static ReentrantLock[] newRecordLocks(int stripes) {
+        ReentrantLock[] locks = new ReentrantLock[stripes];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * Converts Row to a NihmsPublication and assigns it the next row number
+     *
+     * @param row the row
+     * @return the task, or {@code null} if the row is not a valid row
+     */
+    private RowTask toRowTask(CSVRecord row) {
         if (row == null) {
-            return;
+            return null;
         }
         if (nullOrEmpty(row.get(PMID_COLNUM))) {
-            return;
+            return null;
         } //not a valid row
-        recCount = recCount + 1;
+        int rowNum = recCount.incrementAndGet();
         NihmsPublication pub = null;
         try {
             pub = new NihmsPublication(status, row.get(PMID_COLNUM), row.get(GRANTID_COLNUM), row.get(NIHMSID_COLNUM),
@@ -158,19 +474,87 @@ public class NihmsCsvProcessor {
                                        row.get(INITIALAPPROVAL_COLNUM),
                                        row.get(TAGGINGCOMPLETE_COLNUM), row.get(FINALAPPROVAL_COLNUM),
                                        row.get(ARTICLETITLE_COLNUM));
+        } catch (Exception ex) {
+            failCount.incrementAndGet();
+            LOG.error(
+                "A problem occurred while reading csv row {} with pmid {}. The record was not imported " +
+                "successfully.", rowNum + 1, row.get(PMID_COLNUM), ex);
+            return null;
+        }
+        return new RowTask(rowNum, pub);
+    }
 
+    /**
+     * Passes the NihmsPublication to the consumer provided, tallying any failures
+     *
+     * @param task        the row number and publication
+     * @param pubConsumer the row consumer
+     */
+    private void consumeRow(RowTask task, Consumer<NihmsPublication> pubConsumer) {
+        if (task == null) {
+            return;
+        }
+        NihmsPublication pub = task.pub;
+        ReentrantLock[] locks = locksFor(pub);
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
             LOG.info("NIHMS record pmid={} is being processed", pub.getPmid());
             pubConsumer.accept(pub);
             LOG.info("NIHMS record pmid={} was processed successfully", pub.getPmid());
         } catch (Exception ex) {
-            failCount = failCount + 1;
+            failCount.incrementAndGet();
             LOG.error(
                 "A problem occurred while processing csv row {} with pmid {}. The record was not imported " +
                 "successfully.",
-                recCount + 1, pub.getPmid(), ex);
+                task.rowNum + 1, pub.getPmid(), ex);
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
         }
     }
 
+    /**
+     * Selects the lock stripes for the PMID and award number of a publication. Stripes are always returned in
+     * ascending order so that two workers can never wait on each other's locks.
+     *
+     * @param pub the publication
+     * @return the locks to hold while the publication is consumed, empty if processing sequentially on its own
+     */
+    private ReentrantLock[] locksFor(NihmsPublication pub) {
+        if (recordLocks == null) {
+            return new ReentrantLock[0];
+        }
+        int pmidStripe = stripe(pub.getPmid());
+        int awardStripe = stripe(pub.getGrantNumber());
+        if (pmidStripe == awardStripe) {
+            return new ReentrantLock[] {recordLocks[pmidStripe]};
+        }
+        return new ReentrantLock[] {recordLocks[Math.min(pmidStripe, awardStripe)],
+                                    recordLocks[Math.max(pmidStripe, awardStripe)]};
+    }
+
+    private int stripe(String key) {
+        int hash = (key == null ? 0 : key.trim().toLowerCase().hashCode());
+        return Math.floorMod(hash ^ (hash >>> 16), recordLocks.length);
+    }
+
+    /**
+     * @return number of records read from the CSV so far
+     */
+    public int getRecordCount() {
+        return recCount.get();
+    }
+
+    /**
+     * @return number of records that failed so far
+     */
+    public int getFailCount() {
+        return failCount.get();
+    }
+
     /**
      * Validates that the headers in the spreadsheet match what is expected before retrieving data from them
      * This will go through all headers even if the first one is not valid so that all issues with headers are
@@ -214,4 +598,27 @@ public class NihmsCsvProcessor {
             "according to the Submission status.");
     }
 
+    /**
+     * Handles the rows of a CSV once the headers have been validated
+     */
+    @FunctionalInterface
+    private interface RowsHandler {
+        void handle(Iterator<CSVRecord> csvRecords) throws Exception;
+    }
+
+    /**
+     * A NihmsPublication along with the number of the row it was read from
+     */
+    private static class RowTask {
+
+        private final int rowNum;
+
+        private final NihmsPublication pub;
+
+        RowTask(int rowNum, NihmsPublication pub) {
+            this.rowNum = rowNum;
+            this.pub = pub;
+        }
+    }
+
 }
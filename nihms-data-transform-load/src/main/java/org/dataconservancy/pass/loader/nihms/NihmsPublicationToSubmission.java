@@ -382,8 +382,10 @@ public class NihmsPublicationToSubmission {
             //if there is only one repo, can calculate status here, will be checked again later using database
             SubmissionStatus newStatus = calculatePostSubmissionStatus(submission.getRepositories(), null,
                                                                        Arrays.asList(repoCopy));
-            submission.setSubmissionStatus(newStatus);
-            submissionDTO.setUpdateSubmission(true);
+            if (newStatus != submission.getSubmissionStatus()) {
+                submission.setSubmissionStatus(newStatus);
+                submissionDTO.setUpdateSubmission(true);
+            }
         }
 
         // finally, make sure grant is in the list of the chosen submission
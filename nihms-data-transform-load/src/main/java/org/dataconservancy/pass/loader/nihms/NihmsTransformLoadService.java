@@ -18,19 +18,36 @@ package org.dataconservancy.pass.loader.nihms;
 import static org.dataconservancy.pass.loader.nihms.util.ProcessingUtil.nullOrEmpty;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.dataconservancy.pass.client.SubmissionStatusService;
 import org.dataconservancy.pass.client.fedora.UpdateConflictException;
 import org.dataconservancy.pass.client.nihms.NihmsPassClientService;
+import org.dataconservancy.pass.entrez.EntrezRecordCache;
+import org.dataconservancy.pass.entrez.LatencyHistogram;
 import org.dataconservancy.pass.entrez.PmidLookup;
 import org.dataconservancy.pass.loader.nihms.model.NihmsPublication;
 import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
+import org.dataconservancy.pass.loader.nihms.util.ConfigUtil;
 import org.dataconservancy.pass.loader.nihms.util.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +62,71 @@ public class NihmsTransformLoadService {
 
     private static Logger LOG = LoggerFactory.getLogger(NihmsTransformLoadService.class);
 
+    private static final String LOADER_THREADS_KEY = "nihmsetl.loader.threads";
+
+    private static final String LOADER_THREADS_DEFAULT = "1";
+
+    private static final String MAX_IN_FLIGHT_KEY = "nihmsetl.loader.max-in-flight";
+
+    private static final String MAX_IN_FLIGHT_DEFAULT = "1000";
+
+    private static final String FEDORA_MAX_REQUESTS_KEY = "nihmsetl.loader.fedora.max-concurrent-requests";
+
+    private static final String FEDORA_MAX_REQUESTS_DEFAULT = "32";
+
+    private static final String ENTREZ_MAX_REQUESTS_KEY = "entrez.max-concurrent-requests";
+
+    private static final String ENTREZ_MAX_REQUESTS_DEFAULT = "3";
+
+    private static final String ENTREZ_PREFETCH_KEY = "nihmsetl.loader.entrez.prefetch";
+
+    private static final String ENTREZ_PREFETCH_DEFAULT = "false";
+
+    private static final String GRANT_PREFETCH_KEY = "nihmsetl.loader.grant.prefetch";
+
+    private static final String GRANT_PREFETCH_DEFAULT = "false";
+
+    private static final String ID_SNAPSHOT_ENABLED_KEY = "nihmsetl.loader.cache.snapshot.enabled";
+
+    private static final String ID_SNAPSHOT_ENABLED_DEFAULT = "false";
+
+    private static final String ID_SNAPSHOT_PATH_KEY = "nihmsetl.loader.cache.snapshot.path";
+
+    private static final String ID_SNAPSHOT_FILE_DEFAULT = "id-cache.snapshot";
+
+    private static final String ID_SNAPSHOT_MAX_AGE_HOURS_KEY = "nihmsetl.loader.cache.snapshot.max-age-hours";
+
+    private static final String ID_SNAPSHOT_MAX_AGE_HOURS_DEFAULT = "48";
+
+    private static final String SKIP_PROCESSED_FILES_KEY = "nihmsetl.loader.skip-processed-files";
+
+    private static final String SKIP_PROCESSED_FILES_DEFAULT = "false";
+
+    /**
+     * Record of the SHA-256 hashes of the files processed so far, kept in the cache folder
+     */
+    private static final String PROCESSED_FILES_DEFAULT = "processed-files.sha256";
+
+    private static final String PRELOAD_KEY = "nihmsetl.loader.preload";
+
+    private static final String PRELOAD_DEFAULT = "false";
+
+    private static final String PRELOAD_PAGE_SIZE_KEY = "nihmsetl.loader.preload.page-size";
+
+    private static final String PRELOAD_PAGE_SIZE_DEFAULT = "200";
+
+    private static final String ENTREZ_CACHEPATH_KEY = "nihmsetl.loader.entrez.cachepath";
+
+    private static final String ENTREZ_CACHEFILE_DEFAULT = "entrez-cache.data";
+
+    private static final String ENTREZ_CACHE_TTL_DAYS_KEY = "nihmsetl.loader.entrez.cache.ttl-days";
+
+    private static final String ENTREZ_CACHE_TTL_DAYS_DEFAULT = "30";
+
+    private static final String ENTREZ_CACHE_MAX_ENTRIES_KEY = "nihmsetl.loader.entrez.cache.max-entries";
+
+    private static final String ENTREZ_CACHE_MAX_ENTRIES_DEFAULT = "0";
+
     private NihmsPassClientService nihmsPassClient;
 
     private PmidLookup pmidLookup;
@@ -53,11 +135,54 @@ public class NihmsTransformLoadService {
 
     private SubmissionStatusService statusService;
 
+    /**
+     * Number of worker threads used to transform and load the rows of each file. When this is 1, rows are processed
+     * one at a time on the calling thread
+     */
+    private int workerCount;
+
+    /**
+     * When true, each row is transformed and loaded on its own virtual thread, see {@link #setVirtualThreads(boolean)}
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Runs the task for each record in virtual thread mode, only set while a load is running
+     */
+    private ExecutorService recordExecutor;
+
+    /**
+     * File the ids found in PASS are saved to, only set while a load is running
+     */
+    private File idSnapshot;
+
+    /**
+     * Record of the files processed so far, only set while a load is running
+     */
+    private File processedFiles;
+
+    /**
+     * Hashes of the files processed so far, only set while a load is running
+     */
+    private Set<String> processedChecksums;
+
+    /**
+     * Lock stripes shared by the streams loaded at the same time, only set while a load is running
+     */
+    private ReentrantLock[] streamRecordLocks;
+
+    /**
+     * Number of streams loaded by {@link #transformAndLoadStreams(Runnable)}
+     */
+    private final AtomicInteger streamCount = new AtomicInteger();
+
     public NihmsTransformLoadService() {
         nihmsPassClient = new NihmsPassClientService();
         pmidLookup = new PmidLookup();
         statusService = new SubmissionStatusService();
         completedPubsCache = CompletedPublicationsCache.getInstance();
+        pmidLookup.setRecordCache(newEntrezRecordCache());
+        workerCount = intProperty(LOADER_THREADS_KEY, LOADER_THREADS_DEFAULT);
     }
 
     /**
@@ -73,6 +198,7 @@ public class NihmsTransformLoadService {
         this.pmidLookup = pmidLookup;
         this.statusService = statusService;
         completedPubsCache = CompletedPublicationsCache.getInstance();
+        workerCount = intProperty(LOADER_THREADS_KEY, LOADER_THREADS_DEFAULT);
     }
 
     /**
@@ -93,16 +219,42 @@ public class NihmsTransformLoadService {
 
         List<Path> filepaths = loadFiles(dataDirectory);
 
-        Consumer<NihmsPublication> pubConsumer = pub -> transformAndLoadNihmsPub(pub);
         int count = 0;
-        for (Path path : filepaths) {
-            NihmsStatus nihmsStatus = nihmsStatus(path);
-            if (statusesToProcess.contains(nihmsStatus)) {
-                NihmsCsvProcessor processor = new NihmsCsvProcessor(path, nihmsStatus);
-                processor.processCsv(pubConsumer);
-                FileUtil.renameToDone(path);
-                count = count + 1;
+        boolean prefetch = Boolean.parseBoolean(ConfigUtil.getSystemProperty(ENTREZ_PREFETCH_KEY,
+                                                                              ENTREZ_PREFETCH_DEFAULT));
+        try {
+            startLoad();
+            if (Boolean.parseBoolean(ConfigUtil.getSystemProperty(GRANT_PREFETCH_KEY, GRANT_PREFETCH_DEFAULT))) {
+                prefetchGrants(filepaths, statusesToProcess);
+            }
+            for (Path path : filepaths) {
+                NihmsStatus nihmsStatus = nihmsStatus(path);
+                if (statusesToProcess.contains(nihmsStatus)) {
+                    String checksum = (processedFiles != null ? FileUtil.readChecksum(path) : null);
+                    if (checksum != null && isProcessed(path, checksum, processedChecksums)) {
+                        LOG.info("Skipping {}, it is identical to a file that was already processed", path);
+                        FileUtil.renameToDone(path);
+                        continue;
+                    }
+                    NihmsCsvProcessor processor = new NihmsCsvProcessor(path, nihmsStatus);
+                    try {
+                        if (prefetch) {
+                            prefetchPubMedRecords(processor);
+                        }
+                        processCsv(processor);
+                    } finally {
+                        pmidLookup.clearPrefetched();
+                    }
+                    FileUtil.renameToDone(path);
+                    if (checksum != null) {
+                        recordProcessedChecksum(processedFiles, checksum, path);
+                        processedChecksums.add(checksum);
+                    }
+                    count = count + 1;
+                }
             }
+        } finally {
+            finishLoad();
         }
         if (count > 0) {
             LOG.info("Transform and load complete. Processed {} files", count);
@@ -111,6 +263,100 @@ public class NihmsTransformLoadService {
         }
     }
 
+    /**
+     * Runs a load in which the CSVs are read while they are being downloaded rather than from the data directory.
+     * The caches are set up before {@code harvest} is run and saved once it returns, in the same way as for
+     * {@link #transformAndLoadFiles(Set)}. {@code harvest} is expected to pass each CSV to
+     * {@link #transformAndLoadStream(NihmsStatus, Path, InputStream)} as it arrives, and to return once they have
+     * all been loaded.
+     *
+     * @param harvest downloads the CSVs and passes them to this service
+     */
+    public void transformAndLoadStreams(Runnable harvest) {
+        try {
+            startLoad();
+            streamRecordLocks = NihmsCsvProcessor.newRecordLocks();
+            harvest.run();
+        } finally {
+            streamRecordLocks = null;
+            finishLoad();
+        }
+        LOG.info("Transform and load complete. Processed {} downloads", streamCount.get());
+    }
+
+    /**
+     * Transforms and loads the rows of a CSV while it is being downloaded, during
+     * {@link #transformAndLoadStreams(Runnable)}. Once the stream ends, the file it was saved to is renamed to
+     * {@code .done} in the same way as a file read from the data directory. If the stream fails part way through,
+     * the rows read before the failure will already have been loaded, and the file, if the download completed, is
+     * left in the data directory to be processed by a later run. PubMed records are not
+     * prefetched since the CSV can only be read once. Streams are loaded at the same time, each by its own workers,
+     * and records in different streams that share a PMID or award number are kept from being processed at the same
+     * time.
+     *
+     * @param status status of the publications in the CSV
+     * @param path   the file the CSV is being saved to, which must be in place once the stream ends
+     * @param csv    the content of the CSV
+     */
+    public void transformAndLoadStream(NihmsStatus status, Path path, InputStream csv) {
+        NihmsCsvProcessor processor = new NihmsCsvProcessor(csv, path, status);
+        processor.setRecordLocks(streamRecordLocks);
+        processCsv(processor);
+        String checksum = (processedFiles != null ? FileUtil.readChecksum(path) : null);
+        FileUtil.renameToDone(path);
+        if (checksum != null) {
+            recordProcessedChecksum(processedFiles, checksum, path);
+            processedChecksums.add(checksum);
+        }
+        streamCount.incrementAndGet();
+    }
+
+    /**
+     * Sets up the thread mode and the caches before any CSV is processed
+     */
+    private void startLoad() {
+        recordExecutor = (virtualThreads ? startVirtualThreadMode() : null);
+        idSnapshot = idCacheSnapshotFile();
+        processedFiles = processedFilesRecord();
+        processedChecksums = readProcessedChecksums(processedFiles);
+        if (idSnapshot != null) {
+            loadIdCacheSnapshot(idSnapshot);
+        }
+        if (Boolean.parseBoolean(ConfigUtil.getSystemProperty(PRELOAD_KEY, PRELOAD_DEFAULT))) {
+            preloadNihmsRecords();
+        }
+    }
+
+    /**
+     * Stops the record executor and saves the caches once all CSVs have been processed, or the load has failed
+     */
+    private void finishLoad() {
+        if (recordExecutor != null) {
+            recordExecutor.shutdown();
+            recordExecutor = null;
+        }
+        if (idSnapshot != null) {
+            saveIdCacheSnapshot(idSnapshot);
+            idSnapshot = null;
+        }
+        nihmsPassClient.logCacheStats();
+        finishEntrezLookups();
+        completedPubsCache.close();
+    }
+
+    /**
+     * Passes each row of the CSV to {@link #transformAndLoadNihmsPub(NihmsPublication)} using the configured
+     * thread mode
+     */
+    private void processCsv(NihmsCsvProcessor processor) {
+        Consumer<NihmsPublication> pubConsumer = pub -> transformAndLoadNihmsPub(pub);
+        if (recordExecutor != null) {
+            processor.processCsv(pubConsumer, recordExecutor, intProperty(MAX_IN_FLIGHT_KEY, MAX_IN_FLIGHT_DEFAULT));
+        } else {
+            processor.processCsv(pubConsumer, workerCount);
+        }
+    }
+
     /**
      * Takes pub record from CSV loader, transforms it then passes transformed record to the
      * loader. Exceptions generally should not be caught here, they should be caught by CSV processor which
@@ -125,8 +371,7 @@ public class NihmsTransformLoadService {
         int attempt = 0;
 
         // if the record is compliant, let's check the cache to see if it has been processed previously
-        if (pub.getNihmsStatus().equals(NihmsStatus.COMPLIANT)
-            && completedPubsCache.contains(pub.getPmid(), pub.getGrantNumber())) {
+        if (isCompletedInPreviousLoad(pub)) {
             LOG.info(
                 "Compliant NIHMS record with pmid {} and award number \"{}\" has been processed in a previous load",
                 pub.getPmid(), pub.getGrantNumber());
@@ -168,6 +413,316 @@ public class NihmsTransformLoadService {
         }
     }
 
+    /**
+     * Reads through the CSV and retrieves the PubMed records for all of its PMIDs from Entrez in batches, so that
+     * the transform does not need to make a request to Entrez per row. Compliant records that were completed in a
+     * previous load are skipped since they will not be transformed. If the records cannot be retrieved, each row
+     * will fall back to looking up its own PMID.
+     *
+     * @param processor the processor for the CSV
+     */
+    private void prefetchPubMedRecords(NihmsCsvProcessor processor) {
+        Set<String> pmids = new HashSet<String>();
+        processor.scanCsv(pub -> {
+            if (!isCompletedInPreviousLoad(pub)) {
+                pmids.add(pub.getPmid());
+            }
+        });
+        if (pmids.isEmpty()) {
+            return;
+        }
+        try {
+            int found = pmidLookup.prefetch(pmids);
+            LOG.info("Prefetched {} PubMed records from Entrez for the {} PMIDs in the file", found, pmids.size());
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not prefetch PubMed records from Entrez, records will be retrieved as each row is " +
+                     "processed", ex);
+        }
+    }
+
+    /**
+     * Reads through all of the CSVs that will be processed and resolves the Grant for every award number in them
+     * before any row is transformed, so that the rows find their Grant in the cache rather than searching the index.
+     * Compliant records that were completed in a previous load are skipped. If the Grants cannot be resolved, each
+     * row will fall back to looking up its own award number.
+     *
+     * @param filepaths         the CSVs in the data directory
+     * @param statusesToProcess the statuses of the CSVs that will be processed
+     */
+    private void prefetchGrants(List<Path> filepaths, Set<NihmsStatus> statusesToProcess) {
+        List<String> awardNumbers = new ArrayList<String>();
+        for (Path path : filepaths) {
+            NihmsStatus nihmsStatus = nihmsStatus(path);
+            if (statusesToProcess.contains(nihmsStatus)) {
+                new NihmsCsvProcessor(path, nihmsStatus).scanCsv(pub -> {
+                    if (!isCompletedInPreviousLoad(pub)) {
+                        awardNumbers.add(pub.getGrantNumber());
+                    }
+                });
+            }
+        }
+        if (awardNumbers.isEmpty()) {
+            return;
+        }
+        try {
+            nihmsPassClient.prefetchGrantsByAwardNumber(awardNumbers, prefetchThreads());
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not prefetch Grants, Grants will be looked up as each row is processed", ex);
+        }
+    }
+
+    /**
+     * Loads the NIHMS records already in PASS into the caches before any CSV is processed, so that the rows are
+     * matched to existing records without searching the index. If the records cannot be loaded, each row will fall
+     * back to looking up its own records.
+     */
+    private void preloadNihmsRecords() {
+        try {
+            nihmsPassClient.preloadNihmsRecords(intProperty(PRELOAD_PAGE_SIZE_KEY, PRELOAD_PAGE_SIZE_DEFAULT),
+                                                prefetchThreads());
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not preload NIHMS records, records will be looked up as each row is processed", ex);
+        }
+    }
+
+    /**
+     * @return the record of the files processed so far, or null if files identical to ones already processed
+     * should not be skipped
+     */
+    private static File processedFilesRecord() {
+        if (!Boolean.parseBoolean(ConfigUtil.getSystemProperty(SKIP_PROCESSED_FILES_KEY,
+                                                               SKIP_PROCESSED_FILES_DEFAULT))) {
+            return null;
+        }
+        return new File(completedPubsCache.getCacheDirectory(), PROCESSED_FILES_DEFAULT);
+    }
+
+    /**
+     * Reads the hashes of the files processed so far. Lines that are not complete are ignored.
+     *
+     * @param record the record of processed files, may be null
+     * @return the hashes, empty if there is no record
+     */
+    private static Set<String> readProcessedChecksums(File record) {
+        Set<String> checksums = ConcurrentHashMap.newKeySet();
+        if (record == null || !record.isFile()) {
+            return checksums;
+        }
+        try (Stream<String> lines = Files.lines(record.toPath(), StandardCharsets.UTF_8)) {
+            lines.map(line -> line.split(" ", 2)[0])
+                 .filter(checksum -> checksum.matches("[0-9a-f]{64}"))
+                 .forEach(checksums::add);
+        } catch (IOException | UncheckedIOException ex) {
+            LOG.warn("Could not read the record of processed files at {}, all files will be processed", record, ex);
+        }
+        return checksums;
+    }
+
+    /**
+     * Checks whether a file is identical to one already processed. The hash in the manifest is only trusted once it
+     * has been checked against the contents of the file.
+     */
+    private static boolean isProcessed(Path path, String checksum, Set<String> processedChecksums) {
+        if (!processedChecksums.contains(checksum)) {
+            return false;
+        }
+        try {
+            return checksum.equals(FileUtil.checksum(path));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not calculate the hash of " + path, ex);
+        }
+    }
+
+    /**
+     * Adds a processed file to the record, so that an identical file is skipped in later runs. A failure is logged,
+     * the file will just be processed again if it is seen again.
+     */
+    private static synchronized void recordProcessedChecksum(File record, String checksum, Path path) {
+        String line = checksum + "  " + path.getFileName() + "\n";
+        try {
+            Files.write(record.toPath(), line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            LOG.warn("Could not add {} to the record of processed files at {}", path, record, ex);
+        }
+    }
+
+    /**
+     * @return the file the ids found in PASS are saved to between runs, or null if they should not be saved
+     */
+    private static File idCacheSnapshotFile() {
+        if (!Boolean.parseBoolean(ConfigUtil.getSystemProperty(ID_SNAPSHOT_ENABLED_KEY,
+                                                               ID_SNAPSHOT_ENABLED_DEFAULT))) {
+            return null;
+        }
+        File defaultPath = new File(completedPubsCache.getCacheDirectory(), ID_SNAPSHOT_FILE_DEFAULT);
+        return new File(ConfigUtil.getSystemProperty(ID_SNAPSHOT_PATH_KEY, defaultPath.getPath()));
+    }
+
+    /**
+     * Fills the id caches with the ids saved by the previous run, unless they are too old. If they cannot be loaded,
+     * the run starts with empty caches.
+     *
+     * @param file the snapshot file
+     */
+    private void loadIdCacheSnapshot(File file) {
+        long maxAgeHours = intProperty(ID_SNAPSHOT_MAX_AGE_HOURS_KEY, ID_SNAPSHOT_MAX_AGE_HOURS_DEFAULT);
+        try {
+            nihmsPassClient.loadCacheSnapshot(file, TimeUnit.HOURS.toMillis(maxAgeHours));
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not load the id cache snapshot, the run will start with empty caches", ex);
+        }
+    }
+
+    /**
+     * Saves the ids in the caches for the next run. A failure to save does not fail the run.
+     *
+     * @param file the snapshot file
+     */
+    private void saveIdCacheSnapshot(File file) {
+        try {
+            nihmsPassClient.saveCacheSnapshot(file);
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not save the id cache snapshot, the next run will start with empty caches", ex);
+        }
+    }
+
+    /**
+     * @return number of requests to PASS to run at the same time when prefetching
+     */
+    private int prefetchThreads() {
+        return (virtualThreads ? intProperty(FEDORA_MAX_REQUESTS_KEY, FEDORA_MAX_REQUESTS_DEFAULT) : workerCount);
+    }
+
+    /**
+     * @param pub the NihmsPublication object
+     * @return true if the record is compliant and was fully processed in a previous load
+     */
+    private boolean isCompletedInPreviousLoad(NihmsPublication pub) {
+        return pub.getNihmsStatus().equals(NihmsStatus.COMPLIANT)
+               && completedPubsCache.contains(pub.getPmid(), pub.getGrantNumber());
+    }
+
+    /**
+     * Releases the connections held for Entrez lookups. The service should not be used once closed.
+     */
+    public void close() {
+        pmidLookup.close();
+    }
+
+    /**
+     * @param workerCount number of worker threads used to transform and load the rows of each file, 1 or less
+     *                    processes rows one at a time
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * When set to true, each row is transformed and loaded on its own virtual thread instead of by a fixed pool of
+     * workers. The number of requests in flight to Fedora and to Entrez are capped separately, so thousands of
+     * records can be waiting on lookups at once without sizing a thread pool. Virtual threads require Java 21 or
+     * later; on earlier JVMs a platform thread pool sized to the Fedora request cap is used instead.
+     *
+     * @param virtualThreads true to use a virtual thread per record
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Applies the request caps for Fedora and Entrez and creates the executor that will run a task per record
+     *
+     * @return the record executor
+     */
+    private ExecutorService startVirtualThreadMode() {
+        int fedoraMaxRequests = intProperty(FEDORA_MAX_REQUESTS_KEY, FEDORA_MAX_REQUESTS_DEFAULT);
+        int entrezMaxRequests = intProperty(ENTREZ_MAX_REQUESTS_KEY, ENTREZ_MAX_REQUESTS_DEFAULT);
+        nihmsPassClient.setMaxConcurrentRequests(fedoraMaxRequests);
+        pmidLookup.setMaxConcurrentRequests(entrezMaxRequests);
+        LOG.info("Virtual thread mode: up to {} concurrent requests to PASS and {} to Entrez", fedoraMaxRequests,
+                 entrezMaxRequests);
+        return newVirtualThreadExecutor(fedoraMaxRequests);
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task. The project targets Java 11, so the
+     * factory method is looked up at runtime. If it is not available a fixed pool of platform threads is returned.
+     *
+     * @param fallbackThreads size of the platform thread pool to use if virtual threads are not available
+     * @return the executor
+     */
+    static ExecutorService newVirtualThreadExecutor(int fallbackThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOG.warn("Virtual threads are not available in this JVM ({}), records will be processed using a pool of " +
+                     "{} threads instead", System.getProperty("java.version"), fallbackThreads);
+            return Executors.newFixedThreadPool(fallbackThreads);
+        }
+    }
+
+    /**
+     * Opens the persistent cache of Entrez records. By default this is stored in the same folder as the cache of
+     * completed compliant records.
+     *
+     * @return the cache, or null if the maximum number of entries is set to 0 or less
+     */
+    private static EntrezRecordCache newEntrezRecordCache() {
+        String maxEntries = ConfigUtil.getSystemProperty(ENTREZ_CACHE_MAX_ENTRIES_KEY,
+                                                         ENTREZ_CACHE_MAX_ENTRIES_DEFAULT);
+        try {
+            if (Integer.parseInt(maxEntries.trim()) < 1) {
+                LOG.info("Entrez record cache is disabled");
+                return null;
+            }
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException(
+                String.format("The %s property must be a whole number but was \"%s\"", ENTREZ_CACHE_MAX_ENTRIES_KEY,
+                              maxEntries), ex);
+        }
+        File defaultPath = new File(completedPubsCache.getCacheDirectory(), ENTREZ_CACHEFILE_DEFAULT);
+        String cachePath = ConfigUtil.getSystemProperty(ENTREZ_CACHEPATH_KEY, defaultPath.getPath());
+        long ttlDays = intProperty(ENTREZ_CACHE_TTL_DAYS_KEY, ENTREZ_CACHE_TTL_DAYS_DEFAULT);
+        return new EntrezRecordCache(new File(cachePath), TimeUnit.DAYS.toMillis(ttlDays),
+                                     intProperty(ENTREZ_CACHE_MAX_ENTRIES_KEY, ENTREZ_CACHE_MAX_ENTRIES_DEFAULT));
+    }
+
+    /**
+     * Logs the Entrez request latencies and cache statistics for the run, and closes the Entrez record cache if
+     * there is one
+     */
+    private void finishEntrezLookups() {
+        LatencyHistogram latencies = pmidLookup.getLatencies();
+        if (latencies != null) {
+            LOG.info("Entrez requests: {}", latencies);
+        }
+        EntrezRecordCache recordCache = pmidLookup.getRecordCache();
+        if (recordCache != null) {
+            LOG.info("Entrez record cache: {} hits, {} misses, {} evictions, {} records cached",
+                     recordCache.getHitCount(), recordCache.getMissCount(), recordCache.getEvictionCount(),
+                     recordCache.size());
+            recordCache.close();
+        }
+    }
+
+    /**
+     * Reads a whole number property from the configuration
+     *
+     * @param key          the property key
+     * @param defaultValue the value to use if the property is not set
+     * @return the value, never less than 1
+     */
+    private static int intProperty(String key, String defaultValue) {
+        String value = ConfigUtil.getSystemProperty(key, defaultValue);
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException ex) {
+            throw new RuntimeException(
+                String.format("The %s property must be a whole number but was \"%s\"", key, value), ex);
+        }
+    }
+
     /**
      * Checks directory provided and attempts to load a list of files to process
      *
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Set of longs split into stripes, each a {@link LongHashSet} with its own lock, so that threads adding and
+ * checking different keys rarely wait for each other.
+ */
+final class StripedLongSet {
+
+    private static final int STRIPES = 16;
+
+    private final LongHashSet[] stripes = new LongHashSet[STRIPES];
+
+    /**
+     * @param expectedSize number of keys the set is expected to hold before it needs to grow
+     */
+    StripedLongSet(int expectedSize) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongHashSet(expectedSize / STRIPES);
+        }
+    }
+
+    /**
+     * Adds a key to the set
+     *
+     * @param key the key, must not be 0
+     * @return true if the key was not already in the set
+     */
+    boolean add(long key) {
+        LongHashSet stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.add(key);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key is in the set
+     */
+    boolean contains(long key) {
+        LongHashSet stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.contains(key);
+        }
+    }
+
+    /**
+     * @return number of keys in the set
+     */
+    int size() {
+        int size = 0;
+        for (LongHashSet stripe : stripes) {
+            synchronized (stripe) {
+                size = size + stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes all keys
+     */
+    void clear() {
+        for (LongHashSet stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Passes each key in the set to the consumer, in no particular order. Keys added while this runs may or may
+     * not be included.
+     *
+     * @param action the consumer
+     */
+    void forEach(LongConsumer action) {
+        for (LongHashSet stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(action);
+            }
+        }
+    }
+
+    /**
+     * @return the keys in the set, in no particular order
+     */
+    long[] toArray() {
+        long[][] parts = new long[STRIPES][];
+        int total = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (stripes[i]) {
+                parts[i] = stripes[i].toArray();
+            }
+            total = total + parts[i].length;
+        }
+        long[] keys = new long[total];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, keys, offset, part.length);
+            offset = offset + part.length;
+        }
+        return keys;
+    }
+
+    private LongHashSet stripe(long key) {
+        long hash = key * 0xC2B2AE3D27D4EB4FL;
+        return stripes[(int) (hash >>> 60) & (STRIPES - 1)];
+    }
+
+}
@@ -91,6 +91,7 @@ public class SubmissionLoader {
             clientService.updateSubmission(submission);
         }
 
+        boolean depositUpdated = false;
         RepositoryCopy repositoryCopy = dto.getRepositoryCopy();
         if (repositoryCopy != null) {
             URI repositoryCopyUri = repositoryCopy.getId();
@@ -107,7 +108,7 @@ public class SubmissionLoader {
             if (deposit != null && deposit.getRepositoryCopy() == null) {
                 deposit.setRepositoryCopy(repositoryCopyUri);
                 deposit.setDepositStatus(DepositStatus.ACCEPTED);
-                clientService.updateDeposit(deposit);
+                depositUpdated = clientService.updateDeposit(deposit);
             } else if (deposit != null && !deposit.getRepositoryCopy().equals(repositoryCopyUri)) {
                 //this shouldn't happen in principle, but if it does it should be checked.
                 LOG.warn(
@@ -121,7 +122,7 @@ public class SubmissionLoader {
 
         //before moving on do one last check to see if SubmissionStatus has been affected by the changes
         //if so, update status.
-        if (dto.doUpdate()) {
+        if (dto.doUpdate() || depositUpdated) {
             statusService.calculateAndUpdateSubmissionStatus(submissionUri);
         }
     }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the Bloom filter in front of the compliant cache
+ */
+public class BloomFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Check every entry added is reported as possibly present and that the false positive rate is close to the one
+     * the filter was sized for
+     */
+    @Test
+    public void testNoFalseNegativesAndFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int pmid = 1; pmid <= 10000; pmid++) {
+            filter.put(String.valueOf(pmid), "AB1 EI12345");
+        }
+        for (int pmid = 1; pmid <= 10000; pmid++) {
+            assertTrue(filter.mightContain(String.valueOf(pmid), "AB1 EI12345"));
+        }
+        int falsePositives = 0;
+        for (int pmid = 10001; pmid <= 20000; pmid++) {
+            if (filter.mightContain(String.valueOf(pmid), "AB1 EI12345")) {
+                falsePositives = falsePositives + 1;
+            }
+        }
+        assertTrue("Expected about 100 false positives but was " + falsePositives, falsePositives < 300);
+    }
+
+    /**
+     * Check an entry added as a single value matches the same entry checked as a PMID and award number
+     */
+    @Test
+    public void testPutLineMatchesPut() {
+        BloomFilter filter = new BloomFilter(100, 0.001);
+        filter.putLine(new StringBuilder("123456|AB1 EI12345"));
+        assertTrue(filter.mightContain("123456", "AB1 EI12345"));
+    }
+
+    /**
+     * Check a saved filter is read back with its settings, and that a damaged file is ignored
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = folder.newFile("filter.bloom");
+        BloomFilter filter = new BloomFilter(1000, 0.05);
+        filter.put("123456", "AB1 EI12345");
+        filter.save(file, 42);
+
+        BloomFilter loaded = BloomFilter.load(file);
+        assertNotNull(loaded);
+        assertEquals(42, loaded.getJournalLength());
+        assertEquals(1000, loaded.getExpectedEntries());
+        assertEquals(0.05, loaded.getFalsePositiveRate(), 0);
+        assertEquals(filter.getHashCount(), loaded.getHashCount());
+        assertTrue(loaded.mightContain("123456", "AB1 EI12345"));
+
+        FileUtils.writeByteArrayToFile(file, new byte[] {1, 2, 3});
+        assertNull(BloomFilter.load(file));
+    }
+
+}
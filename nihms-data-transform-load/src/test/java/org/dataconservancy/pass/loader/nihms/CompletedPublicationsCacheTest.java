@@ -20,14 +20,21 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.dataconservancy.pass.loader.nihms.util.FileUtil;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Tests CompletedPublicationsCache class
@@ -36,6 +43,9 @@ import org.junit.Test;
  */
 public class CompletedPublicationsCacheTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private static CompletedPublicationsCache completedPubsCache;
     private String cachepath;
 
@@ -123,9 +133,194 @@ public class CompletedPublicationsCacheTest {
         assertTrue(completedPubsCache.contains(pmid1, awardNum1));
         assertTrue(completedPubsCache.contains(pmid2, awardNum2));
 
+        completedPubsCache.flush();
         @SuppressWarnings("unchecked")
         List<String> processed = new ArrayList<String>(FileUtils.readLines(new File(cachepath)));
         assertEquals(2, processed.size());
     }
 
+    /**
+     * Makes sure a partially written line at the end of the cache file is dropped when the file is loaded, and that
+     * entries added afterwards start on a new line
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIncompleteLastLineTruncated() throws Exception {
+        File cacheFile = new File(cachepath);
+        FileUtils.writeStringToFile(cacheFile, "123456|AB1 EI12345\n987654|AB2 MF2", StandardCharsets.UTF_8);
+        completedPubsCache.loadFromFile();
+
+        assertTrue(completedPubsCache.contains("123456", "AB1 EI12345"));
+        assertFalse(completedPubsCache.contains("987654", "AB2 MF2"));
+        assertEquals(1, completedPubsCache.size());
+
+        completedPubsCache.add("987654", "AB2 MF21355");
+        completedPubsCache.flush();
+        assertEquals(Arrays.asList("123456|AB1 EI12345", "987654|AB2 MF21355"),
+                     FileUtils.readLines(cacheFile, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Makes sure duplicate lines in the cache file are removed, and the entries are kept
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDuplicateLinesCompacted() throws Exception {
+        File cacheFile = new File(cachepath);
+        FileUtils.writeStringToFile(cacheFile, "123456|AB1 EI12345\n987654|AB2 MF21355\n123456|AB1 EI12345\n",
+                                    StandardCharsets.UTF_8);
+        completedPubsCache.loadFromFile();
+        completedPubsCache.close();
+
+        List<String> lines = FileUtils.readLines(cacheFile, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.containsAll(Arrays.asList("123456|AB1 EI12345", "987654|AB2 MF21355")));
+        assertFalse(new File(cachepath + ".tmp").exists());
+
+        completedPubsCache.add("555555", "AB3 XY00001");
+        assertTrue(completedPubsCache.contains("123456", "AB1 EI12345"));
+        assertTrue(completedPubsCache.contains("555555", "AB3 XY00001"));
+    }
+
+    /**
+     * Makes sure entries with PMIDs that are not plain numbers are matched exactly, and that all entries are read
+     * back from the file
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNonNumericPmidsKept() throws Exception {
+        completedPubsCache.add("123456", "AB1 EI12345");
+        completedPubsCache.add("0123456", "AB1 EI12345");
+        completedPubsCache.add("PMC123", "AB1 EI12345");
+        completedPubsCache.add("123456", "AB2 MF21355");
+
+        assertEquals(4, completedPubsCache.size());
+        assertFalse(completedPubsCache.contains("PMC123", "AB2 MF21355"));
+        assertFalse(completedPubsCache.contains("12345", "AB1 EI12345"));
+
+        completedPubsCache.close();
+        completedPubsCache.loadFromFile();
+
+        assertEquals(4, completedPubsCache.size());
+        assertTrue(completedPubsCache.contains("123456", "AB1 EI12345"));
+        assertTrue(completedPubsCache.contains("0123456", "AB1 EI12345"));
+        assertTrue(completedPubsCache.contains("PMC123", "AB1 EI12345"));
+        assertTrue(completedPubsCache.contains("123456", "AB2 MF21355"));
+        assertFalse(completedPubsCache.contains("987654", "AB2 MF21355"));
+    }
+
+    /**
+     * Makes sure entries are saved to the mapped index when the cache is closed, that a later load uses the index
+     * together with entries added since, and that an index that no longer matches the cache file is rebuilt
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMappedIndex() throws Exception {
+        File cacheFile = new File(folder.getRoot(), "compliant-cache.data");
+        File indexFile = new File(folder.getRoot(), "compliant-cache.data.idx");
+
+        CompletedPublicationsCache cache = new CompletedPublicationsCache(cacheFile, 100, 1000, true, 0, 0);
+        cache.add("123456", "AB1 EI12345");
+        cache.add("PMC123", "AB1 EI12345");
+        cache.close();
+        assertTrue(indexFile.exists());
+
+        cache = new CompletedPublicationsCache(cacheFile, 100, 1000, true, 0, 0);
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains("123456", "AB1 EI12345"));
+        assertTrue(cache.contains("PMC123", "AB1 EI12345"));
+        cache.add("987654", "AB2 MF21355");
+        cache.add("123456", "AB1 EI12345");
+        assertEquals(3, cache.size());
+        cache.close();
+
+        FileUtils.writeStringToFile(cacheFile, "555555|AB1 EI12345\n", StandardCharsets.UTF_8, true);
+        cache = new CompletedPublicationsCache(cacheFile, 100, 1000, true, 0, 0);
+        assertEquals(4, cache.size());
+        assertTrue(cache.contains("987654", "AB2 MF21355"));
+        assertTrue(cache.contains("555555", "AB1 EI12345"));
+        assertFalse(cache.contains("555555", "AB2 MF21355"));
+        cache.close();
+
+        cache = new CompletedPublicationsCache(cacheFile, 100, 1000, true, 0, 0);
+        assertEquals(4, cache.size());
+        assertTrue(cache.contains("123456", "AB1 EI12345"));
+        assertTrue(cache.contains("555555", "AB1 EI12345"));
+        cache.clear();
+        assertFalse(indexFile.exists());
+    }
+
+    /**
+     * Makes sure lookups through the Bloom filter find every entry, including those added after loading, and that
+     * the filter is saved when the cache is closed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBloomFilter() throws Exception {
+        File cacheFile = new File(folder.getRoot(), "compliant-cache.data");
+        File bloomFile = new File(folder.getRoot(), "compliant-cache.data.bloom");
+
+        CompletedPublicationsCache cache = new CompletedPublicationsCache(cacheFile, 100, 1000, false, 0.01, 0);
+        for (int pmid = 1; pmid <= 500; pmid++) {
+            cache.add(String.valueOf(pmid), "AB1 EI12345");
+        }
+        cache.add("PMC123", "AB2 MF21355");
+        assertTrue(cache.contains("250", "AB1 EI12345"));
+        assertTrue(cache.contains("PMC123", "AB2 MF21355"));
+        assertFalse(cache.contains("250", "AB2 MF21355"));
+        cache.close();
+        assertTrue(bloomFile.exists());
+
+        cache = new CompletedPublicationsCache(cacheFile, 100, 1000, false, 0.01, 0);
+        assertEquals(501, cache.size());
+        for (int pmid = 1; pmid <= 500; pmid++) {
+            assertTrue(cache.contains(String.valueOf(pmid), "AB1 EI12345"));
+        }
+        assertTrue(cache.contains("PMC123", "AB2 MF21355"));
+        assertFalse(cache.contains("501", "AB1 EI12345"));
+        cache.add("501", "AB1 EI12345");
+        assertTrue(cache.contains("501", "AB1 EI12345"));
+        cache.clear();
+        assertFalse(bloomFile.exists());
+        assertFalse(cache.contains("501", "AB1 EI12345"));
+    }
+
+    /**
+     * Makes sure entries added from several threads at once are each kept and written to the file once
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        File cacheFile = new File(folder.getRoot(), "compliant-cache.data");
+        CompletedPublicationsCache cache = new CompletedPublicationsCache(cacheFile, 10, 1000, false, 0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int pmid = 1; pmid <= 2000; pmid++) {
+                        cache.add(String.valueOf(pmid), "AB" + (pmid % 7));
+                        assertTrue(cache.contains(String.valueOf(pmid), "AB" + (pmid % 7)));
+                    }
+                    cache.add("PMC1", "AB1");
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2001, cache.size());
+        cache.flush();
+        assertEquals(2001, FileUtils.readLines(cacheFile, StandardCharsets.UTF_8).size());
+        cache.close();
+    }
+
 }
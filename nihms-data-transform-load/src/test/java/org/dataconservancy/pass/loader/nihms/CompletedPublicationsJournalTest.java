@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the journal behind the compliant cache
+ */
+public class CompletedPublicationsJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Check lines that could not be written are kept, and are written by the next sync once the file can be written
+     */
+    @Test
+    public void testLinesKeptAfterFailedWrite() throws Exception {
+        File directory = new File(folder.getRoot(), "cache");
+        File file = new File(directory, "compliant-cache.data");
+        CompletedPublicationsJournal journal = new CompletedPublicationsJournal(file, 100, 60000);
+        journal.append("12345|AB1 EI12345");
+        journal.append("23456|AB1 EI12345");
+
+        // the folder does not exist yet, so the file cannot be opened
+        try {
+            journal.sync();
+            fail("Expected the sync to fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertEquals(0, journal.getLines());
+
+        journal.append("34567|AB1 EI12345");
+        assertTrue(directory.mkdirs());
+        journal.sync();
+
+        assertEquals(3, journal.getLines());
+        assertEquals(Arrays.asList("12345|AB1 EI12345", "23456|AB1 EI12345", "34567|AB1 EI12345"),
+                     Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        journal.close();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.loader.nihms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for the open-addressing set of longs
+ */
+public class LongHashSetTest {
+
+    /**
+     * Check keys can be found after the set has grown several times, and are only added once
+     */
+    @Test
+    public void testAddAndContainsAcrossGrowth() {
+        LongHashSet set = new LongHashSet(4);
+        for (long key = 1; key <= 10000; key++) {
+            assertTrue(set.add(key << 26 | 7));
+        }
+        assertFalse(set.add(5L << 26 | 7));
+        assertEquals(10000, set.size());
+        for (long key = 1; key <= 10000; key++) {
+            assertTrue(set.contains(key << 26 | 7));
+            assertFalse(set.contains(key << 26 | 8));
+        }
+        assertFalse(set.contains(0));
+    }
+
+    /**
+     * Check each key is passed to forEach once and clear empties the set
+     */
+    @Test
+    public void testForEachAndClear() {
+        LongHashSet set = new LongHashSet(16);
+        set.add(3);
+        set.add(-42);
+        set.add(Long.MAX_VALUE);
+        Set<Long> seen = new HashSet<>();
+        set.forEach(seen::add);
+        assertEquals(new HashSet<>(Arrays.asList(3L, -42L, Long.MAX_VALUE)), seen);
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroRejected() {
+        new LongHashSet(16).add(0);
+    }
+
+}
@@ -20,9 +20,21 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import org.dataconservancy.pass.loader.nihms.model.NihmsPublication;
@@ -30,7 +42,9 @@ import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
 import org.dataconservancy.pass.loader.nihms.util.FileUtil;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Tests that the CSVProcessor pulls records and consumes them as NihmsPublications
@@ -40,6 +54,9 @@ import org.junit.Test;
  */
 public class NihmsCsvProcessorTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private int count = 0;
 
     String cachepath = null;
@@ -122,6 +139,207 @@ public class NihmsCsvProcessorTest {
 
     }
 
+    /**
+     * Check that when rows are consumed by several workers every row is processed once, and rows that share a
+     * PMID are never consumed at the same time
+     *
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testReadCsvInParallel() throws URISyntaxException {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        NihmsCsvProcessor processor = new NihmsCsvProcessor(resource, NihmsStatus.COMPLIANT);
+
+        AtomicInteger consumed = new AtomicInteger();
+        Set<String> inFlightPmids = ConcurrentHashMap.newKeySet();
+        AtomicInteger overlaps = new AtomicInteger();
+
+        Consumer<NihmsPublication> consumer = pub -> {
+            if (!inFlightPmids.add(pub.getPmid())) {
+                overlaps.incrementAndGet();
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            inFlightPmids.remove(pub.getPmid());
+            consumed.incrementAndGet();
+        };
+
+        processor.processCsv(consumer, 3);
+
+        assertEquals(3, consumed.get());
+        assertEquals(0, overlaps.get());
+        assertEquals(3, processor.getRecordCount());
+        assertEquals(0, processor.getFailCount());
+    }
+
+    /**
+     * Check the rows are read the same way from a stream as from the file
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadCsvFromStream() throws Exception {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        AtomicInteger consumed = new AtomicInteger();
+        try (InputStream in = Files.newInputStream(resource)) {
+            NihmsCsvProcessor processor = new NihmsCsvProcessor(in, resource, NihmsStatus.COMPLIANT);
+            processor.processCsv(pub -> {
+                if (consumed.incrementAndGet() == 1) {
+                    assertEquals("12345678", pub.getPmid());
+                    assertEquals("A12 BC000001", pub.getGrantNumber());
+                }
+            });
+            assertEquals(3, processor.getRecordCount());
+        }
+        assertEquals(3, consumed.get());
+    }
+
+    /**
+     * Check that a worker that stops because consuming a row threw an Error fails the file, rather than leaving the
+     * reader waiting for room on the queue
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 30000)
+    public void testWorkerErrorFailsFile() throws Exception {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        List<String> lines = Files.readAllLines(resource);
+        Path bigFile = tempFolder.newFile("compliant_many.csv").toPath();
+        List<String> rows = new ArrayList<>(Collections.singletonList(lines.get(0)));
+        for (int i = 0; i < 50; i++) {
+            rows.add(lines.get(1).replace("12345678", String.valueOf(20000000 + i)));
+        }
+        Files.write(bigFile, rows);
+
+        NihmsCsvProcessor processor = new NihmsCsvProcessor(bigFile, NihmsStatus.COMPLIANT);
+        try {
+            processor.processCsv(pub -> {
+                throw new AssertionError("worker stopped");
+            }, 2);
+            fail("Expected the file to fail");
+        } catch (RuntimeException ex) {
+            assertEquals("worker stopped", ex.getCause().getCause().getMessage());
+        }
+    }
+
+    /**
+     * Check that processors sharing lock stripes never consume records with the same PMID at the same time, even
+     * when each reads its rows on its own thread
+     */
+    @Test(timeout = 30000)
+    public void testSharedLocksAcrossProcessors() throws Exception {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        ReentrantLock[] locks = NihmsCsvProcessor.newRecordLocks();
+        Set<String> inProgress = ConcurrentHashMap.newKeySet();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        Consumer<NihmsPublication> consumer = pub -> {
+            if (!inProgress.add(pub.getPmid())) {
+                overlaps.incrementAndGet();
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            inProgress.remove(pub.getPmid());
+            consumed.incrementAndGet();
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> files = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                NihmsCsvProcessor processor = new NihmsCsvProcessor(resource, NihmsStatus.COMPLIANT);
+                processor.setRecordLocks(locks);
+                files.add(executor.submit(() -> processor.processCsv(consumer)));
+            }
+            for (Future<?> file : files) {
+                file.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(6, consumed.get());
+        assertEquals(0, overlaps.get());
+    }
+
+    /**
+     * Check that when each record is given its own task every row is consumed before processing returns
+     *
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testReadCsvTaskPerRecord() throws URISyntaxException {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        NihmsCsvProcessor processor = new NihmsCsvProcessor(resource, NihmsStatus.COMPLIANT);
+
+        AtomicInteger consumed = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            processor.processCsv(pub -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                consumed.incrementAndGet();
+            }, executor, 2);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(3, consumed.get());
+        assertEquals(3, processor.getRecordCount());
+        assertEquals(0, processor.getFailCount());
+    }
+
+    /**
+     * Check that failures in the workers are tallied against the file
+     *
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testFailuresCountedInParallel() throws URISyntaxException {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        NihmsCsvProcessor processor = new NihmsCsvProcessor(resource, NihmsStatus.COMPLIANT);
+
+        Consumer<NihmsPublication> consumer = pub -> {
+            if (pub.getPmid().equals("34567890")) {
+                throw new RuntimeException("Failing record");
+            }
+        };
+
+        processor.processCsv(consumer, 2);
+
+        assertEquals(3, processor.getRecordCount());
+        assertEquals(2, processor.getFailCount());
+    }
+
+    /**
+     * Check scanning reads every row without counting them as processed
+     *
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testScanCsv() throws URISyntaxException {
+        Path resource = Paths.get(NihmsCsvProcessorTest.class.getResource("/compliant_NihmsData.csv").toURI());
+        NihmsCsvProcessor processor = new NihmsCsvProcessor(resource, NihmsStatus.COMPLIANT);
+
+        Set<String> pmids = ConcurrentHashMap.newKeySet();
+        processor.scanCsv(pub -> pmids.add(pub.getPmid()));
+
+        assertEquals(2, pmids.size());
+        assertTrue(pmids.contains("12345678"));
+        assertTrue(pmids.contains("34567890"));
+        assertEquals(0, processor.getRecordCount());
+        assertEquals(0, processor.getFailCount());
+    }
+
     /**
      * Check an exception is thrown when there is a bad heading in the spreadsheet. We
      * do not want to process badly formatted data
@@ -16,6 +16,7 @@
 package org.dataconservancy.pass.loader.nihms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -23,6 +24,7 @@ import static org.mockito.Mockito.when;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.dataconservancy.pass.client.nihms.NihmsPassClientService;
@@ -33,6 +35,7 @@ import org.dataconservancy.pass.loader.nihms.model.NihmsStatus;
 import org.dataconservancy.pass.loader.nihms.util.ConfigUtil;
 import org.dataconservancy.pass.model.Grant;
 import org.dataconservancy.pass.model.Publication;
+import org.dataconservancy.pass.model.RepositoryCopy;
 import org.dataconservancy.pass.model.RepositoryCopy.CopyStatus;
 import org.dataconservancy.pass.model.Submission;
 import org.dataconservancy.pass.model.Submission.Source;
@@ -58,6 +61,7 @@ public class SubmissionTransformerTest {
     private static final String sJournalUri = "https://example.com/fedora/journals/1";
     private static final String sPublicationUri = "https://example.com/fedora/publications/1";
     private static final String sUserUri = "https://example.com/fedora/users/1";
+    private static final String sRepoCopyUri = "https://example.com/fedora/repositoryCopies/1";
 
     private static final String nihmsId = "abcdefg";
     private static final String pmcId = "9876543";
@@ -215,6 +219,49 @@ public class SubmissionTransformerTest {
 
     }
 
+    /**
+     * Tests the scenario where there is already a Publication, Submission and RepositoryCopy in PASS for the
+     * article, and the only change is a new PMC ID. The RepositoryCopy should be updated, and the Submission's grants
+     * and submitted date left as they were.
+     */
+    @Test
+    public void testTransformOnlyUpdatesChangedRepoCopy() throws Exception {
+        NihmsPublication pub = newTestPub();
+        pub.setNihmsStatus(NihmsStatus.COMPLIANT);
+        pub.setNihmsId(nihmsId);
+        pub.setFileDepositedDate(depositDate);
+        pub.setInitialApprovalDate(depositDate);
+        pub.setTaggingCompleteDate(depositDate);
+        pub.setPmcId(pmcId);
+
+        Publication publication = newTestPublication();
+        Submission submission = newTestSubmission();
+        DateTime submittedDate = submission.getSubmittedDate();
+        List<Submission> submissions = new ArrayList<Submission>();
+        submissions.add(submission);
+
+        RepositoryCopy repoCopy = new RepositoryCopy();
+        repoCopy.setId(new URI(sRepoCopyUri));
+        repoCopy.setPublication(publication.getId());
+        repoCopy.setCopyStatus(CopyStatus.COMPLETE);
+        repoCopy.setExternalIds(new ArrayList<String>(Arrays.asList(pub.getNihmsId())));
+
+        Grant grant = newTestGrant();
+        when(clientServiceMock.findMostRecentGrantByAwardNumber(awardNumber)).thenReturn(grant);
+        when(clientServiceMock.findPublicationByPmid(pmid)).thenReturn(publication);
+        when(clientServiceMock.findNihmsRepositoryCopyForPubId(publication.getId())).thenReturn(repoCopy);
+        when(clientServiceMock.findSubmissionsByPublicationAndUserId(publication.getId(), grant.getPi())).thenReturn(
+            submissions);
+
+        SubmissionDTO dto = transformer.transform(pub);
+
+        assertTrue(dto.doUpdateRepositoryCopy());
+        assertEquals(Arrays.asList(pub.getNihmsId(), pub.getPmcId()), dto.getRepositoryCopy().getExternalIds());
+        assertEquals(Arrays.asList(new URI(sGrantUri)), dto.getSubmission().getGrants());
+        assertEquals(submittedDate, dto.getSubmission().getSubmittedDate());
+        assertFalse(dto.doUpdatePublication());
+    }
+
     /**
      * Tests the scenario where there is already a Publication and Submission in PASS for the article,
      * The grant and repo were not included on the Submission, but it is not submitted so we can add it.
@@ -18,10 +18,20 @@ package org.dataconservancy.pass.loader.nihms.util;
 import static java.util.stream.Collectors.toList;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -40,6 +50,13 @@ public class FileUtil {
 
     private static final String DEFAULT_DATA_FOLDER = "/data";
 
+    /**
+     * Suffix of the manifest written next to each downloaded file, holding the SHA-256 hash of the file
+     */
+    public static final String CHECKSUM_SUFFIX = ".sha256";
+
+    private static final String DONE_SUFFIX = ".done";
+
     /**
      * Gets directory that the app was run from
      *
@@ -128,6 +145,92 @@ public class FileUtil {
      */
     public static void renameToDone(Path path) {
         final File file = path.toFile();
-        file.renameTo(new File(file.getAbsolutePath() + ".done"));
+        file.renameTo(new File(file.getAbsolutePath() + DONE_SUFFIX));
+        final File checksum = new File(file.getAbsolutePath() + CHECKSUM_SUFFIX);
+        if (checksum.exists()) {
+            checksum.renameTo(new File(checksum.getAbsolutePath() + DONE_SUFFIX));
+        }
+    }
+
+    /**
+     * Writes the manifest holding the SHA-256 hash of a file, in the format used by sha256sum. The manifest is
+     * written to a temporary file and moved into place once it is complete.
+     *
+     * @param path     the file the hash is for
+     * @param checksum the hash, as lower case hex
+     * @throws IOException if the manifest could not be written
+     */
+    public static void writeChecksum(Path path, String checksum) throws IOException {
+        Path manifest = Paths.get(path.toString() + CHECKSUM_SUFFIX);
+        Path tmp = Paths.get(manifest.toString() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            String line = checksum + "  " + path.getFileName() + "\n";
+            ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the SHA-256 hash of a file from the manifest next to it
+     *
+     * @param path the file
+     * @return the hash as lower case hex, or null if there is no readable manifest
+     */
+    public static String readChecksum(Path path) {
+        Path manifest = Paths.get(path.toString() + CHECKSUM_SUFFIX);
+        if (!Files.isRegularFile(manifest)) {
+            return null;
+        }
+        try {
+            String content = new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).trim();
+            int end = content.indexOf(' ');
+            String checksum = (end > 0 ? content.substring(0, end) : content);
+            return (checksum.matches("[0-9a-f]{64}") ? checksum : null);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 hash of a file
+     *
+     * @param path the file
+     * @return the hash as lower case hex
+     * @throws IOException if the file could not be read
+     */
+    public static String checksum(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("SHA-256 is not available", ex);
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Formats a hash as lower case hex
+     *
+     * @param hash the hash
+     * @return the hex string
+     */
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
     }
 }
@@ -17,12 +17,16 @@ package org.dataconservancy.pass.loader.nihms.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 import org.junit.After;
@@ -167,4 +171,37 @@ public class FileUtilTest {
 
     }
 
+    /**
+     * Confirms the .sha256 file written next to a file is renamed along with it
+     *
+     * @throws IOException
+     */
+    @Test
+    public void renameToDoneRenamesChecksum() throws IOException {
+        File file1 = File.createTempFile("file1-02-08-2018-", ".csv", createdFolder);
+        FileUtil.writeChecksum(file1.toPath(), FileUtil.checksum(file1.toPath()));
+        FileUtil.renameToDone(file1.toPath());
+        assertTrue(new File(file1.getAbsolutePath() + ".sha256.done").exists());
+        assertFalse(new File(file1.getAbsolutePath() + ".sha256").exists());
+    }
+
+    /**
+     * Confirms a hash written to the .sha256 file is read back, and matches the hash of the file
+     *
+     * @throws IOException
+     */
+    @Test
+    public void writeAndReadChecksum() throws IOException {
+        Path file1 = createdFolder.toPath().resolve("file1.csv");
+        Files.write(file1, "abc".getBytes(StandardCharsets.UTF_8));
+        assertNull(FileUtil.readChecksum(file1));
+
+        String checksum = FileUtil.checksum(file1);
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", checksum);
+        FileUtil.writeChecksum(file1, checksum);
+        assertEquals(checksum, FileUtil.readChecksum(file1));
+        assertEquals(checksum + "  file1.csv\n",
+                     new String(Files.readAllBytes(Paths.get(file1 + ".sha256")), StandardCharsets.UTF_8));
+    }
+
 }
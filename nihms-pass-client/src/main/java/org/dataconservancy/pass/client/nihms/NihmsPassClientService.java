@@ -17,26 +17,48 @@ package org.dataconservancy.pass.client.nihms;
 
 import static org.dataconservancy.pass.loader.nihms.util.ProcessingUtil.nullOrEmpty;
 
+import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.dataconservancy.pass.client.PassClient;
 import org.dataconservancy.pass.client.PassClientFactory;
+import org.dataconservancy.pass.client.nihms.cache.CaffeineIdCache;
+import org.dataconservancy.pass.client.nihms.cache.EntityCache;
 import org.dataconservancy.pass.client.nihms.cache.GrantIdCache;
+import org.dataconservancy.pass.client.nihms.cache.IdCache;
+import org.dataconservancy.pass.client.nihms.cache.IdCacheSnapshot;
+import org.dataconservancy.pass.client.nihms.cache.JournalIdCache;
 import org.dataconservancy.pass.client.nihms.cache.NihmsDepositIdCache;
 import org.dataconservancy.pass.client.nihms.cache.NihmsRepositoryCopyIdCache;
+import org.dataconservancy.pass.client.nihms.cache.NoOpIdCache;
 import org.dataconservancy.pass.client.nihms.cache.PublicationIdCache;
 import org.dataconservancy.pass.client.nihms.cache.UserPubSubmissionsCache;
 import org.dataconservancy.pass.loader.nihms.util.ConfigUtil;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Grant;
 import org.dataconservancy.pass.model.Journal;
+import org.dataconservancy.pass.model.PassEntity;
 import org.dataconservancy.pass.model.Publication;
 import org.dataconservancy.pass.model.RepositoryCopy;
 import org.dataconservancy.pass.model.Submission;
@@ -58,17 +80,86 @@ public class NihmsPassClientService {
 
     public static final String REPOSITORY_FLD = "repository";
 
+    public static final String REPOSITORIES_FLD = "repositories";
+
     public static final String AWARD_NUMBER_FLD = "awardNumber";
 
     public static final String PUBLICATION_FLD = "publication";
 
     public static final String SUBMITTER_FLD = "submitter";
 
+    private static final String NOTFOUND_TTL_KEY = "nihmsetl.loader.cache.notfound-ttl-seconds";
+
+    private static final String NOTFOUND_TTL_DEFAULT = "600";
+
+    /**
+     * Prefix for the settings of each cache, followed by the cache name and then {@link #CACHE_MAX_ENTRIES_SUFFIX}
+     * or {@link #CACHE_TTL_SUFFIX}
+     */
+    private static final String CACHE_KEY_PREFIX = "nihmsetl.loader.cache.";
+
+    private static final String CACHE_MAX_ENTRIES_SUFFIX = ".max-entries";
+
+    private static final String CACHE_MAX_ENTRIES_DEFAULT = "100000";
+
+    private static final String CACHE_TTL_SUFFIX = ".ttl-seconds";
+
+    private static final String CACHE_TTL_DEFAULT = "0";
+
+    private static final String PUBLICATIONS_CACHE = "publications";
+
+    private static final String REPOSITORY_COPIES_CACHE = "repository-copies";
+
+    private static final String GRANTS_CACHE = "grants";
+
+    private static final String DEPOSITS_CACHE = "deposits";
+
+    private static final String SUBMISSIONS_CACHE = "submissions";
+
+    private static final String JOURNALS_CACHE = "journals";
+
+    private static final String PUBLICATION_DOIS_CACHE = "publication-dois";
+
+    private static final String SNAPSHOTS_CACHE = "snapshots";
+
+    private static final String SNAPSHOTS_MAX_ENTRIES_DEFAULT = "10000";
+
+    private static final String SNAPSHOTS_TTL_DEFAULT = "600";
+
+    private static final String SUBMISSION_RECORDS_CACHE = "submission-records";
+
+    private static final String PUBLICATION_RECORDS_CACHE = "publication-records";
+
+    private static final String GRANT_RECORDS_CACHE = "grant-records";
+
+    private static final String REPOSITORY_COPY_RECORDS_CACHE = "repository-copy-records";
+
+    private static final String DEPOSIT_RECORDS_CACHE = "deposit-records";
+
+    private static final String RECORDS_MAX_ENTRIES_DEFAULT = "10000";
+
+    private static final String SUBMISSION_RECORDS_TTL_DEFAULT = "300";
+
+    private static final String PUBLICATION_RECORDS_TTL_DEFAULT = "600";
+
+    private static final String GRANT_RECORDS_TTL_DEFAULT = "3600";
+
+    private static final String NIHMS_RECORDS_TTL_DEFAULT = "600";
+
+    private static final String SUBMISSION_READ_THREADS_KEY = "nihmsetl.loader.submission.read-threads";
+
+    private static final String SUBMISSION_READ_THREADS_DEFAULT = "4";
+
     static final String ERR_CREATE_PUBLICATION =
         "Refusing to create a Publication: it must have either a DOI or a PMID.";
 
     private PassClient client;
 
+    /**
+     * The PassClient as it was provided, before any cap on concurrent requests was applied
+     */
+    private PassClient unthrottledClient;
+
     /**
      * Local cache of publications, lookup by PMID
      */
@@ -95,6 +186,77 @@ public class NihmsPassClientService {
      */
     private UserPubSubmissionsCache userPubSubsCache;
 
+    /**
+     * Local cache of publications, lookup by DOI
+     */
+    private IdCache<String, URI> publicationDoiCache;
+
+    /**
+     * Local cache of Journals, lookup by ISSN
+     */
+    private JournalIdCache journalCache;
+
+    /**
+     * Copies of the Publications, Submissions, RepositoryCopies and Deposits read by this service, as they were
+     * when read, by id. Used by the update methods to tell whether an entity has changed without reading it again.
+     */
+    private IdCache<URI, PassEntity> snapshots;
+
+    /**
+     * The id cache snapshot the caches were filled from, if any. Used to carry over the time each entry was first
+     * seen when the caches are saved again.
+     */
+    private IdCacheSnapshot loadedIdSnapshot;
+
+    /**
+     * Publications whose Submissions were all listed by {@link #preloadNihmsRecords(int, int)}. The Submissions for
+     * these Publications are looked up in {@link #preloadedUserPubSubs} rather than searched for in the index.
+     */
+    private final Set<URI> preloadedSubmissionPubs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The Submissions of each User and preloaded Publication, including those created since the preload. Look up using
+     * UserId and PublicationId concatenated. Unlike {@link #userPubSubsCache} entries are kept for the whole run.
+     */
+    private final Map<String, Set<URI>> preloadedUserPubSubs = new ConcurrentHashMap<String, Set<URI>>();
+
+    /**
+     * Submissions read by this service, by id, so that later rows for the same User and Publication do not read them
+     * again. Entries are short-lived and are dropped when this service updates the Submission.
+     */
+    private EntityCache<Submission> submissionRecords;
+
+    /**
+     * Publications read by this service, by id. Dropped when this service updates the Publication.
+     */
+    private EntityCache<Publication> publicationRecords;
+
+    /**
+     * Grants read by this service, by id. The loader never changes Grants, so many rows citing the same Grant only
+     * read it once.
+     */
+    private EntityCache<Grant> grantRecords;
+
+    /**
+     * NIHMS RepositoryCopies read by this service, by id. Dropped when this service updates the RepositoryCopy.
+     */
+    private EntityCache<RepositoryCopy> repositoryCopyRecords;
+
+    /**
+     * NIHMS Deposits read by this service, by id. Dropped when this service updates the Deposit.
+     */
+    private EntityCache<Deposit> depositRecords;
+
+    /**
+     * Number of Submissions read at the same time when looking up the Submissions for a User and Publication
+     */
+    private int submissionReadThreads;
+
+    /**
+     * Runs the concurrent Submission reads, created when first needed
+     */
+    private ExecutorService readExecutor;
+
     /**
      * Store NIHMS REPO ID setting
      */
@@ -106,16 +268,219 @@ public class NihmsPassClientService {
 
     public NihmsPassClientService(PassClient client) {
         this.client = client;
+        this.unthrottledClient = client;
         nihmsRepoId = ConfigUtil.getNihmsRepositoryUri();
         initCaches();
     }
 
+    /**
+     * Creates the caches, sized from configuration. Each cache's maximum number of entries and time to live are
+     * set with {@code nihmsetl.loader.cache.<name>.max-entries} and {@code nihmsetl.loader.cache.<name>.ttl-seconds}.
+     * The caches belong to this service, so they are released along with it.
+     */
     private void initCaches() {
-        publicationCache = PublicationIdCache.getInstance();
-        nihmsRepoCopyCache = NihmsRepositoryCopyIdCache.getInstance();
-        grantCache = GrantIdCache.getInstance();
-        nihmsDepositCache = NihmsDepositIdCache.getInstance();
-        userPubSubsCache = UserPubSubmissionsCache.getInstance();
+        long notFoundTtl = TimeUnit.SECONDS.toMillis(
+            Long.parseLong(ConfigUtil.getSystemProperty(NOTFOUND_TTL_KEY, NOTFOUND_TTL_DEFAULT)));
+        publicationCache = new PublicationIdCache(newCache(PUBLICATIONS_CACHE),
+                                                  newNotFoundCache(PUBLICATIONS_CACHE, notFoundTtl));
+        nihmsRepoCopyCache = new NihmsRepositoryCopyIdCache(newCache(REPOSITORY_COPIES_CACHE),
+                                                            newNotFoundCache(REPOSITORY_COPIES_CACHE, notFoundTtl));
+        grantCache = new GrantIdCache(newCache(GRANTS_CACHE), newNotFoundCache(GRANTS_CACHE, notFoundTtl));
+        nihmsDepositCache = new NihmsDepositIdCache(newCache(DEPOSITS_CACHE));
+        userPubSubsCache = new UserPubSubmissionsCache(newCache(SUBMISSIONS_CACHE));
+        snapshots = newCache(SNAPSHOTS_CACHE, SNAPSHOTS_MAX_ENTRIES_DEFAULT, SNAPSHOTS_TTL_DEFAULT);
+        publicationDoiCache = newCache(PUBLICATION_DOIS_CACHE);
+        journalCache = new JournalIdCache(newCache(JOURNALS_CACHE), newNotFoundCache(JOURNALS_CACHE, notFoundTtl));
+        submissionRecords = new EntityCache<Submission>(
+            newCache(SUBMISSION_RECORDS_CACHE, RECORDS_MAX_ENTRIES_DEFAULT, SUBMISSION_RECORDS_TTL_DEFAULT),
+            Submission::new);
+        publicationRecords = new EntityCache<Publication>(
+            newCache(PUBLICATION_RECORDS_CACHE, RECORDS_MAX_ENTRIES_DEFAULT, PUBLICATION_RECORDS_TTL_DEFAULT),
+            Publication::new);
+        grantRecords = new EntityCache<Grant>(
+            newCache(GRANT_RECORDS_CACHE, RECORDS_MAX_ENTRIES_DEFAULT, GRANT_RECORDS_TTL_DEFAULT), Grant::new);
+        repositoryCopyRecords = new EntityCache<RepositoryCopy>(
+            newCache(REPOSITORY_COPY_RECORDS_CACHE, RECORDS_MAX_ENTRIES_DEFAULT, NIHMS_RECORDS_TTL_DEFAULT),
+            RepositoryCopy::new);
+        depositRecords = new EntityCache<Deposit>(
+            newCache(DEPOSIT_RECORDS_CACHE, RECORDS_MAX_ENTRIES_DEFAULT, NIHMS_RECORDS_TTL_DEFAULT), Deposit::new);
+        submissionReadThreads = Integer.parseInt(ConfigUtil.getSystemProperty(SUBMISSION_READ_THREADS_KEY,
+                                                                              SUBMISSION_READ_THREADS_DEFAULT));
+    }
+
+    /**
+     * @param name the name of the cache in configuration
+     * @param <K>  the type of key
+     * @param <V>  the type of value
+     * @return a new cache sized from configuration
+     */
+    private static <K, V> IdCache<K, V> newCache(String name) {
+        return newCache(name, CACHE_MAX_ENTRIES_DEFAULT, CACHE_TTL_DEFAULT);
+    }
+
+    /**
+     * @param name              the name of the cache in configuration
+     * @param maxEntriesDefault the maximum number of entries if none is configured
+     * @param ttlSecondsDefault the time to live in seconds if none is configured
+     * @param <K>               the type of key
+     * @param <V>               the type of value
+     * @return a new cache sized from configuration
+     */
+    private static <K, V> IdCache<K, V> newCache(String name, String maxEntriesDefault, String ttlSecondsDefault) {
+        long ttlSeconds = Long.parseLong(ConfigUtil.getSystemProperty(CACHE_KEY_PREFIX + name + CACHE_TTL_SUFFIX,
+                                                                      ttlSecondsDefault));
+        return newCache(name, maxEntriesDefault, TimeUnit.SECONDS.toMillis(ttlSeconds));
+    }
+
+    /**
+     * @param name      the name of the cache in configuration
+     * @param ttlMillis time that an entry lasts, 0 or less to not remember keys with no match at all
+     * @param <K>       the type of key
+     * @return a new cache for keys with no match, with the same size limit as the cache it goes with
+     */
+    private static <K> IdCache<K, Boolean> newNotFoundCache(String name, long ttlMillis) {
+        return (ttlMillis > 0 ? newCache(name, CACHE_MAX_ENTRIES_DEFAULT, ttlMillis) : new NoOpIdCache<K, Boolean>());
+    }
+
+    /**
+     * @param name              the name of the cache in configuration
+     * @param maxEntriesDefault the maximum number of entries if none is configured
+     * @param ttlMillis         time that an entry lasts, 0 or less for entries that do not expire
+     * @param <K>               the type of key
+     * @param <V>               the type of value
+     * @return a new cache, or one that keeps nothing if the maximum number of entries is set to 0 or less
+     */
+    private static <K, V> IdCache<K, V> newCache(String name, String maxEntriesDefault, long ttlMillis) {
+        String maxEntriesKey = CACHE_KEY_PREFIX + name + CACHE_MAX_ENTRIES_SUFFIX;
+        long maxEntries = Long.parseLong(ConfigUtil.getSystemProperty(maxEntriesKey, maxEntriesDefault));
+        if (maxEntries <= 0) {
+            return new NoOpIdCache<K, V>();
+        }
+        return new CaffeineIdCache<K, V>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Logs the hits, misses and evictions of each cache
+     */
+    public void logCacheStats() {
+        LOG.info("Publication cache: {}; not found: {}", publicationCache.getStats(),
+                 publicationCache.getNotFoundStats());
+        LOG.info("NIHMS RepositoryCopy cache: {}; not found: {}", nihmsRepoCopyCache.getStats(),
+                 nihmsRepoCopyCache.getNotFoundStats());
+        LOG.info("Grant cache: {}; not found: {}", grantCache.getStats(), grantCache.getNotFoundStats());
+        LOG.info("NIHMS Deposit cache: {}", nihmsDepositCache.getStats());
+        LOG.info("Submission cache: {}", userPubSubsCache.getStats());
+        LOG.info("Snapshots of records read: {}", snapshots.getStats());
+        LOG.info("Journal cache: {}; not found: {}", journalCache.getStats(), journalCache.getNotFoundStats());
+        LOG.info("Submission records: {}", submissionRecords.getStats());
+        LOG.info("Publication records: {}", publicationRecords.getStats());
+        LOG.info("Grant records: {}", grantRecords.getStats());
+        LOG.info("RepositoryCopy records: {}", repositoryCopyRecords.getStats());
+        LOG.info("Deposit records: {}", depositRecords.getStats());
+        LOG.info("Publication DOI cache: {}", publicationDoiCache.getStats());
+    }
+
+    /**
+     * Saves the ids in the caches of Publications, RepositoryCopies, Grants, Deposits, Submissions, Journals and
+     * DOIs to a file, so that the next run can start with them. Entries for records that were not found are not
+     * saved. An entry that was loaded from a snapshot and still has the same ids keeps the time it was first seen,
+     * so that it expires once it is older than the maximum age however many times it is saved again.
+     *
+     * @param file the snapshot file
+     * @return number of entries saved
+     */
+    public int saveCacheSnapshot(File file) {
+        return saveCacheSnapshot(file, System.currentTimeMillis());
+    }
+
+    int saveCacheSnapshot(File file, long nowMillis) {
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(snapshotEnvironment(), nowMillis);
+        publicationCache.forEach((pmid, id) -> addToSnapshot(snapshot, PUBLICATIONS_CACHE, pmid,
+                                                             Collections.singleton(id)));
+        nihmsRepoCopyCache.forEach((pubId, id) -> addToSnapshot(snapshot, REPOSITORY_COPIES_CACHE, pubId.toString(),
+                                                                Collections.singleton(id)));
+        grantCache.forEach((awardNumber, id) -> addToSnapshot(snapshot, GRANTS_CACHE, awardNumber,
+                                                              Collections.singleton(id)));
+        nihmsDepositCache.forEach((submissionId, id) -> addToSnapshot(snapshot, DEPOSITS_CACHE,
+                                                                      submissionId.toString(),
+                                                                      Collections.singleton(id)));
+        userPubSubsCache.forEach((userIdPubId, ids) -> addToSnapshot(snapshot, SUBMISSIONS_CACHE, userIdPubId, ids));
+        journalCache.forEach((issn, id) -> addToSnapshot(snapshot, JOURNALS_CACHE, issn, Collections.singleton(id)));
+        publicationDoiCache.forEach((doi, id) -> addToSnapshot(snapshot, PUBLICATION_DOIS_CACHE, doi,
+                                                               Collections.singleton(id)));
+        snapshot.write(file);
+        LOG.info("Saved {} cached ids to {}", snapshot.size(), file);
+        return snapshot.size();
+    }
+
+    /**
+     * Fills the caches from a file written by {@link #saveCacheSnapshot(File)}. The file is not used if it is
+     * damaged, was written for a different NIHMS repository, or is older than the age given. An id from the file
+     * for a record that has since been removed is dropped when it is next looked up, and the record is searched for
+     * again.
+     *
+     * @param file         the snapshot file
+     * @param maxAgeMillis how old the file can be
+     * @return number of entries loaded
+     */
+    public int loadCacheSnapshot(File file, long maxAgeMillis) {
+        return loadCacheSnapshot(file, maxAgeMillis, System.currentTimeMillis());
+    }
+
+    int loadCacheSnapshot(File file, long maxAgeMillis, long nowMillis) {
+        IdCacheSnapshot snapshot = IdCacheSnapshot.read(file, snapshotEnvironment(), maxAgeMillis, nowMillis);
+        if (snapshot == null) {
+            return 0;
+        }
+        loadedIdSnapshot = snapshot;
+        snapshot.getSection(PUBLICATIONS_CACHE).forEach((pmid, ids) -> publicationCache.put(pmid, ids.get(0)));
+        snapshot.getSection(REPOSITORY_COPIES_CACHE)
+                .forEach((pubId, ids) -> nihmsRepoCopyCache.put(URI.create(pubId), ids.get(0)));
+        snapshot.getSection(GRANTS_CACHE).forEach((awardNumber, ids) -> grantCache.put(awardNumber, ids.get(0)));
+        snapshot.getSection(DEPOSITS_CACHE)
+                .forEach((submissionId, ids) -> nihmsDepositCache.put(URI.create(submissionId), ids.get(0)));
+        snapshot.getSection(SUBMISSIONS_CACHE)
+                .forEach((userIdPubId, ids) -> userPubSubsCache.put(userIdPubId, new HashSet<URI>(ids)));
+        snapshot.getSection(JOURNALS_CACHE).forEach((issn, ids) -> journalCache.put(issn, ids.get(0)));
+        snapshot.getSection(PUBLICATION_DOIS_CACHE).forEach((doi, ids) -> publicationDoiCache.put(doi, ids.get(0)));
+        LOG.info("Loaded {} cached ids from {}", snapshot.size(), file);
+        return snapshot.size();
+    }
+
+    /**
+     * Adds an entry to the snapshot, keeping the time it was first seen if it was loaded from the previous snapshot
+     * with the same ids
+     */
+    private void addToSnapshot(IdCacheSnapshot snapshot, String section, String key, Collection<URI> ids) {
+        long firstSeen = snapshot.getCreatedMillis();
+        if (loadedIdSnapshot != null && key != null && ids != null) {
+            List<URI> loaded = loadedIdSnapshot.getSection(section).get(key);
+            if (loaded != null && new HashSet<URI>(loaded).equals(new HashSet<URI>(ids))) {
+                firstSeen = loadedIdSnapshot.getFirstSeenMillis(section, key);
+            }
+        }
+        snapshot.add(section, key, ids, firstSeen);
+    }
+
+    /**
+     * @return identifies the PASS instance the cached ids belong to
+     */
+    private String snapshotEnvironment() {
+        return (nihmsRepoId != null ? nihmsRepoId.toString() : "");
+    }
+
+    /**
+     * Caps the number of requests to the PASS backend that this service will have in progress at the same time.
+     * Useful when many records are being processed concurrently.
+     *
+     * @param maxConcurrentRequests maximum number of requests in flight, 0 or less removes the cap
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests > 0) {
+            this.client = ThrottledPassClient.wrap(unthrottledClient, maxConcurrentRequests);
+        } else {
+            this.client = unthrottledClient;
+        }
     }
 
     /**
@@ -127,11 +492,23 @@ public class NihmsPassClientService {
         this.grantCache.clear();
         this.nihmsDepositCache.clear();
         this.userPubSubsCache.clear();
+        this.preloadedSubmissionPubs.clear();
+        this.preloadedUserPubSubs.clear();
+        this.snapshots.clear();
+        this.loadedIdSnapshot = null;
+        this.journalCache.clear();
+        this.submissionRecords.clear();
+        this.publicationRecords.clear();
+        this.grantRecords.clear();
+        this.repositoryCopyRecords.clear();
+        this.depositRecords.clear();
+        this.publicationDoiCache.clear();
     }
 
     /**
      * Searches for Grant record using awardNumber. Tries this first using the awardNumber as passed in,
-     * then again without spaces.
+     * then again without spaces, then without any "-##" suffix. The result is cached. When no Grant was found,
+     * that is cached for a short time.
      *
      * @param awardNumber the award number
      * @return the grant, or {@code null} if not found
@@ -144,43 +521,333 @@ public class NihmsPassClientService {
         //if the awardNumber is in the cache, retrieve URI.
         URI grantId = grantCache.get(awardNumber);
         if (grantId != null) {
-            return readGrant(grantId);
+            Grant grant = readGrant(grantId);
+            if (grant != null) {
+                return grant;
+            }
+            // the cached id may have come from a snapshot written before the Grant was removed
+            grantCache.remove(awardNumber);
+        }
+        if (grantCache.isNotFound(awardNumber)) {
+            return null;
         }
 
         // if we are here, there was nothing cached and we need to figure out which grant to return
-        Set<URI> grantIds = client.findAllByAttribute(Grant.class, AWARD_NUMBER_FLD, awardNumber);
+        Set<URI> grantIds = new HashSet<URI>();
+        for (String variant : awardNumberVariants(awardNumber)) {
+            grantIds.addAll(client.findAllByAttribute(Grant.class, AWARD_NUMBER_FLD, variant));
+        }
+
+        List<Grant> grants = new ArrayList<Grant>();
+        for (URI id : grantIds) {
+            grants.add(readGrant(id));
+        }
+
+        Grant mostRecentGrant = mostRecentGrant(grants);
+        if (mostRecentGrant != null) {
+            grantCache.put(awardNumber, mostRecentGrant.getId());
+        } else {
+            grantCache.putNotFound(awardNumber);
+        }
+        return mostRecentGrant;
+    }
+
+    /**
+     * Resolves the Grant for each of the award numbers provided and adds them to the grant cache, so that later
+     * calls to {@link #findMostRecentGrantByAwardNumber(String)} do not need to search the index. Each distinct
+     * award number, and each distinct form of it that is searched for, is only looked up once however many times
+     * it appears, and each matching Grant is only read once. Award numbers with no Grant are cached as not found.
+     *
+     * @param awardNumbers the award number of each record that will be processed, may contain duplicates and
+     *                     empty values
+     * @param threads      number of index searches and reads to run at the same time
+     * @return number of index searches saved compared with searching for the award number of each record
+     */
+    public int prefetchGrantsByAwardNumber(Collection<String> awardNumbers, int threads) {
+        int records = 0;
+        int perRecordSearches = 0;
+        Map<String, Set<String>> variantsByAward = new LinkedHashMap<String, Set<String>>();
+        for (String awardNumber : awardNumbers) {
+            if (nullOrEmpty(awardNumber)) {
+                continue;
+            }
+            Set<String> variants = awardNumberVariants(awardNumber);
+            records = records + 1;
+            perRecordSearches = perRecordSearches + variants.size();
+            String key = awardNumber.toLowerCase();
+            if (!variantsByAward.containsKey(key) && grantCache.get(key) == null && !grantCache.isNotFound(key)) {
+                variantsByAward.put(key, variants);
+            }
+        }
+
+        Set<String> searches = new LinkedHashSet<String>();
+        variantsByAward.values().forEach(searches::addAll);
+        Map<String, Set<URI>> matchesByVariant = new ConcurrentHashMap<String, Set<URI>>();
+        runAll(searches, threads, variant -> {
+            Set<URI> matches = client.findAllByAttribute(Grant.class, AWARD_NUMBER_FLD, variant);
+            matchesByVariant.put(variant, matches != null ? matches : Collections.<URI>emptySet());
+        });
+
+        Set<URI> grantIds = new LinkedHashSet<URI>();
+        matchesByVariant.values().forEach(grantIds::addAll);
+        Map<URI, Grant> grantsById = new ConcurrentHashMap<URI, Grant>();
+        runAll(grantIds, threads, id -> {
+            Grant grant = readGrant(id);
+            if (grant != null) {
+                grantsById.put(id, grant);
+            }
+        });
+
+        int found = 0;
+        for (Map.Entry<String, Set<String>> award : variantsByAward.entrySet()) {
+            Set<URI> awardGrantIds = new HashSet<URI>();
+            for (String variant : award.getValue()) {
+                awardGrantIds.addAll(matchesByVariant.get(variant));
+            }
+            List<Grant> grants = new ArrayList<Grant>();
+            for (URI id : awardGrantIds) {
+                if (grantsById.containsKey(id)) {
+                    grants.add(grantsById.get(id));
+                }
+            }
+            Grant mostRecentGrant = mostRecentGrant(grants);
+            if (mostRecentGrant != null) {
+                grantCache.put(award.getKey(), mostRecentGrant.getId());
+                found = found + 1;
+            } else {
+                grantCache.putNotFound(award.getKey());
+            }
+        }
+
+        int saved = perRecordSearches - searches.size();
+        LOG.info("Prefetched Grants for {} award numbers across {} records: {} found, {} not found. "
+                 + "Ran {} index searches and {} Grant reads, saving {} searches", variantsByAward.size(), records,
+                 found, variantsByAward.size() - found, searches.size(), grantIds.size(), saved);
+        return saved;
+    }
+
+    /**
+     * Loads the NIHMS RepositoryCopies, Deposits and Submissions, and the Publications they belong to, into the
+     * caches before any rows are processed, so that the lookups made for each row are answered locally. Each type is
+     * listed from the index in pages of the size given and the records are then read several at a time. Lookups for
+     * records that were not preloaded still go to the index. All of the Submissions for each preloaded Publication
+     * are also listed, one paged search per Publication, including any not linked to the NIHMS repository, so that
+     * the Submissions for a User and a preloaded Publication are found without searching the index. The caches of
+     * records should be large enough, and live long enough, to hold everything preloaded for the whole run.
+     *
+     * @param pageSize number of ids to list from the index per request
+     * @param threads  number of records to read at the same time
+     * @return number of records preloaded
+     */
+    public int preloadNihmsRecords(int pageSize, int threads) {
+        long start = System.currentTimeMillis();
+        Map<URI, RepositoryCopy> repoCopies = readResources(
+            findAllPaged(RepositoryCopy.class, REPOSITORY_FLD, nihmsRepoId, pageSize), RepositoryCopy.class, threads);
+        Map<URI, Deposit> deposits = readResources(findAllPaged(Deposit.class, REPOSITORY_FLD, nihmsRepoId, pageSize),
+                                                   Deposit.class, threads);
+        Map<URI, Submission> submissions = readResources(
+            findAllPaged(Submission.class, REPOSITORIES_FLD, nihmsRepoId, pageSize), Submission.class, threads);
+
+        Set<URI> pubIds = new LinkedHashSet<URI>();
+        repoCopies.values().forEach(repoCopy -> pubIds.add(repoCopy.getPublication()));
+        submissions.values().forEach(submission -> pubIds.add(submission.getPublication()));
+        pubIds.remove(null);
+        Map<URI, Publication> publications = readResources(pubIds, Publication.class, threads);
+
+        Map<URI, Set<URI>> submissionIdsByPub = new ConcurrentHashMap<URI, Set<URI>>();
+        runAll(publications.keySet(), threads, pubId -> submissionIdsByPub.put(
+            pubId, findAllPaged(Submission.class, PUBLICATION_FLD, pubId, pageSize)));
+        Set<URI> otherSubmissionIds = new LinkedHashSet<URI>();
+        submissionIdsByPub.values().forEach(otherSubmissionIds::addAll);
+        otherSubmissionIds.removeAll(submissions.keySet());
+        submissions.putAll(readResources(otherSubmissionIds, Submission.class, threads));
+
+        for (Map.Entry<URI, Publication> publication : publications.entrySet()) {
+            publicationRecords.put(publication.getKey(), publication.getValue());
+            publicationCache.put(publication.getValue().getPmid(), publication.getKey());
+            publicationDoiCache.put(publication.getValue().getDoi(), publication.getKey());
+        }
+        Set<URI> pubsWithoutRepoCopy = new HashSet<URI>(publications.keySet());
+        for (Map.Entry<URI, RepositoryCopy> repoCopy : repoCopies.entrySet()) {
+            repositoryCopyRecords.put(repoCopy.getKey(), repoCopy.getValue());
+            nihmsRepoCopyCache.put(repoCopy.getValue().getPublication(), repoCopy.getKey());
+            pubsWithoutRepoCopy.remove(repoCopy.getValue().getPublication());
+        }
+        pubsWithoutRepoCopy.forEach(nihmsRepoCopyCache::putNotFound);
+        for (Map.Entry<URI, Deposit> deposit : deposits.entrySet()) {
+            depositRecords.put(deposit.getKey(), deposit.getValue());
+            nihmsDepositCache.put(deposit.getValue().getSubmission(), deposit.getKey());
+        }
+        for (Map.Entry<URI, Submission> submission : submissions.entrySet()) {
+            submissionRecords.put(submission.getKey(), submission.getValue());
+            Submission value = submission.getValue();
+            if (value.getSubmitter() != null && value.getPublication() != null) {
+                String key = userIdPubIdKey(value.getSubmitter(), value.getPublication());
+                userPubSubsCache.addToOrCreateEntry(key, submission.getKey());
+                if (submissionIdsByPub.containsKey(value.getPublication())) {
+                    addPreloadedSubmission(key, submission.getKey());
+                }
+            }
+        }
+        // only once every Submission listed has been read are the Publication's Submissions fully known
+        for (Map.Entry<URI, Set<URI>> pubSubmissions : submissionIdsByPub.entrySet()) {
+            if (submissions.keySet().containsAll(pubSubmissions.getValue())) {
+                preloadedSubmissionPubs.add(pubSubmissions.getKey());
+            }
+        }
+
+        int total = publications.size() + repoCopies.size() + deposits.size() + submissions.size();
+        LOG.info("Preloaded {} NIHMS records in {}ms: {} Publications, {} RepositoryCopies, {} Deposits, "
+                 + "{} Submissions. The Submissions of {} Publications are fully known", total,
+                 System.currentTimeMillis() - start, publications.size(), repoCopies.size(), deposits.size(),
+                 submissions.size(), preloadedSubmissionPubs.size());
+        return total;
+    }
+
+    /**
+     * Records a Submission for a User and preloaded Publication
+     */
+    private void addPreloadedSubmission(String userIdPubIdKey, URI submissionId) {
+        preloadedUserPubSubs.computeIfAbsent(userIdPubIdKey, key -> ConcurrentHashMap.newKeySet()).add(submissionId);
+    }
+
+    /**
+     * Lists all of the ids matching an attribute value from the index, a page at a time
+     *
+     * @param type      the entity type
+     * @param attribute the attribute
+     * @param value     the value to match
+     * @param pageSize  number of ids per request
+     * @param <T>       the entity type
+     * @return the ids, in the order the index returned them
+     */
+    private <T extends PassEntity> Set<URI> findAllPaged(Class<T> type, String attribute, Object value,
+                                                         int pageSize) {
+        Set<URI> ids = new LinkedHashSet<URI>();
+        int offset = 0;
+        while (true) {
+            Set<URI> page = client.findAllByAttribute(type, attribute, value, pageSize, offset);
+            if (nullOrEmpty(page)) {
+                break;
+            }
+            ids.addAll(page);
+            if (page.size() < pageSize) {
+                break;
+            }
+            offset = offset + pageSize;
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the resources given, several at a time
+     *
+     * @param ids     the ids of the resources
+     * @param type    the entity type
+     * @param threads number of resources to read at the same time
+     * @param <T>     the entity type
+     * @return the resources found, by id
+     */
+    private <T extends PassEntity> Map<URI, T> readResources(Collection<URI> ids, Class<T> type, int threads) {
+        Map<URI, T> resources = new ConcurrentHashMap<URI, T>();
+        runAll(ids, threads, id -> {
+            T resource = client.readResource(id, type);
+            if (resource != null) {
+                resources.put(id, resource);
+            }
+        });
+        return resources;
+    }
+
+    /**
+     * Gets the forms of an award number to search for: as passed in, without spaces, and without a "-##" suffix
+     *
+     * @param awardNumber the award number
+     * @return the distinct forms of the award number, in the order they should be searched
+     */
+    private static Set<String> awardNumberVariants(String awardNumber) {
+        Set<String> variants = new LinkedHashSet<String>();
+        variants.add(awardNumber);
 
         //try with no spaces
         String modAwardNum = awardNumber.replaceAll("\\s+", "");
-        if (!awardNumber.equals(modAwardNum)) {
-            grantIds.addAll(client.findAllByAttribute(Grant.class, AWARD_NUMBER_FLD, modAwardNum));
-        }
+        variants.add(modAwardNum);
 
         //if there is a "-##" at the end of the award number, remove it and search again
         if (modAwardNum.contains("-") && modAwardNum.indexOf("-") > 9) {
-            modAwardNum = modAwardNum.substring(0, modAwardNum.indexOf("-"));
-            grantIds.addAll(client.findAllByAttribute(Grant.class, AWARD_NUMBER_FLD, modAwardNum));
-        }
-
-        List<Grant> grants = new ArrayList<Grant>();
-        for (URI id : grantIds) {
-            grants.add(readGrant(id));
+            variants.add(modAwardNum.substring(0, modAwardNum.indexOf("-")));
         }
+        return variants;
+    }
 
+    /**
+     * @param grants the grants matching an award number
+     * @return the grant with the latest start date, or null if there are none
+     */
+    private static Grant mostRecentGrant(List<Grant> grants) {
         if (grants.size() == 1) {
             return grants.get(0);
         } else if (grants.size() > 0) {
-            Grant mostRecentGrant = Collections.max(grants, Comparator.comparing(Grant::getStartDate));
-            grantCache.put(awardNumber, mostRecentGrant.getId());
-            return mostRecentGrant;
+            return Collections.max(grants, Comparator.comparing(Grant::getStartDate));
         }
-
         return null;
     }
 
+    /**
+     * Runs an action for each item, using the number of threads given
+     *
+     * @param items   the items
+     * @param threads number of items to process at the same time, 1 or less runs them in the calling thread
+     * @param action  the action
+     * @param <T>     the type of item
+     */
+    private static <T> void runAll(Collection<T> items, int threads, Consumer<T> action) {
+        if (threads <= 1 || items.size() <= 1) {
+            items.forEach(action);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, items.size()));
+        try {
+            runAll(items, executor, action);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs an action for each item on the executor given, and waits for them all to finish
+     *
+     * @param items    the items
+     * @param executor the executor
+     * @param action   the action
+     * @param <T>      the type of item
+     */
+    private static <T> void runAll(Collection<T> items, ExecutorService executor, Consumer<T> action) {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (T item : items) {
+                futures.add(executor.submit(() -> action.accept(item)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for requests to PASS", ex);
+        } catch (ExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("Request to PASS failed", ex.getCause());
+        }
+    }
+
     /**
      * Looks up publication using PMID, since this is the most reliable field to match. Checks publication
-     * cache first, then checks index
+     * cache first, then checks index. A PMID with no publication is cached for a short time so that the index
+     * is not searched again for it, unless a publication is created for it in the meantime.
      *
      * @param pmid the pub med id
      * @return the publication, or {@code null} if it can't be found
@@ -193,16 +860,25 @@ public class NihmsPassClientService {
         //if the pmid/publicationId pair is in the cache, retrieve it.
         URI publicationId = publicationCache.get(pmid);
 
-        if (publicationId == null) {
-            publicationId = findPublicationByArticleId(pmid, "pmid");
+        if (publicationId != null) {
+            Publication publication = readPublication(publicationId);
+            if (publication != null) {
+                return publication;
+            }
+            // the cached id may have come from a snapshot written before the Publication was removed
+            publicationCache.remove(pmid);
+        } else if (publicationCache.isNotFound(pmid)) {
+            return null;
         }
 
+        publicationId = findPublicationByArticleId(pmid, "pmid");
         if (publicationId != null) {
             Publication publication = readPublication(publicationId);
             publicationCache.put(pmid, publicationId);
             return publication;
         }
 
+        publicationCache.putNotFound(pmid);
         return null;
     }
 
@@ -223,12 +899,14 @@ public class NihmsPassClientService {
         URI publicationId = publicationCache.get(pmid);
 
         if (doi != null) {
-            publicationId = findPublicationByArticleId(doi, "doi");
+            URI doiMatch = publicationDoiCache.get(doi);
+            publicationId = (doiMatch != null ? doiMatch : findPublicationByArticleId(doi, "doi"));
         }
 
         if (publicationId != null) {
             Publication publication = readPublication(publicationId);
             publicationCache.put(pmid, publicationId);
+            publicationDoiCache.put(doi, publicationId);
             return publication;
         }
 
@@ -236,7 +914,8 @@ public class NihmsPassClientService {
     }
 
     /**
-     * Find NIHMS RepositoryCopy record for a publicationId
+     * Find NIHMS RepositoryCopy record for a publicationId. A publicationId with no NIHMS RepositoryCopy is cached
+     * for a short time, unless a RepositoryCopy is created for it in the meantime.
      *
      * @param pubId the publication id
      * @return the repository copy, or {@code null} if it can't be found
@@ -249,26 +928,37 @@ public class NihmsPassClientService {
         //if the publicationId can be matched in the cache of NIHMS Repository Copy ID mappings, retrieve it
         URI repoCopyId = nihmsRepoCopyCache.get(pubId);
 
-        if (repoCopyId == null) {
-            Map<String, Object> attribs = new HashMap<String, Object>();
-            attribs.put(PUBLICATION_FLD, pubId);
-            attribs.put(REPOSITORY_FLD, nihmsRepoId);
-
-            Set<URI> repositoryCopies = client.findAllByAttributes(RepositoryCopy.class, attribs);
-            if (nullOrEmpty(repositoryCopies)) {
-                return null;
-            } else if (repositoryCopies != null && repositoryCopies.size() == 1) {
-                repoCopyId = repositoryCopies.iterator().next();
-            } else if (repositoryCopies != null && repositoryCopies.size() > 1) {
-                throw new RuntimeException(
-                    String.format("There are multiple repository copies matching RepositoryId %s and PublicationId %s. "
-                                  + "This indicates a data corruption, please check the data and try again.", pubId,
-                                  nihmsRepoId));
+        if (repoCopyId != null) {
+            RepositoryCopy repoCopy = readAndKeepSnapshot(repoCopyId, RepositoryCopy.class, repositoryCopyRecords);
+            if (repoCopy != null) {
+                return repoCopy;
             }
+            // the cached id may have come from a snapshot written before the RepositoryCopy was removed
+            nihmsRepoCopyCache.remove(pubId);
+            repoCopyId = null;
+        } else if (nihmsRepoCopyCache.isNotFound(pubId)) {
+            return null;
+        }
+
+        Map<String, Object> attribs = new HashMap<String, Object>();
+        attribs.put(PUBLICATION_FLD, pubId);
+        attribs.put(REPOSITORY_FLD, nihmsRepoId);
+
+        Set<URI> repositoryCopies = client.findAllByAttributes(RepositoryCopy.class, attribs);
+        if (nullOrEmpty(repositoryCopies)) {
+            nihmsRepoCopyCache.putNotFound(pubId);
+            return null;
+        } else if (repositoryCopies != null && repositoryCopies.size() == 1) {
+            repoCopyId = repositoryCopies.iterator().next();
+        } else if (repositoryCopies != null && repositoryCopies.size() > 1) {
+            throw new RuntimeException(
+                String.format("There are multiple repository copies matching RepositoryId %s and PublicationId %s. "
+                              + "This indicates a data corruption, please check the data and try again.", pubId,
+                              nihmsRepoId));
         }
 
         if (repoCopyId != null) {
-            RepositoryCopy repoCopy = (RepositoryCopy) client.readResource(repoCopyId, RepositoryCopy.class);
+            RepositoryCopy repoCopy = readAndKeepSnapshot(repoCopyId, RepositoryCopy.class, repositoryCopyRecords);
             this.nihmsRepoCopyCache.put(pubId, repoCopy.getId());
             return repoCopy;
         }
@@ -278,7 +968,10 @@ public class NihmsPassClientService {
     }
 
     /**
-     * Searches for Submissions matching a specific publication and User Id (Submission.submitter)
+     * Searches for Submissions matching a specific publication and User Id (Submission.submitter). If the
+     * publication's Submissions were preloaded, they are taken from the preloaded records without searching the index.
+     * Submissions found recently are taken from a short-lived cache, the rest are read at the same time, up to
+     * {@code nihmsetl.loader.submission.read-threads} at once.
      *
      * @param pubId  the publication id
      * @param userId the user id
@@ -296,11 +989,15 @@ public class NihmsPassClientService {
 
         List<Submission> submissions = new ArrayList<Submission>();
 
-        Map<String, Object> attribs = new HashMap<String, Object>();
-        attribs.put(PUBLICATION_FLD, pubId);
-        attribs.put(SUBMITTER_FLD, userId);
-
-        Set<URI> uris = client.findAllByAttributes(Submission.class, attribs);
+        Set<URI> uris;
+        if (preloadedSubmissionPubs.contains(pubId)) {
+            uris = new HashSet<URI>(preloadedUserPubSubs.getOrDefault(userIdPubIdKey, Collections.<URI>emptySet()));
+        } else {
+            Map<String, Object> attribs = new HashMap<String, Object>();
+            attribs.put(PUBLICATION_FLD, pubId);
+            attribs.put(SUBMITTER_FLD, userId);
+            uris = client.findAllByAttributes(Submission.class, attribs);
+        }
 
         //in addition we will check the cache to see if it has any other Submissions that the indexer didn't detect
         Set<URI> cachedUris = userPubSubsCache.get(userIdPubIdKey);
@@ -310,8 +1007,28 @@ public class NihmsPassClientService {
             uris.addAll(cachedUris);
         }
 
+        Map<URI, Submission> found = new ConcurrentHashMap<URI, Submission>();
+        List<URI> toRead = new ArrayList<URI>();
         for (URI uri : uris) {
-            submissions.add(readSubmission(uri));
+            Submission cached = readCachedAndKeepSnapshot(uri, submissionRecords);
+            if (cached != null) {
+                found.put(uri, cached);
+            } else {
+                toRead.add(uri);
+            }
+        }
+        readAll(toRead, uri -> {
+            Submission submission = readSubmission(uri);
+            if (submission != null) {
+                found.put(uri, submission);
+            }
+        });
+
+        for (URI uri : uris) {
+            Submission submission = found.get(uri);
+            if (submission != null) {
+                submissions.add(submission);
+            }
         }
 
         userPubSubsCache.put(userIdPubIdKey, uris);
@@ -339,7 +1056,8 @@ public class NihmsPassClientService {
     }
 
     /**
-     * Look up Journal URI using ISSN
+     * Look up Journal URI using ISSN. The result is cached, and when no Journal was found that is cached for a short
+     * time.
      *
      * @param issn the issn
      * @return the journal for the ISSN, may be {@code null} if not found
@@ -348,7 +1066,17 @@ public class NihmsPassClientService {
         if (nullOrEmpty(issn)) {
             return null;
         }
-        return client.findByAttribute(Journal.class, ISSNS_FLD, issn);
+        URI journalId = journalCache.get(issn);
+        if (journalId != null || journalCache.isNotFound(issn)) {
+            return journalId;
+        }
+        journalId = client.findByAttribute(Journal.class, ISSNS_FLD, issn);
+        if (journalId != null) {
+            journalCache.put(issn, journalId);
+        } else {
+            journalCache.putNotFound(issn);
+        }
+        return journalId;
     }
 
     /**
@@ -365,24 +1093,32 @@ public class NihmsPassClientService {
         //if the depositId is in the cache, retrieve it.
         URI depositId = nihmsDepositCache.get(submissionId);
 
-        if (depositId == null) {
-            //search for deposit
-            Map<String, Object> attribs = new HashMap<String, Object>();
-            attribs.put(SUBMISSION_FLD, submissionId);
-            attribs.put(REPOSITORY_FLD, nihmsRepoId);
-            Set<URI> matches = client.findAllByAttributes(Deposit.class, attribs);
-            if (matches != null && matches.size() == 1) {
-                depositId = matches.iterator().next();
-            } else if (!nullOrEmpty(matches)) {
-                throw new RuntimeException(
-                    String.format("There are multiple Deposits matching submissionId %s and repositoryId %s. "
-                                  + "This indicates a data corruption, please check the data and try again.",
-                                  submissionId, nihmsRepoId));
+        if (depositId != null) {
+            Deposit deposit = readAndKeepSnapshot(depositId, Deposit.class, depositRecords);
+            if (deposit != null) {
+                return deposit;
             }
+            // the cached id may have come from a snapshot written before the Deposit was removed
+            nihmsDepositCache.remove(submissionId);
+            depositId = null;
+        }
+
+        //search for deposit
+        Map<String, Object> attribs = new HashMap<String, Object>();
+        attribs.put(SUBMISSION_FLD, submissionId);
+        attribs.put(REPOSITORY_FLD, nihmsRepoId);
+        Set<URI> matches = client.findAllByAttributes(Deposit.class, attribs);
+        if (matches != null && matches.size() == 1) {
+            depositId = matches.iterator().next();
+        } else if (!nullOrEmpty(matches)) {
+            throw new RuntimeException(
+                String.format("There are multiple Deposits matching submissionId %s and repositoryId %s. "
+                              + "This indicates a data corruption, please check the data and try again.",
+                              submissionId, nihmsRepoId));
         }
 
         if (depositId != null) {
-            Deposit deposit = client.readResource(depositId, Deposit.class);
+            Deposit deposit = readAndKeepSnapshot(depositId, Deposit.class, depositRecords);
             this.nihmsDepositCache.put(deposit.getSubmission(), deposit.getId());
             return deposit;
         }
@@ -391,7 +1127,7 @@ public class NihmsPassClientService {
     }
 
     /**
-     * Retrieve full grant record from database
+     * Retrieve full grant record, from the cache if it has been read recently
      *
      * @param grantId the grant id
      * @return Grant if found, or null if not found
@@ -400,12 +1136,17 @@ public class NihmsPassClientService {
         if (grantId == null) {
             throw new IllegalArgumentException("grantId cannot be empty");
         }
-        Object grantObj = client.readResource(grantId, Grant.class);
-        return (grantObj != null ? (Grant) grantObj : null);
+        Grant grant = grantRecords.get(grantId);
+        if (grant == null) {
+            grant = client.readResource(grantId, Grant.class);
+            grantRecords.put(grantId, grant);
+        }
+        return grant;
     }
 
     /**
-     * Retrieve full publication record from database
+     * Retrieve full publication record, from the cache if it has been read recently. The caller is given its own
+     * copy, so changes it makes do not affect the cache.
      *
      * @param publicationId the publication id
      * @return Publication if found, or null if not found
@@ -414,12 +1155,12 @@ public class NihmsPassClientService {
         if (publicationId == null) {
             throw new IllegalArgumentException("publicationId cannot be empty");
         }
-        Object publicationObj = client.readResource(publicationId, Publication.class);
-        return (publicationObj != null ? (Publication) publicationObj : null);
+        return readAndKeepSnapshot(publicationId, Publication.class, publicationRecords);
     }
 
     /**
-     * Retrieve full Submission record
+     * Retrieve full Submission record, from the cache if it has been read recently. The caller is given its own
+     * copy, so changes it makes do not affect the cache.
      *
      * @param submissionId the submission id
      * @return matching submission or null if none found
@@ -428,8 +1169,7 @@ public class NihmsPassClientService {
         if (submissionId == null) {
             throw new IllegalArgumentException("submissionId cannot be empty");
         }
-        Object submissionObj = client.readResource(submissionId, Submission.class);
-        return (submissionObj != null ? (Submission) submissionObj : null);
+        return readAndKeepSnapshot(submissionId, Submission.class, submissionRecords);
     }
 
     /**
@@ -442,8 +1182,7 @@ public class NihmsPassClientService {
         if (depositId == null) {
             throw new IllegalArgumentException("depositId cannot be empty");
         }
-        Object depositObj = client.readResource(depositId, Deposit.class);
-        return (depositObj != null ? (Deposit) depositObj : null);
+        return readAndKeepSnapshot(depositId, Deposit.class, depositRecords);
     }
 
     /**
@@ -461,6 +1200,7 @@ public class NihmsPassClientService {
         LOG.info("New Publication created with URI {}", publicationId);
         //add to local cache for faster lookup
         publicationCache.put(publication.getPmid(), publicationId);
+        publicationDoiCache.put(publication.getDoi(), publicationId);
         return publicationId;
     }
 
@@ -473,6 +1213,9 @@ public class NihmsPassClientService {
         LOG.info("New Submission created with URI {}", submissionId);
         String key = userIdPubIdKey(submission.getSubmitter(), submission.getPublication());
         userPubSubsCache.addToOrCreateEntry(key, submissionId);
+        if (preloadedSubmissionPubs.contains(submission.getPublication())) {
+            addPreloadedSubmission(key, submissionId);
+        }
         return submissionId;
     }
 
@@ -488,12 +1231,18 @@ public class NihmsPassClientService {
     }
 
     /**
+     * Updates the publication if it has changed. If this service read the publication, it is compared with the copy
+     * kept when it was read rather than being read again. The publication keeps the version tag it was read with, so
+     * the PASS client only writes it if it has not been changed by something else since, otherwise an
+     * UpdateConflictException is thrown.
+     *
      * @param publication the publication
      * @return true if record needed to be updated, false if no update
      */
     public boolean updatePublication(Publication publication) {
-        Publication origPublication = (Publication) client.readResource(publication.getId(), Publication.class);
+        Publication origPublication = originalOf(publication, Publication.class);
         if (!origPublication.equals(publication)) {
+            publicationRecords.remove(publication.getId());
             client.updateResource(publication);
             LOG.info("Publication with URI {} was updated ", publication.getId());
             return true;
@@ -502,17 +1251,23 @@ public class NihmsPassClientService {
     }
 
     /**
+     * Updates the submission if it has changed, in the same way as {@link #updatePublication(Publication)}
+     *
      * @param submission the submission
      * @return true if record needed to be updated, false if no update
      */
     public boolean updateSubmission(Submission submission) {
-        Submission origSubmission = (Submission) client.readResource(submission.getId(), Submission.class);
+        Submission origSubmission = originalOf(submission, Submission.class);
         if (!origSubmission.equals(submission)) {
+            submissionRecords.remove(submission.getId());
             client.updateResource(submission);
 
             //shouldnt be necessary, but just to be sure... make sure this is in cache:
             String key = userIdPubIdKey(submission.getSubmitter(), submission.getPublication());
             userPubSubsCache.addToOrCreateEntry(key, submission.getId());
+            if (preloadedSubmissionPubs.contains(submission.getPublication())) {
+                addPreloadedSubmission(key, submission.getId());
+            }
 
             LOG.info("Submission with URI {} was updated ", submission.getId());
             return true;
@@ -521,13 +1276,15 @@ public class NihmsPassClientService {
     }
 
     /**
+     * Updates the repository copy if it has changed, in the same way as {@link #updatePublication(Publication)}
+     *
      * @param repositoryCopy the repository copy
      * @return true if record needed to be updated, false if no update
      */
     public boolean updateRepositoryCopy(RepositoryCopy repositoryCopy) {
-        RepositoryCopy origRepoCopy = (RepositoryCopy) client.readResource(repositoryCopy.getId(),
-                                                                           RepositoryCopy.class);
+        RepositoryCopy origRepoCopy = originalOf(repositoryCopy, RepositoryCopy.class);
         if (!origRepoCopy.equals(repositoryCopy)) {
+            repositoryCopyRecords.remove(repositoryCopy.getId());
             client.updateResource(repositoryCopy);
             LOG.info("RepositoryCopy with URI {} was updated ", repositoryCopy.getId());
             return true;
@@ -536,12 +1293,15 @@ public class NihmsPassClientService {
     }
 
     /**
+     * Updates the deposit if it has changed, in the same way as {@link #updatePublication(Publication)}
+     *
      * @param deposit the deposit
      * @return true if record needed to be updated, false if no update
      */
     public boolean updateDeposit(Deposit deposit) {
-        Deposit origDeposit = (Deposit) client.readResource(deposit.getId(), Deposit.class);
+        Deposit origDeposit = originalOf(deposit, Deposit.class);
         if (!origDeposit.equals(deposit)) {
+            depositRecords.remove(deposit.getId());
             client.updateResource(deposit);
             LOG.info("Deposit with URI {} was updated ", deposit.getId());
             return true;
@@ -549,6 +1309,126 @@ public class NihmsPassClientService {
         return false;
     }
 
+    /**
+     * Reads an entity and keeps a copy of it as read, so that it can later be updated without reading it again
+     *
+     * @param id   the entity id
+     * @param type the entity type
+     * @param <T>  the entity type
+     * @return the entity, or null if not found
+     */
+    private <T extends PassEntity> T readAndKeepSnapshot(URI id, Class<T> type) {
+        T entity = client.readResource(id, type);
+        if (entity != null) {
+            snapshots.put(id, copyOf(entity));
+        }
+        return entity;
+    }
+
+    /**
+     * Gets a copy of an entity from the cache given, or reads it if it is not cached and adds it to the cache. In
+     * both cases a copy is kept as in {@link #readAndKeepSnapshot(URI, Class)}.
+     *
+     * @param id      the entity id
+     * @param type    the entity type
+     * @param records the cache of entities of this type
+     * @param <T>     the entity type
+     * @return the entity, or null if not found
+     */
+    private <T extends PassEntity> T readAndKeepSnapshot(URI id, Class<T> type, EntityCache<T> records) {
+        T entity = readCachedAndKeepSnapshot(id, records);
+        if (entity == null) {
+            entity = readAndKeepSnapshot(id, type);
+            records.put(id, entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Gets a copy of an entity from the cache given, keeping a copy as in {@link #readAndKeepSnapshot(URI, Class)}
+     *
+     * @param id      the entity id
+     * @param records the cache of entities of this type
+     * @param <T>     the entity type
+     * @return the entity, or null if it is not cached
+     */
+    private <T extends PassEntity> T readCachedAndKeepSnapshot(URI id, EntityCache<T> records) {
+        T entity = records.get(id);
+        if (entity != null) {
+            snapshots.put(id, copyOf(entity));
+        }
+        return entity;
+    }
+
+    /**
+     * Gets the entity as it was when it was read, to compare with the changed entity passed in. The copy kept when
+     * it was read is used if it is of the same version, otherwise the entity is read again.
+     *
+     * @param entity the changed entity
+     * @param type   the entity type
+     * @param <T>    the entity type
+     * @return the entity as read
+     */
+    private <T extends PassEntity> T originalOf(T entity, Class<T> type) {
+        PassEntity snapshot = snapshots.get(entity.getId());
+        snapshots.remove(entity.getId());
+        if (type.isInstance(snapshot) && Objects.equals(snapshot.getVersionTag(), entity.getVersionTag())) {
+            return type.cast(snapshot);
+        }
+        return client.readResource(entity.getId(), type);
+    }
+
+    /**
+     * @param entity the entity
+     * @return a copy of the entity, so that changes made to the original do not affect it
+     */
+    private static PassEntity copyOf(PassEntity entity) {
+        if (entity instanceof Publication) {
+            return new Publication((Publication) entity);
+        } else if (entity instanceof Submission) {
+            return new Submission((Submission) entity);
+        } else if (entity instanceof RepositoryCopy) {
+            return new RepositoryCopy((RepositoryCopy) entity);
+        } else if (entity instanceof Deposit) {
+            return new Deposit((Deposit) entity);
+        }
+        throw new IllegalArgumentException("Cannot copy entity of type " + entity.getClass().getName());
+    }
+
+    /**
+     * Reads the resources given, several at a time when there is more than one
+     *
+     * @param ids  the ids of the resources to read
+     * @param read reads one resource
+     */
+    private void readAll(List<URI> ids, Consumer<URI> read) {
+        if (submissionReadThreads <= 1 || ids.size() <= 1) {
+            ids.forEach(read);
+        } else {
+            runAll(ids, readExecutor(), read);
+        }
+    }
+
+    /**
+     * @return the executor used for concurrent reads, whose threads stop when idle
+     */
+    private synchronized ExecutorService readExecutor() {
+        if (readExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(submissionReadThreads, submissionReadThreads, 30,
+                                                                 TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                                                 NihmsPassClientService::newReadThread);
+            executor.allowCoreThreadTimeOut(true);
+            readExecutor = executor;
+        }
+        return readExecutor;
+    }
+
+    private static Thread newReadThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "pass-read");
+        thread.setDaemon(true);
+        return thread;
+    }
+
     private static String userIdPubIdKey(URI userId, URI pubId) {
         return userId.toString() + pubId.toString();
     }
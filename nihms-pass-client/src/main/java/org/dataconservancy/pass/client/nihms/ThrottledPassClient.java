@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Semaphore;
+
+import org.dataconservancy.pass.client.PassClient;
+
+/**
+ * Wraps a PassClient so that no more than a fixed number of requests to the PASS backend can be in progress at the
+ * same time. Callers beyond the limit wait for a permit. This allows the loader to run many records at once without
+ * overwhelming Fedora or the index.
+ */
+class ThrottledPassClient implements InvocationHandler {
+
+    private final PassClient client;
+
+    private final Semaphore permits;
+
+    private ThrottledPassClient(PassClient client, int maxConcurrentRequests) {
+        this.client = client;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    /**
+     * Wrap a PassClient so that it allows no more than {@code maxConcurrentRequests} calls at once
+     *
+     * @param client                the client to wrap
+     * @param maxConcurrentRequests maximum number of calls in progress at once, must be greater than 0
+     * @return the throttled client
+     */
+    static PassClient wrap(PassClient client, int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be greater than 0");
+        }
+        return (PassClient) Proxy.newProxyInstance(PassClient.class.getClassLoader(),
+                                                   new Class<?>[] {PassClient.class},
+                                                   new ThrottledPassClient(client, maxConcurrentRequests));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass().equals(Object.class)) {
+            return method.invoke(client, args);
+        }
+        permits.acquire();
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        } finally {
+            permits.release();
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * {@link IdCache} backed by Caffeine. Once full, entries are evicted using Window TinyLFU, which keeps the entries
+ * that are used most often rather than only the most recent ones. Reads do not take a lock.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public class CaffeineIdCache<K, V> implements IdCache<K, V> {
+
+    private final Cache<K, V> cache;
+
+    /**
+     * @param maxEntries maximum number of entries, 0 or less for no limit
+     * @param ttlMillis  time after an entry is written that it expires, 0 or less for entries that do not expire
+     */
+    public CaffeineIdCache(long maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, Ticker.systemTicker(), null);
+    }
+
+    /**
+     * @param maxEntries maximum number of entries, 0 or less for no limit
+     * @param ttlMillis  time after an entry is written that it expires, 0 or less for entries that do not expire
+     * @param ticker     source of time used for expiry
+     * @param executor   executor used for eviction, or null to use the default
+     */
+    CaffeineIdCache(long maxEntries, long ttlMillis, Ticker ticker, Executor executor) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats().ticker(ticker);
+        if (maxEntries > 0) {
+            builder.maximumSize(maxEntries);
+        }
+        if (ttlMillis > 0) {
+            builder.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        }
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        this.cache = builder.build();
+    }
+
+    @Override
+    public V get(K key) {
+        return (key != null ? cache.getIfPresent(key) : null);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        if (key != null && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        return (key != null ? cache.asMap().compute(key, remapping) : remapping.apply(null, null));
+    }
+
+    @Override
+    public void remove(K key) {
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        cache.asMap().forEach(action);
+    }
+
+    @Override
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public IdCacheStats getStats() {
+        CacheStats stats = cache.stats();
+        return new IdCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+}
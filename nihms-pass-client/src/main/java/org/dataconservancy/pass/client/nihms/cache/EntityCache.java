@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import java.net.URI;
+import java.util.function.UnaryOperator;
+
+import org.dataconservancy.pass.model.PassEntity;
+
+/**
+ * Caches whole PASS entities by id. Entities are copied on the way in and on the way out, so changes a caller makes
+ * to an entity it was given do not change the cached entity.
+ *
+ * @param <T> the type of entity
+ */
+public class EntityCache<T extends PassEntity> {
+
+    private final IdCache<URI, T> entityCache;
+
+    private final UnaryOperator<T> copier;
+
+    /**
+     * @param entityCache the cache of entities by id
+     * @param copier      makes a copy of an entity, usually its copy constructor
+     */
+    public EntityCache(IdCache<URI, T> entityCache, UnaryOperator<T> copier) {
+        this.entityCache = entityCache;
+        this.copier = copier;
+    }
+
+    /**
+     * Add a copy of the entity to the cache. Ignored if the id or entity is null.
+     *
+     * @param id     the id the entity was read with
+     * @param entity the entity
+     */
+    public void put(URI id, T entity) {
+        if (id != null && entity != null) {
+            entityCache.put(id, copier.apply(entity));
+        }
+    }
+
+    /**
+     * Retrieve a copy of the entity by id
+     *
+     * @param id the entity id
+     * @return a copy of the cached entity, or null if it is not cached
+     */
+    public T get(URI id) {
+        T entity = entityCache.get(id);
+        return (entity != null ? copier.apply(entity) : null);
+    }
+
+    /**
+     * Remove an entity from cache
+     *
+     * @param id the entity id
+     */
+    public void remove(URI id) {
+        entityCache.remove(id);
+    }
+
+    /**
+     * Get number of cached entities
+     *
+     * @return the number of cached entities
+     */
+    public int size() {
+        return (int) entityCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached entities
+     */
+    public IdCacheStats getStats() {
+        return entityCache.getStats();
+    }
+
+    /**
+     * Empty cache
+     */
+    public void clear() {
+        entityCache.clear();
+    }
+
+}
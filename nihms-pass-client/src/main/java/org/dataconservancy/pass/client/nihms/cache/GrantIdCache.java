@@ -16,27 +16,26 @@
 package org.dataconservancy.pass.client.nihms.cache;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.function.BiConsumer;
 
 /**
- * Caches awardNumber and grantId combination for easy lookup
+ * Caches awardNumber and grantId combination for easy lookup. Also remembers, for a limited time, award numbers
+ * that were looked up and found to have no matching Grant.
  *
  * @author Karen Hanson
  */
 public class GrantIdCache {
 
-    private HashMap<String, URI> grantCache;
-    private static GrantIdCache grantSpace = null;
+    private final IdCache<String, URI> grantCache;
+    private final IdCache<String, Boolean> notFoundCache;
 
-    private GrantIdCache() {
-        grantCache = new HashMap<String, URI>();
-    }
-
-    public static synchronized GrantIdCache getInstance() {
-        if (grantSpace == null) {
-            grantSpace = new GrantIdCache();
-        }
-        return grantSpace;
+    /**
+     * @param grantCache    the cache of grantIds by lower case awardNumber
+     * @param notFoundCache the cache of lower case award numbers with no Grant, entries should expire
+     */
+    public GrantIdCache(IdCache<String, URI> grantCache, IdCache<String, Boolean> notFoundCache) {
+        this.grantCache = grantCache;
+        this.notFoundCache = notFoundCache;
     }
 
     /**
@@ -45,9 +44,33 @@ public class GrantIdCache {
      * @param awardNumber the award number
      * @param grantId     the grant id
      */
-    public synchronized void put(String awardNumber, URI grantId) {
+    public void put(String awardNumber, URI grantId) {
         awardNumber = awardNumber.toLowerCase();
         grantCache.put(awardNumber, grantId);
+        notFoundCache.remove(awardNumber);
+    }
+
+    /**
+     * Record that no Grant matches the awardNumber. Ignored if a grantId is already cached for the awardNumber.
+     *
+     * @param awardNumber the award number
+     */
+    public void putNotFound(String awardNumber) {
+        awardNumber = awardNumber.toLowerCase();
+        if (grantCache.get(awardNumber) == null) {
+            notFoundCache.put(awardNumber, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Check whether the awardNumber was recorded as having no matching Grant
+     *
+     * @param awardNumber the award number
+     * @return true if the award number is known to have no Grant and the entry has not expired
+     */
+    public boolean isNotFound(String awardNumber) {
+        awardNumber = awardNumber.toLowerCase();
+        return notFoundCache.get(awardNumber) != null;
     }
 
     /**
@@ -56,7 +79,7 @@ public class GrantIdCache {
      * @param awardNumber the award number
      * @return the grant id
      */
-    public synchronized URI get(String awardNumber) {
+    public URI get(String awardNumber) {
         awardNumber = awardNumber.toLowerCase();
         return grantCache.get(awardNumber);
     }
@@ -66,9 +89,10 @@ public class GrantIdCache {
      *
      * @param awardNumber the award number
      */
-    public synchronized void remove(String awardNumber) {
+    public void remove(String awardNumber) {
         awardNumber = awardNumber.toLowerCase();
         grantCache.remove(awardNumber);
+        notFoundCache.remove(awardNumber);
     }
 
     /**
@@ -76,15 +100,39 @@ public class GrantIdCache {
      *
      * @return number of cached grants
      */
-    public synchronized int size() {
-        return grantCache.size();
+    public int size() {
+        return (int) grantCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached grants
+     */
+    public IdCacheStats getStats() {
+        return grantCache.getStats();
+    }
+
+    /**
+     * @return hits, misses and evictions for the award numbers with no Grant
+     */
+    public IdCacheStats getNotFoundStats() {
+        return notFoundCache.getStats();
+    }
+
+    /**
+     * Calls the action for each cached awardNumber and grantId pair
+     *
+     * @param action the action
+     */
+    public void forEach(BiConsumer<String, URI> action) {
+        grantCache.forEach(action);
     }
 
     /**
      * Empty map
      */
-    public synchronized void clear() {
+    public void clear() {
         grantCache.clear();
+        notFoundCache.clear();
     }
 
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * A bounded map of keys to ids used by the caches of PASS records. Implementations decide how entries are evicted
+ * once the cache is full and may expire entries a fixed time after they were written. Implementations must be safe
+ * to use from several threads. Nothing is cached for a null key or value.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public interface IdCache<K, V> {
+
+    /**
+     * @param key the key
+     * @return the value cached for the key, or null if there is none
+     */
+    V get(K key);
+
+    /**
+     * @param key   the key
+     * @param value the value to cache for the key, ignored if either is null
+     */
+    void put(K key, V value);
+
+    /**
+     * Atomically replaces the value cached for a key
+     *
+     * @param key       the key
+     * @param remapping given the key and the current value, or null if there is none, returns the new value, or
+     *                  null to remove the entry
+     * @return the new value, or null if there is none
+     */
+    V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping);
+
+    /**
+     * @param key the key to remove
+     */
+    void remove(K key);
+
+    /**
+     * Calls the action for each entry cached. Entries added or removed while this runs may or may not be included.
+     *
+     * @param action the action, given the key and value of each entry
+     */
+    void forEach(BiConsumer<? super K, ? super V> action);
+
+    /**
+     * @return the approximate number of entries cached
+     */
+    long size();
+
+    /**
+     * Remove all entries
+     */
+    void clear();
+
+    /**
+     * @return the number of hits, misses and evictions since the cache was created
+     */
+    IdCacheStats getStats();
+
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The contents of the id caches saved to a file, so that a later run can start with the ids found by this one.
+ * Entries are grouped into named sections, one per cache, and each entry maps a key to one or more ids.
+ * <p>
+ * The file is binary and compact. Keys are written in sorted order, each as the number of leading characters it
+ * shares with the previous key followed by the rest of the key. Ids that start with the longest prefix common to all
+ * of the ids, usually the Fedora base URL, are written without it. Lengths and counts are written as varints. The
+ * file starts with the time it was written and the environment it was written for, and ends with a CRC32 of
+ * everything before it. A file that is damaged, too old or from a different environment is not used.
+ * </p>
+ * <p>
+ * Each entry also records when its ids were first seen, written as the number of milliseconds before the time the
+ * file was written. An entry that is carried over from one snapshot to the next keeps the time it was first seen, so
+ * entries that are older than the maximum age are dropped when the file is read even if the file itself is new.
+ * </p>
+ */
+public class IdCacheSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IdCacheSnapshot.class);
+
+    private static final int MAGIC = 0x4e494453;
+
+    private static final int VERSION = 2;
+
+    private final String environment;
+
+    private final long createdMillis;
+
+    private final Map<String, TreeMap<String, List<URI>>> sections = new LinkedHashMap<>();
+
+    /**
+     * Time the ids of each entry were first seen, by section and key
+     */
+    private final Map<String, Map<String, Long>> firstSeen = new LinkedHashMap<>();
+
+    /**
+     * @param environment   identifies the PASS instance the ids belong to, a snapshot is only used by a run against
+     *                      the same environment
+     * @param createdMillis time the ids were collected
+     */
+    public IdCacheSnapshot(String environment, long createdMillis) {
+        this.environment = (environment != null ? environment : "");
+        this.createdMillis = createdMillis;
+    }
+
+    /**
+     * Adds an entry to a section, first seen at the time the snapshot was created. Ignored if the key is null or
+     * there are no ids.
+     *
+     * @param section the section, usually the name of the cache
+     * @param key     the key
+     * @param ids     the ids for the key
+     */
+    public void add(String section, String key, Collection<URI> ids) {
+        add(section, key, ids, createdMillis);
+    }
+
+    /**
+     * Adds an entry to a section. Ignored if the key is null or there are no ids.
+     *
+     * @param section         the section, usually the name of the cache
+     * @param key             the key
+     * @param ids             the ids for the key
+     * @param firstSeenMillis time the ids were first seen, no later than the time the snapshot was created
+     */
+    public void add(String section, String key, Collection<URI> ids, long firstSeenMillis) {
+        if (key == null || ids == null || ids.isEmpty()) {
+            return;
+        }
+        List<URI> values = new ArrayList<>(ids);
+        values.removeIf(Objects::isNull);
+        if (!values.isEmpty()) {
+            sections.computeIfAbsent(section, name -> new TreeMap<>()).put(key, values);
+            firstSeen.computeIfAbsent(section, name -> new LinkedHashMap<>())
+                     .put(key, Math.min(firstSeenMillis, createdMillis));
+        }
+    }
+
+    /**
+     * @param section the section
+     * @param key     the key
+     * @return time the ids for the key were first seen, or the time the snapshot was created if there is no entry
+     */
+    public long getFirstSeenMillis(String section, String key) {
+        Long seen = firstSeen.getOrDefault(section, Collections.emptyMap()).get(key);
+        return (seen != null ? seen : createdMillis);
+    }
+
+    /**
+     * @param section the section
+     * @return the entries in the section, sorted by key, empty if there are none
+     */
+    public Map<String, List<URI>> getSection(String section) {
+        Map<String, List<URI>> entries = sections.get(section);
+        return (entries != null ? Collections.unmodifiableMap(entries) : Collections.emptyMap());
+    }
+
+    /**
+     * @return number of entries in all sections
+     */
+    public int size() {
+        return sections.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * @return time the ids were collected
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and then moves it into place, so that a run that is stopped part way
+     * through never leaves a partly written snapshot behind
+     *
+     * @param file the file
+     */
+    public void write(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            CRC32 crc = new CRC32();
+            try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(temp))) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+                writeContents(out);
+                out.flush();
+                new DataOutputStream(fileOut).writeInt((int) crc.getValue());
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            temp.delete();
+            throw new RuntimeException("Could not write id cache snapshot to " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Reads a snapshot, checking that it is intact, was written for the same environment and is not too old.
+     * Entries first seen longer ago than the maximum age are left out.
+     *
+     * @param file         the file
+     * @param environment  the environment of this run
+     * @param maxAgeMillis how old the snapshot can be
+     * @param nowMillis    the current time
+     * @return the snapshot, or null if there is none or it cannot be used
+     */
+    public static IdCacheSnapshot read(File file, String environment, long maxAgeMillis, long nowMillis) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < 4) {
+                throw new IOException("file is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            int expected = new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 4, 4)).readInt();
+            if ((int) crc.getValue() != expected) {
+                throw new IOException("checksum does not match");
+            }
+            IdCacheSnapshot snapshot = readContents(new DataInputStream(
+                new ByteArrayInputStream(bytes, 0, bytes.length - 4)), nowMillis - maxAgeMillis);
+            if (!snapshot.environment.equals(environment != null ? environment : "")) {
+                LOG.info("Ignoring id cache snapshot at {}, it was written for {}", file, snapshot.environment);
+                return null;
+            }
+            long age = nowMillis - snapshot.createdMillis;
+            if (age > maxAgeMillis || age < 0) {
+                LOG.info("Ignoring id cache snapshot at {}, it is {} hours old", file,
+                         TimeUnit.MILLISECONDS.toHours(age));
+                return null;
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Ignoring id cache snapshot at {}, it could not be read: {}", file, ex.getMessage());
+            return null;
+        }
+    }
+
+    private void writeContents(DataOutputStream out) throws IOException {
+        String base = commonPrefix();
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(createdMillis);
+        writeString(out, environment);
+        writeString(out, base);
+        writeVarint(out, sections.size());
+        for (Map.Entry<String, TreeMap<String, List<URI>>> section : sections.entrySet()) {
+            writeString(out, section.getKey());
+            writeVarint(out, section.getValue().size());
+            String previous = "";
+            for (Map.Entry<String, List<URI>> entry : section.getValue().entrySet()) {
+                String key = entry.getKey();
+                int shared = sharedLength(previous, key);
+                writeVarint(out, shared);
+                writeString(out, key.substring(shared));
+                writeVarint(out, entry.getValue().size());
+                for (URI id : entry.getValue()) {
+                    String value = id.toString();
+                    boolean relative = !base.isEmpty() && value.startsWith(base);
+                    byte[] bytes = (relative ? value.substring(base.length()) : value)
+                        .getBytes(StandardCharsets.UTF_8);
+                    writeVarint(out, ((long) bytes.length << 1) | (relative ? 1 : 0));
+                    out.write(bytes);
+                }
+                writeVarint(out, createdMillis - getFirstSeenMillis(section.getKey(), key));
+                previous = key;
+            }
+        }
+    }
+
+    /**
+     * @param in             the contents of the file, without the checksum
+     * @param oldestAccepted entries first seen before this time are left out
+     */
+    private static IdCacheSnapshot readContents(DataInputStream in, long oldestAccepted) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an id cache snapshot");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        long created = in.readLong();
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(readString(in), created);
+        String base = readString(in);
+        long sectionCount = readVarint(in);
+        int dropped = 0;
+        for (long s = 0; s < sectionCount; s++) {
+            String section = readString(in);
+            long entryCount = readVarint(in);
+            String previous = "";
+            for (long e = 0; e < entryCount; e++) {
+                int shared = (int) readVarint(in);
+                if (shared > previous.length()) {
+                    throw new IOException("invalid key in section " + section);
+                }
+                String key = previous.substring(0, shared) + readString(in);
+                int idCount = (int) readVarint(in);
+                List<URI> ids = new ArrayList<>(idCount);
+                for (int i = 0; i < idCount; i++) {
+                    long header = readVarint(in);
+                    String value = new String(readBytes(in, (int) (header >>> 1)), StandardCharsets.UTF_8);
+                    ids.add(URI.create((header & 1) == 1 ? base + value : value));
+                }
+                long seen = created - readVarint(in);
+                if (seen >= oldestAccepted) {
+                    snapshot.add(section, key, ids, seen);
+                } else {
+                    dropped++;
+                }
+                previous = key;
+            }
+        }
+        if (in.read() != -1) {
+            throw new IOException("unexpected data after the last section");
+        }
+        if (dropped > 0) {
+            LOG.info("Left out {} entries of the id cache snapshot that were first seen too long ago", dropped);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the longest prefix shared by all of the ids, ending at a "/", or an empty string if there is none
+     */
+    private String commonPrefix() {
+        String prefix = null;
+        for (TreeMap<String, List<URI>> entries : sections.values()) {
+            for (List<URI> ids : entries.values()) {
+                for (URI id : ids) {
+                    String value = id.toString();
+                    prefix = (prefix == null ? value : prefix.substring(0, sharedLength(prefix, value)));
+                }
+            }
+        }
+        return (prefix != null ? prefix.substring(0, prefix.lastIndexOf('/') + 1) : "");
+    }
+
+    private static int sharedLength(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in, (int) readVarint(in)), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > in.available()) {
+            throw new IOException("invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes an unsigned value 7 bits at a time, lowest first, setting the high bit of each byte but the last
+     */
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            out.writeByte((int) ((remaining & 0x7f) | 0x80));
+            remaining = remaining >>> 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift = shift + 7) {
+            int b = in.readUnsignedByte();
+            value = value | ((long) (b & 0x7f) << shift);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("invalid varint");
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+/**
+ * Hit, miss and eviction counts for an {@link IdCache}
+ */
+public class IdCacheStats {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    /**
+     * @param hitCount      number of lookups that found a value
+     * @param missCount     number of lookups that did not find a value
+     * @param evictionCount number of entries removed because the cache was full or the entry expired
+     */
+    public IdCacheStats(long hitCount, long missCount, long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * @return number of lookups that found a value
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of lookups that did not find a value
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of entries removed because the cache was full or the entry expired
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses, %d evictions", hitCount, missCount, evictionCount);
+    }
+
+}
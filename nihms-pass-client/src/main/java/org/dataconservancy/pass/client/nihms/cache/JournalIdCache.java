@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import java.net.URI;
+import java.util.function.BiConsumer;
+
+/**
+ * Caches issn and journalId combination for easy lookup
+ */
+public class JournalIdCache {
+
+    private final IdCache<String, URI> journalCache;
+    private final IdCache<String, Boolean> notFoundCache;
+
+    /**
+     * @param journalCache  the cache of journalIds by issn
+     * @param notFoundCache the cache of issns with no Journal, entries should expire
+     */
+    public JournalIdCache(IdCache<String, URI> journalCache, IdCache<String, Boolean> notFoundCache) {
+        this.journalCache = journalCache;
+        this.notFoundCache = notFoundCache;
+    }
+
+    /**
+     * Add journal to map
+     *
+     * @param issn      the issn
+     * @param journalId the journal id
+     */
+    public void put(String issn, URI journalId) {
+        journalCache.put(issn, journalId);
+        notFoundCache.remove(issn);
+    }
+
+    /**
+     * Retrieve journalId by issn
+     *
+     * @param issn the issn
+     * @return the journal uri
+     */
+    public URI get(String issn) {
+        return journalCache.get(issn);
+    }
+
+    /**
+     * Remove a Journal from cache
+     *
+     * @param issn the issn
+     */
+    public void remove(String issn) {
+        journalCache.remove(issn);
+        notFoundCache.remove(issn);
+    }
+
+    /**
+     * Record that no Journal matches the issn. Ignored if a journalId is already cached for the issn.
+     *
+     * @param issn the issn
+     */
+    public void putNotFound(String issn) {
+        if (journalCache.get(issn) == null) {
+            notFoundCache.put(issn, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Check whether the issn was recorded as having no matching Journal
+     *
+     * @param issn the issn
+     * @return true if the issn is known to have no Journal and the entry has not expired
+     */
+    public boolean isNotFound(String issn) {
+        return notFoundCache.get(issn) != null;
+    }
+
+    /**
+     * Get number of cached journals
+     *
+     * @return the size of the cache
+     */
+    public int size() {
+        return (int) journalCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached journals
+     */
+    public IdCacheStats getStats() {
+        return journalCache.getStats();
+    }
+
+    /**
+     * @return hits, misses and evictions for the issns with no Journal
+     */
+    public IdCacheStats getNotFoundStats() {
+        return notFoundCache.getStats();
+    }
+
+    /**
+     * Calls the action for each cached issn and journalId pair
+     *
+     * @param action the action
+     */
+    public void forEach(BiConsumer<String, URI> action) {
+        journalCache.forEach(action);
+    }
+
+    /**
+     * Empty map
+     */
+    public void clear() {
+        journalCache.clear();
+        notFoundCache.clear();
+    }
+
+}
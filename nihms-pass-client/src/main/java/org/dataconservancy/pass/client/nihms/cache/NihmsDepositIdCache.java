@@ -16,7 +16,7 @@
 package org.dataconservancy.pass.client.nihms.cache;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.function.BiConsumer;
 
 /**
  * Caches submission and depositId combination for easy lookup
@@ -26,18 +26,13 @@ import java.util.HashMap;
  */
 public class NihmsDepositIdCache {
 
-    private HashMap<URI, URI> depositCache;
-    private static NihmsDepositIdCache depositSpace = null;
+    private final IdCache<URI, URI> depositCache;
 
-    private NihmsDepositIdCache() {
-        depositCache = new HashMap<URI, URI>();
-    }
-
-    public static synchronized NihmsDepositIdCache getInstance() {
-        if (depositSpace == null) {
-            depositSpace = new NihmsDepositIdCache();
-        }
-        return depositSpace;
+    /**
+     * @param depositCache the cache of NIHMS depositIds by submissionId
+     */
+    public NihmsDepositIdCache(IdCache<URI, URI> depositCache) {
+        this.depositCache = depositCache;
     }
 
     /**
@@ -46,7 +41,7 @@ public class NihmsDepositIdCache {
      * @param submissionId the submission id
      * @param depositId    the deposit id
      */
-    public synchronized void put(URI submissionId, URI depositId) {
+    public void put(URI submissionId, URI depositId) {
         depositCache.put(submissionId, depositId);
     }
 
@@ -56,7 +51,7 @@ public class NihmsDepositIdCache {
      * @param submissionId the submission id
      * @return the URI from the deposit cache
      */
-    public synchronized URI get(URI submissionId) {
+    public URI get(URI submissionId) {
         return depositCache.get(submissionId);
     }
 
@@ -65,7 +60,7 @@ public class NihmsDepositIdCache {
      *
      * @param submissionId the submission id
      */
-    public synchronized void remove(URI submissionId) {
+    public void remove(URI submissionId) {
         depositCache.remove(submissionId);
     }
 
@@ -74,14 +69,30 @@ public class NihmsDepositIdCache {
      *
      * @return the number of cached deposits
      */
-    public synchronized int size() {
-        return depositCache.size();
+    public int size() {
+        return (int) depositCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached deposits
+     */
+    public IdCacheStats getStats() {
+        return depositCache.getStats();
+    }
+
+    /**
+     * Calls the action for each cached submissionId and depositId pair
+     *
+     * @param action the action
+     */
+    public void forEach(BiConsumer<URI, URI> action) {
+        depositCache.forEach(action);
     }
 
     /**
      * Empty map
      */
-    public synchronized void clear() {
+    public void clear() {
         depositCache.clear();
     }
 
@@ -16,7 +16,7 @@
 package org.dataconservancy.pass.client.nihms.cache;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.function.BiConsumer;
 
 /**
  * Caches publicationId and repositoryCopyId mapping for easy lookup
@@ -26,18 +26,16 @@ import java.util.HashMap;
  */
 public class NihmsRepositoryCopyIdCache {
 
-    private HashMap<URI, URI> nihmsRepoCopyCache;
-    private static NihmsRepositoryCopyIdCache repositoryCopySpace = null;
+    private final IdCache<URI, URI> nihmsRepoCopyCache;
+    private final IdCache<URI, Boolean> notFoundCache;
 
-    private NihmsRepositoryCopyIdCache() {
-        nihmsRepoCopyCache = new HashMap<URI, URI>();
-    }
-
-    public static synchronized NihmsRepositoryCopyIdCache getInstance() {
-        if (repositoryCopySpace == null) {
-            repositoryCopySpace = new NihmsRepositoryCopyIdCache();
-        }
-        return repositoryCopySpace;
+    /**
+     * @param nihmsRepoCopyCache the cache of NIHMS repositoryCopyIds by publicationId
+     * @param notFoundCache      the cache of publicationIds with no NIHMS RepositoryCopy, entries should expire
+     */
+    public NihmsRepositoryCopyIdCache(IdCache<URI, URI> nihmsRepoCopyCache, IdCache<URI, Boolean> notFoundCache) {
+        this.nihmsRepoCopyCache = nihmsRepoCopyCache;
+        this.notFoundCache = notFoundCache;
     }
 
     /**
@@ -46,8 +44,9 @@ public class NihmsRepositoryCopyIdCache {
      * @param publicationId    the publication id
      * @param repositoryCopyId the repository copy it
      */
-    public synchronized void put(URI publicationId, URI repositoryCopyId) {
+    public void put(URI publicationId, URI repositoryCopyId) {
         nihmsRepoCopyCache.put(publicationId, repositoryCopyId);
+        notFoundCache.remove(publicationId);
     }
 
     /**
@@ -56,7 +55,7 @@ public class NihmsRepositoryCopyIdCache {
      * @param publicationId the publication id
      * @return the repository copy id
      */
-    public synchronized URI get(URI publicationId) {
+    public URI get(URI publicationId) {
         return nihmsRepoCopyCache.get(publicationId);
     }
 
@@ -65,8 +64,31 @@ public class NihmsRepositoryCopyIdCache {
      *
      * @param publicationId the publication id
      */
-    public synchronized void remove(URI publicationId) {
+    public void remove(URI publicationId) {
         nihmsRepoCopyCache.remove(publicationId);
+        notFoundCache.remove(publicationId);
+    }
+
+    /**
+     * Record that no NIHMS RepositoryCopy matches the publicationId. Ignored if a repositoryCopyId is already cached
+     * for the publicationId.
+     *
+     * @param publicationId the publication id
+     */
+    public void putNotFound(URI publicationId) {
+        if (nihmsRepoCopyCache.get(publicationId) == null) {
+            notFoundCache.put(publicationId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Check whether the publicationId was recorded as having no matching NIHMS RepositoryCopy
+     *
+     * @param publicationId the publication id
+     * @return true if the publication id is known to have no NIHMS RepositoryCopy and the entry has not expired
+     */
+    public boolean isNotFound(URI publicationId) {
+        return notFoundCache.get(publicationId) != null;
     }
 
     /**
@@ -74,15 +96,39 @@ public class NihmsRepositoryCopyIdCache {
      *
      * @return the cache size
      */
-    public synchronized int size() {
-        return nihmsRepoCopyCache.size();
+    public int size() {
+        return (int) nihmsRepoCopyCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached mappings
+     */
+    public IdCacheStats getStats() {
+        return nihmsRepoCopyCache.getStats();
+    }
+
+    /**
+     * @return hits, misses and evictions for the publicationIds with no NIHMS RepositoryCopy
+     */
+    public IdCacheStats getNotFoundStats() {
+        return notFoundCache.getStats();
+    }
+
+    /**
+     * Calls the action for each cached publicationId and repositoryCopyId pair
+     *
+     * @param action the action
+     */
+    public void forEach(BiConsumer<URI, URI> action) {
+        nihmsRepoCopyCache.forEach(action);
     }
 
     /**
      * Empty map
      */
-    public synchronized void clear() {
+    public void clear() {
         nihmsRepoCopyCache.clear();
+        notFoundCache.clear();
     }
 
 }
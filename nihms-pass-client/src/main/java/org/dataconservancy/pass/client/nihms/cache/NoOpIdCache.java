@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * {@link IdCache} that keeps nothing, used when a cache is turned off. Every lookup is counted as a miss.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public class NoOpIdCache<K, V> implements IdCache<K, V> {
+
+    private final LongAdder misses = new LongAdder();
+
+    @Override
+    public V get(K key) {
+        misses.increment();
+        return null;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        //nothing is kept
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        return remapping.apply(key, null);
+    }
+
+    @Override
+    public void remove(K key) {
+        //nothing is kept
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        //nothing is kept
+    }
+
+    @Override
+    public long size() {
+        return 0;
+    }
+
+    @Override
+    public void clear() {
+        //nothing is kept
+    }
+
+    @Override
+    public IdCacheStats getStats() {
+        return new IdCacheStats(0, misses.sum(), 0);
+    }
+
+}
@@ -16,7 +16,7 @@
 package org.dataconservancy.pass.client.nihms.cache;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.function.BiConsumer;
 
 /**
  * Caches pmid and publicationId combination for easy lookup
@@ -25,18 +25,16 @@ import java.util.HashMap;
  */
 public class PublicationIdCache {
 
-    private HashMap<String, URI> publicationCache;
-    private static PublicationIdCache publicationSpace = null;
+    private final IdCache<String, URI> publicationCache;
+    private final IdCache<String, Boolean> notFoundCache;
 
-    private PublicationIdCache() {
-        publicationCache = new HashMap<String, URI>();
-    }
-
-    public static synchronized PublicationIdCache getInstance() {
-        if (publicationSpace == null) {
-            publicationSpace = new PublicationIdCache();
-        }
-        return publicationSpace;
+    /**
+     * @param publicationCache the cache of publicationIds by pmid
+     * @param notFoundCache    the cache of pmids with no Publication, entries should expire
+     */
+    public PublicationIdCache(IdCache<String, URI> publicationCache, IdCache<String, Boolean> notFoundCache) {
+        this.publicationCache = publicationCache;
+        this.notFoundCache = notFoundCache;
     }
 
     /**
@@ -45,8 +43,9 @@ public class PublicationIdCache {
      * @param pmid          the pmid
      * @param publicationId the publication id
      */
-    public synchronized void put(String pmid, URI publicationId) {
+    public void put(String pmid, URI publicationId) {
         publicationCache.put(pmid, publicationId);
+        notFoundCache.remove(pmid);
     }
 
     /**
@@ -55,7 +54,7 @@ public class PublicationIdCache {
      * @param pmid the pmid
      * @return the publication uri
      */
-    public synchronized URI get(String pmid) {
+    public URI get(String pmid) {
         return publicationCache.get(pmid);
     }
 
@@ -64,8 +63,30 @@ public class PublicationIdCache {
      *
      * @param pmid the pmid
      */
-    public synchronized void remove(String pmid) {
+    public void remove(String pmid) {
         publicationCache.remove(pmid);
+        notFoundCache.remove(pmid);
+    }
+
+    /**
+     * Record that no Publication matches the pmid. Ignored if a publicationId is already cached for the pmid.
+     *
+     * @param pmid the pmid
+     */
+    public void putNotFound(String pmid) {
+        if (publicationCache.get(pmid) == null) {
+            notFoundCache.put(pmid, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Check whether the pmid was recorded as having no matching Publication
+     *
+     * @param pmid the pmid
+     * @return true if the pmid is known to have no Publication and the entry has not expired
+     */
+    public boolean isNotFound(String pmid) {
+        return notFoundCache.get(pmid) != null;
     }
 
     /**
@@ -73,15 +94,39 @@ public class PublicationIdCache {
      *
      * @return the size of the cache
      */
-    public synchronized int size() {
-        return publicationCache.size();
+    public int size() {
+        return (int) publicationCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached publications
+     */
+    public IdCacheStats getStats() {
+        return publicationCache.getStats();
+    }
+
+    /**
+     * @return hits, misses and evictions for the pmids with no Publication
+     */
+    public IdCacheStats getNotFoundStats() {
+        return notFoundCache.getStats();
+    }
+
+    /**
+     * Calls the action for each cached pmid and publicationId pair
+     *
+     * @param action the action
+     */
+    public void forEach(BiConsumer<String, URI> action) {
+        publicationCache.forEach(action);
     }
 
     /**
      * Empty map
      */
-    public synchronized void clear() {
+    public void clear() {
         publicationCache.clear();
+        notFoundCache.clear();
     }
 
 }
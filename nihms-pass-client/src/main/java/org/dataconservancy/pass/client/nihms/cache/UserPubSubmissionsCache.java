@@ -16,9 +16,9 @@
 package org.dataconservancy.pass.client.nihms.cache;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Caches userIdPubId as concatenated string with the list of submissions relevant to that combination to ensure
@@ -28,18 +28,13 @@ import java.util.Set;
  */
 public class UserPubSubmissionsCache {
 
-    private HashMap<String, Set<URI>> userPubSubmissionsCache;
-    private static UserPubSubmissionsCache userPubSubmissionCache = null;
+    private final IdCache<String, Set<URI>> userPubSubmissionsCache;
 
-    private UserPubSubmissionsCache() {
-        userPubSubmissionsCache = new HashMap<String, Set<URI>>();
-    }
-
-    public static synchronized UserPubSubmissionsCache getInstance() {
-        if (userPubSubmissionCache == null) {
-            userPubSubmissionCache = new UserPubSubmissionsCache();
-        }
-        return userPubSubmissionCache;
+    /**
+     * @param userPubSubmissionsCache the cache of submissionIds by concatenated user id and publication id
+     */
+    public UserPubSubmissionsCache(IdCache<String, Set<URI>> userPubSubmissionsCache) {
+        this.userPubSubmissionsCache = userPubSubmissionsCache;
     }
 
     /**
@@ -48,13 +43,13 @@ public class UserPubSubmissionsCache {
      * @param userIdPubId  the concatenated user id and publication id
      * @param submissionId the submission id
      */
-    public synchronized void addToOrCreateEntry(String userIdPubId, URI submissionId) {
-        Set<URI> submissionIds = userPubSubmissionsCache.get(userIdPubId);
-        if (submissionIds == null) {
-            submissionIds = new HashSet<URI>();
-        }
-        submissionIds.add(submissionId);
-        userPubSubmissionsCache.put(userIdPubId, submissionIds);
+    public void addToOrCreateEntry(String userIdPubId, URI submissionId) {
+        userPubSubmissionsCache.compute(userIdPubId, (key, submissionIds) -> {
+            // copy rather than modify the set, a caller may be reading the set that is cached
+            Set<URI> updated = (submissionIds == null ? new HashSet<URI>() : new HashSet<URI>(submissionIds));
+            updated.add(submissionId);
+            return updated;
+        });
     }
 
     /**
@@ -63,7 +58,7 @@ public class UserPubSubmissionsCache {
      * @param userIdPubId   the concatenated user id and publication id
      * @param submissionIds the submission ids
      */
-    public synchronized void put(String userIdPubId, Set<URI> submissionIds) {
+    public void put(String userIdPubId, Set<URI> submissionIds) {
         userPubSubmissionsCache.put(userIdPubId, submissionIds);
     }
 
@@ -73,7 +68,7 @@ public class UserPubSubmissionsCache {
      * @param userIdPubId the concatenated user id and publication id
      * @return submission ids
      */
-    public synchronized Set<URI> get(String userIdPubId) {
+    public Set<URI> get(String userIdPubId) {
         return userPubSubmissionsCache.get(userIdPubId);
     }
 
@@ -82,7 +77,7 @@ public class UserPubSubmissionsCache {
      *
      * @param userIdPubId the concatenated user id and publication id
      */
-    public synchronized void remove(String userIdPubId) {
+    public void remove(String userIdPubId) {
         userPubSubmissionsCache.remove(userIdPubId);
     }
 
@@ -91,14 +86,30 @@ public class UserPubSubmissionsCache {
      *
      * @return the size of the cache
      */
-    public synchronized int size() {
-        return userPubSubmissionsCache.size();
+    public int size() {
+        return (int) userPubSubmissionsCache.size();
+    }
+
+    /**
+     * @return hits, misses and evictions for the cached submissions
+     */
+    public IdCacheStats getStats() {
+        return userPubSubmissionsCache.getStats();
+    }
+
+    /**
+     * Calls the action for each cached entry, given the concatenated user id and publication id and the submissionIds
+     *
+     * @param action the action
+     */
+    public void forEach(BiConsumer<String, Set<URI>> action) {
+        userPubSubmissionsCache.forEach(action);
     }
 
     /**
      * Empty map
      */
-    public synchronized void clear() {
+    public void clear() {
         userPubSubmissionsCache.clear();
     }
 
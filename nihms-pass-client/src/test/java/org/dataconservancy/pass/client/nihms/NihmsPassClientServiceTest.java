@@ -17,6 +17,7 @@ package org.dataconservancy.pass.client.nihms;
 
 import static org.dataconservancy.pass.client.nihms.NihmsPassClientService.ERR_CREATE_PUBLICATION;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -27,15 +28,19 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.dataconservancy.pass.client.PassClient;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Grant;
+import org.dataconservancy.pass.model.Journal;
 import org.dataconservancy.pass.model.Publication;
 import org.dataconservancy.pass.model.RepositoryCopy;
 import org.dataconservancy.pass.model.Submission;
@@ -45,6 +50,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -75,6 +81,9 @@ public class NihmsPassClientServiceTest {
     @Rule
     public ExpectedException expectedEx = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private PassClient mockClient;
 
@@ -159,6 +168,69 @@ public class NihmsPassClientServiceTest {
         assertEquals(grant2, matchedGrant);
     }
 
+    /**
+     * Checks that an award number with no Grant is only searched for once
+     */
+    @Test
+    public void testFindGrantByAwardNumberCachesNoMatch() {
+        assertNull(clientService.findMostRecentGrantByAwardNumber(awardNumber));
+        assertNull(clientService.findMostRecentGrantByAwardNumber(awardNumber));
+
+        verify(mockClient, times(2)).findAllByAttribute(eq(Grant.class), eq("awardNumber"), any());
+    }
+
+    /**
+     * Checks that a Grant cited by many rows is only read once
+     */
+    @Test
+    public void testFindGrantByAwardNumberReadsGrantOnce() {
+        Grant grant = new Grant();
+        grant.setId(grantId);
+        grant.setAwardNumber(awardNumber);
+
+        when(mockClient.findAllByAttribute(eq(Grant.class), eq("awardNumber"), eq(awardNumber)))
+            .thenReturn(new HashSet<URI>(Arrays.asList(grantId)));
+        when(mockClient.readResource(eq(grantId), eq(Grant.class))).thenReturn(grant);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(grant, clientService.findMostRecentGrantByAwardNumber(awardNumber));
+        }
+        verify(mockClient, times(1)).readResource(eq(grantId), eq(Grant.class));
+    }
+
+    /**
+     * Checks that prefetching Grants searches for each distinct award number once, and that the Grants found
+     * and the award numbers with no Grant are then served from the cache
+     */
+    @Test
+    public void testPrefetchGrantsByAwardNumber() throws Exception {
+        Grant grant1 = new Grant();
+        grant1.setId(grantId);
+        grant1.setAwardNumber(awardNumber);
+        grant1.setStartDate(new DateTime());
+
+        Set<URI> grantIds = new HashSet<URI>();
+        grantIds.add(grantId);
+        String otherAwardNumber = "AB5678";
+
+        when(mockClient.findAllByAttribute(eq(Grant.class), eq("awardNumber"), eq(awardNumber.replace(" ", ""))))
+            .thenReturn(grantIds);
+        when(mockClient.readResource(eq(grantId), eq(Grant.class))).thenReturn(grant1);
+
+        List<String> awardNumbers = Arrays.asList(awardNumber, awardNumber.toLowerCase(), awardNumber,
+                                                  otherAwardNumber, "");
+        int saved = clientService.prefetchGrantsByAwardNumber(awardNumbers, 2);
+
+        // 7 searches when looking up each record, 3 distinct
+        assertEquals(4, saved);
+        verify(mockClient, times(3)).findAllByAttribute(eq(Grant.class), eq("awardNumber"), any());
+        verify(mockClient).readResource(eq(grantId), eq(Grant.class));
+
+        assertEquals(grant1, clientService.findMostRecentGrantByAwardNumber(awardNumber.toLowerCase()));
+        assertNull(clientService.findMostRecentGrantByAwardNumber(otherAwardNumber));
+        verify(mockClient, times(3)).findAllByAttribute(eq(Grant.class), eq("awardNumber"), any());
+    }
+
     /**
      * Checks that findPublicationById returns match based on PMID
      */
@@ -251,6 +323,46 @@ public class NihmsPassClientServiceTest {
         assertNull(matchedRepoCopy);
     }
 
+    /**
+     * Checks that a publication with no NIHMS RepositoryCopy is not searched for again until one is created
+     */
+    @Test
+    public void testFindRepositoryCopyNoMatchCachedUntilCreated() throws Exception {
+        assertNull(clientService.findNihmsRepositoryCopyForPubId(publicationId));
+        assertNull(clientService.findNihmsRepositoryCopyForPubId(publicationId));
+        verify(mockClient, times(1)).findAllByAttributes(eq(RepositoryCopy.class), any());
+
+        RepositoryCopy repoCopy = new RepositoryCopy();
+        repoCopy.setId(repositoryCopyId);
+        repoCopy.setPublication(publicationId);
+        when(mockClient.createResource(repoCopy)).thenReturn(repositoryCopyId);
+        when(mockClient.readResource(eq(repositoryCopyId), eq(RepositoryCopy.class))).thenReturn(repoCopy);
+        clientService.createRepositoryCopy(repoCopy);
+
+        assertEquals(repoCopy, clientService.findNihmsRepositoryCopyForPubId(publicationId));
+        verify(mockClient, times(1)).findAllByAttributes(eq(RepositoryCopy.class), any());
+    }
+
+    /**
+     * Checks that a PMID with no Publication is not searched for again until the Publication is created
+     */
+    @Test
+    public void testFindPublicationByPmidNoMatchCachedUntilCreated() throws Exception {
+        assertNull(clientService.findPublicationByPmid(pmid));
+        assertNull(clientService.findPublicationByPmid(pmid));
+        verify(mockClient, times(1)).findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid));
+
+        Publication publication = new Publication();
+        publication.setId(publicationId);
+        publication.setPmid(pmid);
+        when(mockClient.createResource(publication)).thenReturn(publicationId);
+        when(mockClient.readResource(eq(publicationId), eq(Publication.class))).thenReturn(publication);
+        clientService.createPublication(publication);
+
+        assertEquals(publication, clientService.findPublicationByPmid(pmid));
+        verify(mockClient, times(1)).findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid));
+    }
+
     /**
      * Tests the scenario where a match is found right away using publication+grant
      *
@@ -276,7 +388,8 @@ public class NihmsPassClientServiceTest {
         grant.setPi(userId);
 
         when(mockClient.findAllByAttributes(eq(Submission.class), any())).thenReturn(submissions);
-        when(mockClient.readResource(any(), eq(Submission.class))).thenReturn(submission).thenReturn(submission2);
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenReturn(submission);
+        when(mockClient.readResource(eq(submissionId2), eq(Submission.class))).thenReturn(submission2);
 
         List<Submission> matchedSubmissions = clientService.findSubmissionsByPublicationAndUserId(publicationId,
                                                                                                   userId);
@@ -294,6 +407,49 @@ public class NihmsPassClientServiceTest {
 
     }
 
+    /**
+     * Checks that Submissions found for a User and Publication are not read again by a later search for the same
+     * User and Publication, unless they were updated in between
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindExistingSubmissionReadOnceUntilUpdated() throws Exception {
+        URI submissionId2 = new URI(sSubmissionId + "2");
+
+        Submission submission = new Submission();
+        submission.setId(submissionId);
+        submission.setSubmitter(userId);
+        submission.setPublication(publicationId);
+        submission.setSubmitted(false);
+
+        Submission submission2 = new Submission();
+        submission2.setId(submissionId2);
+        submission2.setSubmitter(userId);
+        submission2.setPublication(publicationId);
+
+        when(mockClient.findAllByAttributes(eq(Submission.class), any()))
+            .thenAnswer(invocation -> new HashSet<URI>(Arrays.asList(submissionId, submissionId2)));
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenReturn(submission);
+        when(mockClient.readResource(eq(submissionId2), eq(Submission.class))).thenReturn(submission2);
+
+        List<Submission> first = clientService.findSubmissionsByPublicationAndUserId(publicationId, userId);
+        List<Submission> second = clientService.findSubmissionsByPublicationAndUserId(publicationId, userId);
+
+        assertEquals(first, second);
+        verify(mockClient, times(1)).readResource(eq(submissionId), eq(Submission.class));
+        verify(mockClient, times(1)).readResource(eq(submissionId2), eq(Submission.class));
+
+        Submission changed = second.get(second.indexOf(submission));
+        changed.setSubmitted(true);
+        assertTrue(clientService.updateSubmission(changed));
+        assertFalse(submission.getSubmitted());
+
+        clientService.findSubmissionsByPublicationAndUserId(publicationId, userId);
+        verify(mockClient, times(2)).readResource(eq(submissionId), eq(Submission.class));
+        verify(mockClient, times(1)).readResource(eq(submissionId2), eq(Submission.class));
+    }
+
     /**
      * Tests the scenario where no match is found using publication+grant
      *
@@ -333,6 +489,13 @@ public class NihmsPassClientServiceTest {
         Deposit deposit = new Deposit();
         deposit.setId(depositId);
         deposit.setSubmission(submissionId);
+
+        // a Submission of the first Publication that is not linked to the NIHMS repository
+        URI submission2Id = new URI(sSubmissionId + "2");
+        Submission submission2 = new Submission();
+        submission2.setId(submission2Id);
+        submission2.setPublication(publicationId);
+        submission2.setSubmitter(userId);
         deposit.setRepository(repositoryId);
 
         when(mockClient.findAllByAttributes(eq(Deposit.class), any())).thenReturn(depositIds);
@@ -421,6 +584,264 @@ public class NihmsPassClientServiceTest {
         verify(mockClient, never()).updateResource(any());
     }
 
+    /**
+     * Checks that a submission read through the service is compared with the copy kept when it was read, rather
+     * than being read again before the update
+     */
+    @Test
+    public void testUpdateSubmissionComparesWithSnapshot() {
+        Submission submission = new Submission();
+        submission.setId(submissionId);
+        submission.setSubmitter(userId);
+        submission.setPublication(publicationId);
+        submission.setSubmitted(false);
+        submission.setVersionTag("1");
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenReturn(submission);
+
+        Submission read = clientService.readSubmission(submissionId);
+        read.setSubmitted(true);
+
+        assertTrue(clientService.updateSubmission(read));
+        verify(mockClient, times(1)).readResource(eq(submissionId), eq(Submission.class));
+        verify(mockClient).updateResource(eq(read));
+    }
+
+    /**
+     * Checks that an unchanged submission read through the service is not written or read again
+     */
+    @Test
+    public void testUpdateSubmissionSnapshotNoChanges() {
+        Submission submission = new Submission();
+        submission.setId(submissionId);
+        submission.setVersionTag("1");
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenReturn(submission);
+
+        Submission read = clientService.readSubmission(submissionId);
+
+        assertFalse(clientService.updateSubmission(read));
+        verify(mockClient, times(1)).readResource(eq(submissionId), eq(Submission.class));
+        verify(mockClient, never()).updateResource(any());
+    }
+
+    /**
+     * Checks that the submission is read again when it is not the version that was read through the service
+     */
+    @Test
+    public void testUpdateSubmissionDifferentVersionReadsAgain() {
+        Submission submission = new Submission();
+        submission.setId(submissionId);
+        submission.setVersionTag("1");
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenReturn(submission);
+        clientService.readSubmission(submissionId);
+
+        Submission other = new Submission();
+        other.setId(submissionId);
+        other.setSubmitter(userId);
+        other.setPublication(publicationId);
+        other.setSubmitted(true);
+        other.setVersionTag("2");
+
+        assertTrue(clientService.updateSubmission(other));
+        verify(mockClient, times(2)).readResource(eq(submissionId), eq(Submission.class));
+        verify(mockClient).updateResource(eq(other));
+    }
+
+    /**
+     * Checks that a Publication is only read once, that callers cannot change the cached copy, and that it is read
+     * again after the service updates it
+     */
+    @Test
+    public void testReadPublicationCachedUntilUpdated() {
+        Publication publication = new Publication();
+        publication.setId(publicationId);
+        publication.setTitle(title);
+        publication.setVersionTag("1");
+        when(mockClient.readResource(eq(publicationId), eq(Publication.class))).thenReturn(publication);
+
+        Publication read = clientService.readPublication(publicationId);
+        read.setTitle("Changed");
+        assertEquals(title, clientService.readPublication(publicationId).getTitle());
+        verify(mockClient, times(1)).readResource(eq(publicationId), eq(Publication.class));
+
+        Publication changed = clientService.readPublication(publicationId);
+        changed.setTitle("Changed");
+        assertTrue(clientService.updatePublication(changed));
+        verify(mockClient).updateResource(eq(changed));
+
+        clientService.readPublication(publicationId);
+        verify(mockClient, times(2)).readResource(eq(publicationId), eq(Publication.class));
+    }
+
+    /**
+     * Checks that an ISSN is only searched for once, whether or not it matches a Journal
+     */
+    @Test
+    public void testFindJournalByIssnCached() throws Exception {
+        URI journalId = new URI("https://example.com/fedora/journals/1");
+        when(mockClient.findByAttribute(eq(Journal.class), eq("issns"), eq("1234-5678"))).thenReturn(journalId);
+
+        assertEquals(journalId, clientService.findJournalByIssn("1234-5678"));
+        assertEquals(journalId, clientService.findJournalByIssn("1234-5678"));
+        assertNull(clientService.findJournalByIssn("9999-9999"));
+        assertNull(clientService.findJournalByIssn("9999-9999"));
+
+        verify(mockClient, times(1)).findByAttribute(eq(Journal.class), eq("issns"), eq("1234-5678"));
+        verify(mockClient, times(1)).findByAttribute(eq(Journal.class), eq("issns"), eq("9999-9999"));
+    }
+
+    /**
+     * Checks that once NIHMS records are preloaded, the Publication, RepositoryCopy, Deposit and Submissions for a row
+     * are found without searching the index or reading them again, including Submissions not linked to the NIHMS
+     * repository, and that ids are listed a page at a time
+     */
+    @Test
+    public void testPreloadNihmsRecords() throws Exception {
+        URI repositoryCopy2Id = new URI(sRepositoryCopyId + "2");
+        URI publication2Id = new URI(sPublicationId + "2");
+
+        Publication publication = new Publication();
+        publication.setId(publicationId);
+        publication.setPmid(pmid);
+        publication.setDoi(doi);
+        Publication publication2 = new Publication();
+        publication2.setId(publication2Id);
+        publication2.setPmid("87654321");
+
+        RepositoryCopy repoCopy = new RepositoryCopy();
+        repoCopy.setId(repositoryCopyId);
+        repoCopy.setPublication(publicationId);
+        RepositoryCopy repoCopy2 = new RepositoryCopy();
+        repoCopy2.setId(repositoryCopy2Id);
+
+        Submission submission = new Submission();
+        submission.setId(submissionId);
+        submission.setPublication(publication2Id);
+        submission.setSubmitter(userId);
+
+        Deposit deposit = new Deposit();
+        deposit.setId(depositId);
+        deposit.setSubmission(submissionId);
+
+        // a Submission of the first Publication that is not linked to the NIHMS repository
+        URI submission2Id = new URI(sSubmissionId + "2");
+        Submission submission2 = new Submission();
+        submission2.setId(submission2Id);
+        submission2.setPublication(publicationId);
+        submission2.setSubmitter(userId);
+
+        when(mockClient.findAllByAttribute(eq(RepositoryCopy.class), eq("repository"), any(), eq(1), eq(0)))
+            .thenReturn(new HashSet<URI>(Arrays.asList(repositoryCopyId)));
+        when(mockClient.findAllByAttribute(eq(RepositoryCopy.class), eq("repository"), any(), eq(1), eq(1)))
+            .thenReturn(new HashSet<URI>(Arrays.asList(repositoryCopy2Id)));
+        when(mockClient.findAllByAttribute(eq(Deposit.class), eq("repository"), any(), eq(1), eq(0)))
+            .thenReturn(new HashSet<URI>(Arrays.asList(depositId)));
+        when(mockClient.findAllByAttribute(eq(Submission.class), eq("repositories"), any(), eq(1), eq(0)))
+            .thenReturn(new HashSet<URI>(Arrays.asList(submissionId)));
+        when(mockClient.readResource(eq(publicationId), eq(Publication.class))).thenReturn(publication);
+        when(mockClient.readResource(eq(publication2Id), eq(Publication.class))).thenReturn(publication2);
+        when(mockClient.readResource(eq(repositoryCopyId), eq(RepositoryCopy.class))).thenReturn(repoCopy);
+        when(mockClient.readResource(eq(repositoryCopy2Id), eq(RepositoryCopy.class))).thenReturn(repoCopy2);
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenReturn(submission);
+        when(mockClient.readResource(eq(depositId), eq(Deposit.class))).thenReturn(deposit);
+        when(mockClient.findAllByAttribute(eq(Submission.class), eq("publication"), eq(publicationId), eq(1), eq(0)))
+            .thenReturn(new HashSet<URI>(Arrays.asList(submission2Id)));
+        when(mockClient.readResource(eq(submission2Id), eq(Submission.class))).thenReturn(submission2);
+
+        assertEquals(7, clientService.preloadNihmsRecords(1, 2));
+
+        assertEquals(publication, clientService.findPublicationByPmid(pmid));
+        assertEquals(publication, clientService.findPublicationByDoi(doi, "11111111"));
+        assertEquals(repoCopy, clientService.findNihmsRepositoryCopyForPubId(publicationId));
+        assertNull(clientService.findNihmsRepositoryCopyForPubId(publication2Id));
+        assertEquals(deposit, clientService.findNihmsDepositForSubmission(submissionId));
+        assertEquals(Arrays.asList(submission2),
+                     clientService.findSubmissionsByPublicationAndUserId(publicationId, userId));
+        assertEquals(Arrays.asList(submission),
+                     clientService.findSubmissionsByPublicationAndUserId(publication2Id, userId));
+        assertTrue(clientService.findSubmissionsByPublicationAndUserId(publicationId, new URI(sUserId + "2"))
+                                .isEmpty());
+
+        verify(mockClient, times(3)).findAllByAttribute(eq(RepositoryCopy.class), eq("repository"), any(), eq(1),
+                                                        any(Integer.class));
+        verify(mockClient, never()).findByAttribute(any(), any(), any());
+        verify(mockClient, never()).findAllByAttributes(any(), any());
+        verify(mockClient, times(1)).readResource(eq(publicationId), eq(Publication.class));
+        verify(mockClient, times(1)).readResource(eq(repositoryCopyId), eq(RepositoryCopy.class));
+        verify(mockClient, times(1)).readResource(eq(depositId), eq(Deposit.class));
+        verify(mockClient, times(1)).readResource(eq(submission2Id), eq(Submission.class));
+
+        // Submissions of a Publication that was not preloaded are still searched for
+        URI publication3Id = new URI(sPublicationId + "3");
+        clientService.findSubmissionsByPublicationAndUserId(publication3Id, userId);
+        verify(mockClient, times(1)).findAllByAttributes(eq(Submission.class), any());
+    }
+
+    /**
+     * Checks that ids saved by one run are used by the next, and that an id for a record that has since been removed
+     * is dropped and searched for again
+     */
+    @Test
+    public void testCacheSnapshotSavedAndLoaded() throws Exception {
+        File file = folder.newFile("ids.snapshot");
+        Publication publication = new Publication();
+        publication.setId(publicationId);
+        publication.setPmid(pmid);
+        when(mockClient.findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid))).thenReturn(publicationId);
+        when(mockClient.findAllByAttributes(eq(RepositoryCopy.class), any()))
+            .thenReturn(new HashSet<URI>(Arrays.asList(repositoryCopyId)));
+        when(mockClient.readResource(eq(publicationId), eq(Publication.class))).thenReturn(publication);
+        RepositoryCopy repoCopy = new RepositoryCopy();
+        repoCopy.setId(repositoryCopyId);
+        when(mockClient.readResource(eq(repositoryCopyId), eq(RepositoryCopy.class))).thenReturn(repoCopy, null);
+
+        clientService.findPublicationByPmid(pmid);
+        clientService.findNihmsRepositoryCopyForPubId(publicationId);
+        assertEquals(2, clientService.saveCacheSnapshot(file));
+
+        NihmsPassClientService nextRun = new NihmsPassClientService(mockClient);
+        assertEquals(2, nextRun.loadCacheSnapshot(file, TimeUnit.DAYS.toMillis(1)));
+
+        assertEquals(publication, nextRun.findPublicationByPmid(pmid));
+        verify(mockClient, times(1)).findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid));
+
+        // the RepositoryCopy was removed after the snapshot was saved
+        when(mockClient.findAllByAttributes(eq(RepositoryCopy.class), any())).thenReturn(new HashSet<URI>());
+        assertNull(nextRun.findNihmsRepositoryCopyForPubId(publicationId));
+        verify(mockClient, times(2)).findAllByAttributes(eq(RepositoryCopy.class), any());
+    }
+
+    /**
+     * Checks that an entry carried over from one snapshot to the next keeps the time it was first seen, and is left
+     * out once that is older than the maximum age even though the file it is in was just written
+     */
+    @Test
+    public void testCacheSnapshotEntriesExpire() throws Exception {
+        File file = folder.newFile("ids.snapshot");
+        long maxAge = TimeUnit.HOURS.toMillis(48);
+        long firstRun = 1550000000000L;
+        when(mockClient.findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid))).thenReturn(publicationId);
+        Publication publication = new Publication();
+        publication.setId(publicationId);
+        when(mockClient.readResource(eq(publicationId), eq(Publication.class))).thenReturn(publication);
+
+        clientService.findPublicationByPmid(pmid);
+        assertEquals(1, clientService.saveCacheSnapshot(file, firstRun));
+
+        // each following run starts from the snapshot and saves it again without looking the PMID up
+        long secondRun = firstRun + TimeUnit.HOURS.toMillis(24);
+        NihmsPassClientService run = new NihmsPassClientService(mockClient);
+        assertEquals(1, run.loadCacheSnapshot(file, maxAge, secondRun));
+        assertEquals(1, run.saveCacheSnapshot(file, secondRun));
+
+        long thirdRun = secondRun + TimeUnit.HOURS.toMillis(25);
+        run = new NihmsPassClientService(mockClient);
+        assertEquals(0, run.loadCacheSnapshot(file, maxAge, thirdRun));
+        assertEquals(0, run.saveCacheSnapshot(file, thirdRun));
+
+        run.findPublicationByPmid(pmid);
+        verify(mockClient, times(2)).findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid));
+    }
+
     /**
      * Creating a Publication with null DOI and a non-null PMID should succeed
      */
@@ -463,4 +884,29 @@ public class NihmsPassClientServiceTest {
         verifyZeroInteractions(mockClient);
 
     }
+
+    /**
+     * Checks that capping concurrent requests still passes calls through to the client, and that exceptions
+     * from the client reach the caller unwrapped
+     */
+    @Test
+    public void testMaxConcurrentRequestsDelegatesToClient() throws Exception {
+        Publication publication = new Publication();
+        publication.setId(publicationId);
+        publication.setPmid(pmid);
+
+        when(mockClient.findByAttribute(eq(Publication.class), eq("pmid"), eq(pmid))).thenReturn(publicationId);
+        when(mockClient.readResource(eq(publicationId), eq(Publication.class))).thenReturn(publication);
+        when(mockClient.readResource(eq(submissionId), eq(Submission.class))).thenThrow(
+            new IllegalStateException("read failed"));
+
+        clientService.setMaxConcurrentRequests(2);
+
+        assertEquals(publication, clientService.findPublicationByPmid(pmid));
+        verify(mockClient).readResource(eq(publicationId), eq(Publication.class));
+
+        expectedEx.expect(IllegalStateException.class);
+        expectedEx.expectMessage("read failed");
+        clientService.readSubmission(submissionId);
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Caffeine backed id cache
+ */
+public class CaffeineIdCacheTest {
+
+    /**
+     * Checks that the number of entries stays within the maximum and evictions are counted
+     */
+    @Test
+    public void testSizeIsBounded() {
+        CaffeineIdCache<String, String> cache = new CaffeineIdCache<>(10, 0, System::nanoTime, Runnable::run);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(90, cache.getStats().getEvictionCount());
+    }
+
+    /**
+     * Checks that an entry expires once its time to live has passed
+     */
+    @Test
+    public void testEntryExpires() {
+        AtomicLong nanos = new AtomicLong(0);
+        CaffeineIdCache<String, String> cache = new CaffeineIdCache<>(10, 500, nanos::get, Runnable::run);
+        cache.put("key", "value");
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(499));
+        assertEquals("value", cache.get("key"));
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(500));
+        assertNull(cache.get("key"));
+    }
+
+    /**
+     * Checks that hits and misses are counted
+     */
+    @Test
+    public void testStats() {
+        CaffeineIdCache<String, String> cache = new CaffeineIdCache<>(10, 0);
+        cache.put("key", "value");
+        cache.get("key");
+        cache.get("key");
+        cache.get("other");
+
+        assertEquals(2, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+
+import org.dataconservancy.pass.model.Publication;
+import org.junit.Test;
+
+/**
+ * Tests for the cache of whole entities
+ */
+public class EntityCacheTest {
+
+    private static final URI PUBLICATION_ID = URI.create("https://example.com/fedora/publications/1");
+
+    /**
+     * Checks that changes made to an entity after it is cached, or to an entity taken from the cache, do not change
+     * the cached entity
+     */
+    @Test
+    public void testEntitiesAreCopied() {
+        EntityCache<Publication> cache = new EntityCache<>(new CaffeineIdCache<>(10, 0), Publication::new);
+        Publication publication = new Publication();
+        publication.setId(PUBLICATION_ID);
+        publication.setTitle("Title");
+        cache.put(PUBLICATION_ID, publication);
+
+        publication.setTitle("Changed before");
+        Publication cached = cache.get(PUBLICATION_ID);
+        assertEquals("Title", cached.getTitle());
+
+        cached.setTitle("Changed after");
+        assertEquals("Title", cache.get(PUBLICATION_ID).getTitle());
+        assertNotSame(cache.get(PUBLICATION_ID), cache.get(PUBLICATION_ID));
+    }
+
+    /**
+     * Checks that null ids and entities are not cached, and removed entities are gone
+     */
+    @Test
+    public void testPutNullAndRemove() {
+        EntityCache<Publication> cache = new EntityCache<>(new CaffeineIdCache<>(10, 0), Publication::new);
+        cache.put(null, new Publication());
+        cache.put(PUBLICATION_ID, null);
+        assertEquals(0, cache.size());
+
+        cache.put(PUBLICATION_ID, new Publication());
+        cache.remove(PUBLICATION_ID);
+        assertNull(cache.get(PUBLICATION_ID));
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.client.nihms.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the id cache snapshot file
+ */
+public class IdCacheSnapshotTest {
+
+    private static final String ENVIRONMENT = "https://example.com/fedora/repositories/1";
+
+    private static final long NOW = 1550000000000L;
+
+    private static final long MAX_AGE = TimeUnit.HOURS.toMillis(48);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Checks that the entries written are read back, in key order, with ids both inside and outside the common base
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = new File(folder.getRoot(), "ids.snapshot");
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(ENVIRONMENT, NOW);
+        snapshot.add("publications", "2345678", ids("https://example.com/fedora/publications/b"));
+        snapshot.add("publications", "12345678", ids("https://example.com/fedora/publications/a"));
+        snapshot.add("submissions", "user1pub1", ids("https://example.com/fedora/submissions/1",
+                                                     "https://example.com/fedora/submissions/2"));
+        snapshot.add("grants", "R01 AB123456", ids("https://example.com/fedora/grants/9"));
+        snapshot.add("grants", "ignored", Collections.emptyList());
+        snapshot.write(file);
+
+        IdCacheSnapshot read = IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW + 1000);
+        assertNotNull(read);
+        assertEquals(4, read.size());
+        assertEquals(NOW, read.getCreatedMillis());
+        assertEquals(Arrays.asList("12345678", "2345678"),
+                     Arrays.asList(read.getSection("publications").keySet().toArray()));
+        assertEquals(ids("https://example.com/fedora/publications/a"),
+                     read.getSection("publications").get("12345678"));
+        assertEquals(ids("https://example.com/fedora/submissions/1", "https://example.com/fedora/submissions/2"),
+                     read.getSection("submissions").get("user1pub1"));
+        assertEquals(ids("https://example.com/fedora/grants/9"), read.getSection("grants").get("R01 AB123456"));
+        assertTrue(read.getSection("journals").isEmpty());
+    }
+
+    /**
+     * Checks that the time each entry was first seen is kept, and that entries first seen longer ago than the
+     * maximum age are left out
+     */
+    @Test
+    public void testEntriesFirstSeenTooLongAgoLeftOut() throws Exception {
+        File file = new File(folder.getRoot(), "ids.snapshot");
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(ENVIRONMENT, NOW);
+        snapshot.add("grants", "R01 AB123456", ids("https://example.com/fedora/grants/1"), NOW - MAX_AGE);
+        snapshot.add("grants", "R01 AB654321", ids("https://example.com/fedora/grants/2"));
+        snapshot.write(file);
+
+        IdCacheSnapshot read = IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW);
+        assertEquals(2, read.size());
+        assertEquals(NOW - MAX_AGE, read.getFirstSeenMillis("grants", "R01 AB123456"));
+        assertEquals(NOW, read.getFirstSeenMillis("grants", "R01 AB654321"));
+
+        read = IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW + 1);
+        assertEquals(1, read.size());
+        assertEquals(ids("https://example.com/fedora/grants/2"), read.getSection("grants").get("R01 AB654321"));
+    }
+
+    /**
+     * Checks that ids sharing a base URL are stored without it
+     */
+    @Test
+    public void testCommonBaseIsNotRepeated() throws Exception {
+        File file = new File(folder.getRoot(), "ids.snapshot");
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(ENVIRONMENT, NOW);
+        String base = "https://example.com/fedora/rest/pass/publications/";
+        for (int i = 0; i < 1000; i++) {
+            snapshot.add("publications", String.valueOf(10000000 + i), ids(base + i));
+        }
+        snapshot.write(file);
+
+        assertTrue("Snapshot was " + file.length() + " bytes", file.length() < 1000 * 16);
+        assertEquals(ids(base + 999),
+                     IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW).getSection("publications").get("10000999"));
+    }
+
+    /**
+     * Checks that a damaged snapshot is not used
+     */
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        File file = new File(folder.getRoot(), "ids.snapshot");
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(ENVIRONMENT, NOW);
+        snapshot.add("publications", "12345678", ids("https://example.com/fedora/publications/a"));
+        snapshot.write(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0xff);
+        }
+        assertNull(IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(3);
+        }
+        assertNull(IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW));
+        assertNull(IdCacheSnapshot.read(new File(folder.getRoot(), "missing"), ENVIRONMENT, MAX_AGE, NOW));
+    }
+
+    /**
+     * Checks that a snapshot that is too old, or was written for another environment, is not used
+     */
+    @Test
+    public void testStaleOrOtherEnvironmentIsIgnored() throws Exception {
+        File file = new File(folder.getRoot(), "ids.snapshot");
+        IdCacheSnapshot snapshot = new IdCacheSnapshot(ENVIRONMENT, NOW);
+        snapshot.add("publications", "12345678", ids("https://example.com/fedora/publications/a"));
+        snapshot.write(file);
+
+        assertNotNull(IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW + MAX_AGE));
+        assertNull(IdCacheSnapshot.read(file, ENVIRONMENT, MAX_AGE, NOW + MAX_AGE + 1));
+        assertNull(IdCacheSnapshot.read(file, "https://other.example.com/repositories/1", MAX_AGE, NOW));
+    }
+
+    private static List<URI> ids(String... ids) {
+        URI[] uris = new URI[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            uris[i] = URI.create(ids[i]);
+        }
+        return Arrays.asList(uris);
+    }
+
+}